@@ -0,0 +1,102 @@
+package org.pwsafe.jfx;
+
+import javafx.application.Platform;
+import javafx.collections.ObservableList;
+import org.pwsafe.lib.datastore.PwsEntryBean;
+import org.pwsafe.lib.datastore.PwsEntryStore;
+import org.pwsafe.lib.datastore.PwsEntryStoreEvent;
+import org.pwsafe.lib.datastore.PwsEntryStoreListener;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Applies the changes of a store to an observable list of its sparse entries on the JavaFX thread,
+ * so filtered and sorted views of the list only process the changed entries. Entries added in a burst,
+ * like the batches of a safe being loaded, are appended in one change.
+ */
+public class EntryListUpdater implements PwsEntryStoreListener {
+
+    private final ObservableList<PwsEntryBean> entries;
+
+    /** Added entries waiting to be appended, null if there are none. */
+    private List<PwsEntryBean> added;
+
+    public EntryListUpdater(ObservableList<PwsEntryBean> someEntries) {
+        entries = someEntries;
+    }
+
+    /**
+     * Registers a new updater for a list with a store.
+     *
+     * @param aStore the store
+     * @param someEntries the sparse entries of the store
+     * @return the registered updater
+     */
+    public static EntryListUpdater bind(PwsEntryStore aStore, ObservableList<PwsEntryBean> someEntries) {
+        EntryListUpdater updater = new EntryListUpdater(someEntries);
+        aStore.addStoreListener(updater);
+        return updater;
+    }
+
+    @Override
+    public void storeChanged(PwsEntryStoreEvent anEvent) {
+        if (Platform.isFxApplicationThread()) {
+            apply(anEvent);
+        } else {
+            Platform.runLater(() -> apply(anEvent));
+        }
+    }
+
+    private void apply(PwsEntryStoreEvent anEvent) {
+        if (anEvent.getType() == PwsEntryStoreEvent.Type.ADDED) {
+            if (added == null) {
+                added = new ArrayList<>();
+                Platform.runLater(this::appendAdded);
+            }
+            added.add(anEvent.getEntry());
+            return;
+        }
+        // keep the order of the changes
+        appendAdded();
+        switch (anEvent.getType()) {
+            case UPDATED:
+            case MOVED:
+                int updated = indexOf(anEvent.getOldEntry());
+                if (updated >= 0) {
+                    entries.set(updated, anEvent.getEntry());
+                } else {
+                    entries.add(anEvent.getEntry());
+                }
+                break;
+            case REMOVED:
+                int removed = indexOf(anEvent.getEntry());
+                if (removed >= 0) {
+                    entries.remove(removed);
+                }
+                break;
+            default:
+                entries.setAll(anEvent.getStore().getSparseEntries());
+        }
+    }
+
+    private void appendAdded() {
+        if (added != null) {
+            List<PwsEntryBean> batch = added;
+            added = null;
+            entries.addAll(batch);
+        }
+    }
+
+    /**
+     * Finds an entry by identity, as entries with equal values may exist.
+     */
+    private int indexOf(PwsEntryBean anEntry) {
+        for (int i = 0; i < entries.size(); i++) {
+            if (entries.get(i) == anEntry) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
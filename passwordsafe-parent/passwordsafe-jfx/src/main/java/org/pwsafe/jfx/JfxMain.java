@@ -1,6 +1,7 @@
 package org.pwsafe.jfx;
 
 import javafx.application.Application;
+import javafx.concurrent.Task;
 import javafx.fxml.FXMLLoader;
 import javafx.scene.Parent;
 import javafx.scene.Scene;
@@ -27,6 +28,7 @@ public class JfxMain extends Application {
 
     private File passwordSafeFile;
     private PwsEntryStore pwsEntryStore;
+    private Task<PwsEntryStore> openTask;
 
     private UserPreferences userPreferences;
 
@@ -53,6 +55,25 @@ public class JfxMain extends Application {
     public PwsEntryStore getPwsEntryStore(){ return this.pwsEntryStore; }
     public void setPwsEntryStore(PwsEntryStore pwsEntryStore){ this.pwsEntryStore = pwsEntryStore; }
 
+    public Task<PwsEntryStore> getOpenTask(){ return this.openTask; }
+
+    /**
+     * Sets the task opening a safe, cancelling the one before if it is still running.
+     *
+     * @param task the task
+     */
+    public void setOpenTask(Task<PwsEntryStore> task){
+        if (this.openTask != null) {
+            this.openTask.cancel();
+        }
+        this.openTask = task;
+    }
+
+    @Override
+    public void stop() throws Exception {
+        setOpenTask(null);
+    }
+
     public UserPreferences getUserPreferences() { return this.userPreferences; }
     public void setUserPreferences(UserPreferences userPreferences){ this.userPreferences = userPreferences; }
 
@@ -1,9 +1,11 @@
 package org.pwsafe.jfx;
 
+import javafx.application.Platform;
 import javafx.beans.value.ChangeListener;
 import javafx.beans.value.ObservableValue;
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
+import javafx.concurrent.Task;
 import javafx.fxml.FXML;
 import javafx.scene.control.Button;
 import javafx.scene.control.ChoiceBox;
@@ -12,13 +14,16 @@ import javafx.scene.layout.VBox;
 import javafx.stage.FileChooser;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.pwsafe.jfx.basic.TableController;
+import org.pwsafe.lib.Util;
 import org.pwsafe.lib.datastore.PwsEntryStore;
-import org.pwsafe.lib.file.PwsFileFactory;
+import org.pwsafe.lib.file.PwsStoreLoader;
 import org.pwsafe.util.UserPreferences;
 
 import java.io.File;
 import java.io.IOException;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /** Controller of the screen to open a password safe. It manages the selection of a file and the input of the
  * password.
@@ -178,10 +183,11 @@ public class SafeOpeningController {
     }
 
     /**
-     * Opens a password safe from the file system.
+     * Opens a password safe from the file system in a background task. The table is shown as soon as the
+     * passphrase is checked, and the entries are appended in batches while the remaining records are read.
      *
      * @param file
-     * @param password
+     * @param password the passphrase, it is cleared
      * @param forReadOnly
      * @throws Exception if bad things happen during open
      */
@@ -190,21 +196,90 @@ public class SafeOpeningController {
 
         JfxMain.getApplication().setPwsEntryStore(null);
         String fileName = file.getCanonicalPath();
-        PwsEntryStore pwsEntryStore = null;
-        try {
-            pwsEntryStore = PwsFileFactory.loadStore(fileName, password);
-            JfxMain.getApplication().setPwsEntryStore(pwsEntryStore);
-        }
-        catch(Exception e){
+        // the caller's copy is cleared right away, the task clears its own one
+        StringBuilder passphrase = new StringBuilder(password);
+        Util.clear(password);
+        Task<PwsEntryStore> openTask = new Task<PwsEntryStore>() {
+            @Override
+            protected PwsEntryStore call() throws Exception {
+                // the table fields are requested now, so the records are decrypted only once
+                PwsStoreLoader loader;
+                try {
+                    loader = PwsStoreLoader.open(fileName, passphrase, TableController.SPARSE_FIELDS);
+                } finally {
+                    // also on a wrong passphrase, which open doesn't clear
+                    Util.clear(passphrase);
+                }
+                Platform.runLater(() -> {
+                    if (!isCancelled()) {
+                        showSafe(loader.getStore());
+                    }
+                });
+                AtomicBoolean publishPending = new AtomicBoolean();
+                Exception[] failure = new Exception[1];
+                loader.load(new PwsStoreLoader.Listener() {
+                    @Override
+                    public void recordsLoaded(int aCount) {
+                        updateMessage(aCount + " entries loaded");
+                        // one hand over at a time, it takes all entries loaded by then
+                        if (publishPending.compareAndSet(false, true)) {
+                            Platform.runLater(() -> {
+                                publishPending.set(false);
+                                loader.publish();
+                            });
+                        }
+                    }
+
+                    @Override
+                    public void loadFinished(Exception anError) {
+                        failure[0] = anError;
+                    }
+                });
+                if (failure[0] != null) {
+                    throw failure[0];
+                }
+                Platform.runLater(loader::publish);
+                return loader.getStore();
+            }
+        };
+        openTask.setOnFailed(event -> {
             if (log.isDebugEnabled()){
-                log.debug(e);
+                log.debug(openTask.getException());
             }
-        }
-        if (pwsEntryStore != null){
+            dropSafe(openTask);
+        });
+        openTask.setOnCancelled(event -> dropSafe(openTask));
+        JfxMain.getApplication().setOpenTask(openTask);
+        Thread thread = new Thread(openTask, "jpwsafe open");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void showSafe(PwsEntryStore pwsEntryStore) {
+        JfxMain.getApplication().setPwsEntryStore(pwsEntryStore);
+        try {
             //JfxMain.getApplication().setScene("/fxml/basic/list.fxml", JfxMain.DEFAULT_WIDTH, JfxMain.DEFAULT_HEIGHT);
             JfxMain.getApplication().setScene("/fxml/basic/table.fxml", 800, 600);
         }
+        catch (IOException e){
+            log.error("Cannot show the password safe", e);
+        }
+    }
 
+    /**
+     * Goes back to opening a safe if a partly loaded one is shown, as its records have not been verified.
+     */
+    private void dropSafe(Task<PwsEntryStore> openTask) {
+        if (JfxMain.getApplication().getOpenTask() == openTask
+                && JfxMain.getApplication().getPwsEntryStore() != null) {
+            JfxMain.getApplication().setPwsEntryStore(null);
+            try {
+                JfxMain.getApplication().setScene("/fxml/basic/openSafe.fxml", JfxMain.DEFAULT_WIDTH, JfxMain.DEFAULT_HEIGHT);
+            }
+            catch (IOException e){
+                log.error("Cannot show the opening screen", e);
+            }
+        }
     }
 
 }
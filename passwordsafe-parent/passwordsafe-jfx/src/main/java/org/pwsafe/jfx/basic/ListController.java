@@ -19,7 +19,9 @@ import javafx.scene.input.DataFormat;
 import javafx.scene.input.KeyCode;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.pwsafe.jfx.EntryListUpdater;
 import org.pwsafe.jfx.JfxMain;
+import org.pwsafe.lib.Util;
 import org.pwsafe.lib.datastore.PwsEntryBean;
 import org.pwsafe.lib.datastore.PwsEntryStore;
 import org.pwsafe.lib.file.PwsRecord;
@@ -50,6 +52,8 @@ public class ListController {
     private void initialize(){
         PwsEntryStore pwsEntryStore = JfxMain.getApplication().getPwsEntryStore();
         pwEntries = FXCollections.observableArrayList((pwsEntryStore.getSparseEntries()));
+        // keep the list in line with the store, entry by entry
+        EntryListUpdater.bind(pwsEntryStore, pwEntries);
 
         // 0. Initialize the columns.
         titleColumn.setCellValueFactory(cellData -> new ReadOnlyObjectWrapper(cellData.getValue().getTitle()));
@@ -59,24 +63,17 @@ public class ListController {
 
         // 2. Set the filter Predicate whenever the filter changes.
         filterTextField.textProperty().addListener((observable, oldValue, newValue) -> {
+            // If filter text is empty, display all password entries.
+            if (newValue == null || newValue.isEmpty()) {
+                filteredData.setPredicate(pwsEntryBean -> true);
+                return;
+            }
+            // Compare the cached normalized titles with the filter text, which is
+            // normalized only once per change.
+            String normalizedFilter = Util.normalizeForSearch(newValue);
             filteredData.setPredicate(pwsEntryBean -> {
-                // If filter text is empty, display all password entries.
-                if (newValue == null || newValue.isEmpty()) {
-                    return true;
-                }
-                // TODO improve filter: 1.) search not only in title, 2.) avoid toLowerCase() every time (improve algorithm)
-                // Compare title with filter text.
-                String lowerCaseFilter = newValue.toLowerCase();
-
-                if (pwsEntryBean.getTitle().toLowerCase().indexOf(lowerCaseFilter) != -1) {
-                    return true; // Filter matches first name.
-                }
-                /* TODO check other properties of the entry for matching
-                else if (pwsEntryBean.get...().toLowerCase().indexOf(lowerCaseFilter) != -1) {
-                    return true;
-                }
-                */
-                return false; // Does not match.
+                String title = pwsEntryBean.getNormalizedTitle();
+                return title != null && title.contains(normalizedFilter);
             });
         });
 
@@ -1,5 +1,6 @@
 package org.pwsafe.jfx.basic;
 
+import javafx.application.Platform;
 import javafx.beans.InvalidationListener;
 import javafx.beans.Observable;
 import javafx.beans.property.ReadOnlyObjectWrapper;
@@ -16,8 +17,10 @@ import javafx.scene.input.ClipboardContent;
 import javafx.scene.input.DataFormat;
 import javafx.scene.input.KeyCode;
 import org.pwsafe.jfx.DateCellFactory;
+import org.pwsafe.jfx.EntryListUpdater;
 import org.pwsafe.jfx.JfxMain;
 import org.pwsafe.lib.datastore.PwsEntryBean;
+import org.pwsafe.lib.datastore.PwsEntrySearch;
 import org.pwsafe.lib.datastore.PwsEntryStore;
 import org.pwsafe.lib.file.PwsFieldType;
 import org.pwsafe.lib.file.PwsFieldTypeV3;
@@ -45,33 +48,26 @@ public class TableController {
     @FXML
     private TableColumn<PwsEntryBean, Date> changeColumn;
 
+    /**
+     * The fields shown by the table, more than the default sparse fields. They are requested when the
+     * safe is opened, so its records are only decrypted once.
+     */
+    public static final Set<PwsFieldType> SPARSE_FIELDS = Collections.unmodifiableSet(
+            new HashSet<PwsFieldType>(Arrays.asList(
+                    PwsFieldTypeV3.GROUP, PwsFieldTypeV3.TITLE, PwsFieldTypeV3.USERNAME,
+                    PwsFieldTypeV3.NOTES, PwsFieldTypeV3.URL, PwsFieldTypeV3.CREATION_TIME,
+                    PwsFieldTypeV3.LAST_MOD_TIME, PwsFieldTypeV3.LAST_ACCESS_TIME,
+                    PwsFieldTypeV3.PASSWORD_MOD_TIME, PwsFieldTypeV3.PASSWORD_LIFETIME)));
+
     private ObservableList<PwsEntryBean> pwEntries;
 
+    private PwsEntrySearch entrySearch;
+
     @FXML
     private void initialize(){
+        // the store is opened with the SPARSE_FIELDS and may still be loading,
+        // its entries are appended as they arrive
         PwsEntryStore pwsEntryStore = JfxMain.getApplication().getPwsEntryStore();
-        // this are the default sparse fields, but we need more
-        /*
-        EnumSet<PwsFieldTypeV3> DEFAULT_V3_SPARSE_FIELDS = EnumSet.of(
-                PwsFieldTypeV3.TITLE, PwsFieldTypeV3.GROUP, PwsFieldTypeV3.USERNAME,
-                PwsFieldTypeV3.NOTES, PwsFieldTypeV3.URL, PwsFieldTypeV3.PASSWORD_LIFETIME);
-        */
-        Set<PwsFieldType> sparseFields = new HashSet<PwsFieldType>();
-        sparseFields.add(PwsFieldTypeV3.GROUP);
-        sparseFields.add(PwsFieldTypeV3.TITLE);
-        sparseFields.add(PwsFieldTypeV3.USERNAME);
-        sparseFields.add(PwsFieldTypeV3.NOTES);
-        sparseFields.add(PwsFieldTypeV3.URL);
-        sparseFields.add(PwsFieldTypeV3.CREATION_TIME);
-        sparseFields.add(PwsFieldTypeV3.LAST_MOD_TIME);
-        sparseFields.add(PwsFieldTypeV3.LAST_ACCESS_TIME);
-        sparseFields.add(PwsFieldTypeV3.PASSWORD_MOD_TIME);
-        sparseFields.add(PwsFieldTypeV3.PASSWORD_LIFETIME);
-        pwsEntryStore.setSparseFields(sparseFields);
-        // here to fill sparsed entries with data, as only
-        // goup, title, username url and notes are filled,
-        // another solution would be to set explicitely the sparsed fields using
-        // pwsEntryStore.setSparseFields()
         List<PwsEntryBean> pwsEntryBeanList = pwsEntryStore.getSparseEntries();
         /*
         for (PwsEntryBean pwsEntryBean : pwsEntryBeanList){
@@ -79,6 +75,8 @@ public class TableController {
         }
         */
         pwEntries = FXCollections.observableArrayList((pwsEntryBeanList));
+        // keep the list in line with the store, entry by entry
+        EntryListUpdater.bind(pwsEntryStore, pwEntries);
         // 0. Initialize the columns.
         groupColumn.setCellValueFactory(cellData    ->     new ReadOnlyObjectWrapper(cellData.getValue().getGroup()));
         titleColumn.setCellValueFactory(cellData    ->     new ReadOnlyObjectWrapper(cellData.getValue().getTitle()));
@@ -89,27 +87,24 @@ public class TableController {
         // 1. Wrap the ObservableList in a FilteredList (initially display all data).
         FilteredList<PwsEntryBean> filteredData = new FilteredList<>(pwEntries, p -> true);
 
-        // 2. Set the filter Predicate whenever the filter changes.
+        // 2. Set the filter Predicate whenever the filter changes. The store searches
+        // all text fields in the background and narrows to the previous hits while typing
+        // ahead, so the UI thread only swaps in the matches once they are found.
+        entrySearch = new PwsEntrySearch(pwsEntryStore, (query, entries) -> Platform.runLater(() -> {
+            if (query.equals(filterTextField.getText())) {
+                Set<PwsEntryBean> matches = Collections.newSetFromMap(new IdentityHashMap<PwsEntryBean, Boolean>());
+                matches.addAll(entries);
+                filteredData.setPredicate(matches::contains);
+            }
+        }));
         filterTextField.textProperty().addListener((observable, oldValue, newValue) -> {
-            filteredData.setPredicate(pwsEntryBean -> {
-                // If filter text is empty, display all password entries.
-                if (newValue == null || newValue.isEmpty()) {
-                    return true;
-                }
-                // TODO improve filter: 1.) search not only in title, 2.) avoid toLowerCase() every time (improve algorithm)
-                // Compare title with filter text.
-                String lowerCaseFilter = newValue.toLowerCase();
-
-                if (pwsEntryBean.getTitle().toLowerCase().indexOf(lowerCaseFilter) != -1) {
-                    return true; // Filter matches first name.
-                }
-                /* TODO check other properties of the entry for matching
-                else if (pwsEntryBean.get...().toLowerCase().indexOf(lowerCaseFilter) != -1) {
-                    return true;
-                }
-                */
-                return false; // Does not match.
-            });
+            // If filter text is empty, display all password entries.
+            if (newValue == null || newValue.isEmpty()) {
+                entrySearch.cancel();
+                filteredData.setPredicate(pwsEntryBean -> true);
+            } else {
+                entrySearch.search(newValue);
+            }
         });
 
         // 3. Wrap the FilteredList in a SortedList.
@@ -156,6 +156,43 @@ public class UUID implements Comparable, Serializable {
 		return 0;
 	}
 
+	/**
+	 * Returns a hash code consistent with {@link #equals(UUID)}.
+	 * 
+	 * @return the hash code
+	 */
+	@Override
+	public int hashCode() {
+		final long bits = getHighBits() ^ getLowBits();
+		return (int) (bits ^ (bits >>> 32));
+	}
+
+	/**
+	 * Returns the first 8 bytes of the UUID as a big-endian long.
+	 * 
+	 * @return the first 8 bytes of the UUID.
+	 */
+	public long getHighBits() {
+		return toLong(0);
+	}
+
+	/**
+	 * Returns the last 8 bytes of the UUID as a big-endian long.
+	 * 
+	 * @return the last 8 bytes of the UUID.
+	 */
+	public long getLowBits() {
+		return toLong(8);
+	}
+
+	private long toLong(int offset) {
+		long bits = 0;
+		for (int ii = offset; ii < offset + 8; ++ii) {
+			bits = (bits << 8) | (uuid[ii] & 0x0ff);
+		}
+		return bits;
+	}
+
 	/**
 	 * Returns a byte array containing a copy of the 16 byte UUID.
 	 * 
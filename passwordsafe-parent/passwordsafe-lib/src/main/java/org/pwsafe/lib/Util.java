@@ -13,9 +13,13 @@ import java.nio.ByteBuffer;
 import java.nio.CharBuffer;
 import java.nio.charset.*;
 import java.security.SecureRandom;
+import java.text.CollationKey;
+import java.text.Collator;
+import java.text.Normalizer;
 import java.util.Arrays;
+import java.util.Locale;
 
-import org.pwsafe.lib.crypto.SHA256Pws;
+import org.pwsafe.lib.crypto.KeyStretcher;
 
 /**
  * This class exposes various utilty methods.
@@ -30,6 +34,15 @@ public final class Util {
 
 	private static final SecureRandom randGen = new SecureRandom();
 
+	/**
+	 * Orders sort keys by the default locale, ignoring case and accents.
+	 * Collators are not thread safe, so it is only used while locked.
+	 */
+	private static final Collator SORT_COLLATOR = Collator.getInstance();
+	static {
+		SORT_COLLATOR.setStrength(Collator.PRIMARY);
+	}
+
 	/**
 	 * Private to prevent instantiation.
 	 */
@@ -529,14 +542,7 @@ public final class Util {
 	 * @return the stretched user key for comparison
 	 */
 	public static byte[] stretchPassphrase(final byte[] passphrase, final byte[] salt, final int iter) {
-		final SHA256Pws hasher = new SHA256Pws();
-		final byte[] p = mergeBytes(passphrase, salt);
-		byte[] hash = hasher.digest(p);
-		for (int i = 0; i < iter; i++) {
-			hash = hasher.digest(hash);
-		}
-		return hash;
-
+		return KeyStretcher.getInstance().stretch(passphrase, salt, iter);
 	}
 
 	/**
@@ -551,4 +557,56 @@ public final class Util {
 	public static boolean equals(final Object a, final Object b) {
 		return (a == b) || (a != null && a.equals(b));
 	}
+
+	/**
+	 * Normalizes text for case and accent insensitive searches: accents and
+	 * other combining marks are stripped and the rest is lower cased, so that
+	 * "Ren\u00e9" and "RENE" both become "rene". ASCII text is handled without
+	 * decomposing it first.
+	 *
+	 * @param aText the text, may be null
+	 * @return the normalized text, or null for null
+	 */
+	public static String normalizeForSearch(final String aText) {
+		if (aText == null) {
+			return null;
+		}
+		boolean ascii = true;
+		boolean lowerCase = true;
+		for (int i = 0; i < aText.length() && ascii; i++) {
+			final char c = aText.charAt(i);
+			ascii = c < 0x80;
+			lowerCase &= c < 'A' || c > 'Z';
+		}
+		if (ascii) {
+			return lowerCase ? aText : aText.toLowerCase(Locale.ROOT);
+		}
+
+		final String decomposed = Normalizer.normalize(aText, Normalizer.Form.NFD);
+		final StringBuilder stripped = new StringBuilder(decomposed.length());
+		for (int i = 0; i < decomposed.length(); i++) {
+			final char c = decomposed.charAt(i);
+			final int type = Character.getType(c);
+			if (type != Character.NON_SPACING_MARK && type != Character.ENCLOSING_MARK
+					&& type != Character.COMBINING_SPACING_MARK) {
+				stripped.append(c);
+			}
+		}
+		return stripped.toString().toLowerCase(Locale.ROOT);
+	}
+
+	/**
+	 * Returns a key to sort text by in the default locale, ignoring case and
+	 * accents like {@link #normalizeForSearch(String)} does. Comparing two
+	 * keys is much cheaper than collating their texts, so keys are meant to
+	 * be computed once per value and kept.
+	 *
+	 * @param aText the text, null sorts like the empty string
+	 * @return the sort key
+	 */
+	public static CollationKey getSortKey(final String aText) {
+		synchronized (SORT_COLLATOR) {
+			return SORT_COLLATOR.getCollationKey(aText == null ? "" : aText);
+		}
+	}
 }
@@ -9,7 +9,9 @@
  */
 package org.pwsafe.lib.crypto;
 
+import java.nio.BufferOverflowException;
 import java.nio.ByteBuffer;
+import java.util.Arrays;
 
 import org.bouncycastle.crypto.BlockCipher;
 import org.bouncycastle.crypto.engines.BlowfishEngine;
@@ -33,6 +35,7 @@ public class BlowfishPws {
 	private KeyParameter dkp;
 	private ParametersWithIV eiv;
 	private KeyParameter ekp;
+	private final byte[] block = new byte[8];
 
 	/**
 	 * Constructor, sets the initial vector to zero.
@@ -114,20 +117,7 @@ public class BlowfishPws {
 	 * @throws PasswordSafeException
 	 */
 	public void decrypt(byte[] buffer) throws PasswordSafeException {
-		final int bs = decipher.getBlockSize();
-		final byte[] temp = new byte[buffer.length];
-		Util.bytesToLittleEndian(buffer);
-
-		if ((buffer.length % bs) != 0) {
-			throw new PasswordSafeException("Block size must be a multiple of cipher block size ("
-					+ bs + ")");
-		}
-		for (int i = 0; i < buffer.length; i += bs) {
-			decipher.processBlock(buffer, i, temp, i);
-		}
-
-		Util.copyBytes(temp, buffer);
-		Util.bytesToLittleEndian(buffer);
+		decrypt(buffer, 0, buffer, 0, buffer.length);
 	}
 
 	/**
@@ -137,20 +127,138 @@ public class BlowfishPws {
 	 * @throws PasswordSafeException
 	 */
 	public void encrypt(byte[] buffer) throws PasswordSafeException {
-		final int bs = encipher.getBlockSize();
-		final byte[] temp = new byte[buffer.length];
-		Util.bytesToLittleEndian(buffer);
+		encrypt(buffer, 0, buffer, 0, buffer.length);
+	}
+
+	/**
+	 * Decrypts <code>len</code> bytes of <code>src</code> into
+	 * <code>dst</code>. Unlike {@link #decrypt(byte[])} the input is left
+	 * untouched unless <code>src</code> and <code>dst</code> are the same
+	 * range.
+	 * 
+	 * @param src the ciphertext
+	 * @param srcOff offset of the first ciphertext byte
+	 * @param dst the array receiving the plaintext
+	 * @param dstOff offset of the first plaintext byte
+	 * @param len number of bytes, a multiple of the cipher block size
+	 * @throws PasswordSafeException
+	 */
+	public void decrypt(byte[] src, int srcOff, byte[] dst, int dstOff, int len)
+			throws PasswordSafeException {
+		process(decipher, src, srcOff, dst, dstOff, len);
+	}
+
+	/**
+	 * Encrypts <code>len</code> bytes of <code>src</code> into
+	 * <code>dst</code>.
+	 * 
+	 * @param src the plaintext
+	 * @param srcOff offset of the first plaintext byte
+	 * @param dst the array receiving the ciphertext
+	 * @param dstOff offset of the first ciphertext byte
+	 * @param len number of bytes, a multiple of the cipher block size
+	 * @throws PasswordSafeException
+	 */
+	public void encrypt(byte[] src, int srcOff, byte[] dst, int dstOff, int len)
+			throws PasswordSafeException {
+		process(encipher, src, srcOff, dst, dstOff, len);
+	}
+
+	/**
+	 * Decrypts all remaining bytes of <code>src</code> into <code>dst</code>,
+	 * advancing the position of both buffers.
+	 * 
+	 * @param src the ciphertext
+	 * @param dst the buffer receiving the plaintext
+	 * @return the number of bytes processed
+	 * @throws PasswordSafeException
+	 */
+	public int decrypt(ByteBuffer src, ByteBuffer dst) throws PasswordSafeException {
+		return process(decipher, src, dst);
+	}
+
+	/**
+	 * Encrypts all remaining bytes of <code>src</code> into <code>dst</code>,
+	 * advancing the position of both buffers.
+	 * 
+	 * @param src the plaintext
+	 * @param dst the buffer receiving the ciphertext
+	 * @return the number of bytes processed
+	 * @throws PasswordSafeException
+	 */
+	public int encrypt(ByteBuffer src, ByteBuffer dst) throws PasswordSafeException {
+		return process(encipher, src, dst);
+	}
+
+	/**
+	 * Whether each block is converted to little endian words before and after
+	 * running it through the cipher.
+	 * 
+	 * @return true for the CBC contexts of a password safe file
+	 */
+	protected boolean isWordSwapped() {
+		return true;
+	}
+
+	private void process(BlockCipher engine, byte[] src, int srcOff, byte[] dst, int dstOff, int len)
+			throws PasswordSafeException {
+		final int bs = checkLength(engine, len);
+		for (int i = 0; i < len; i += bs) {
+			System.arraycopy(src, srcOff + i, block, 0, bs);
+			processBlock(engine);
+			System.arraycopy(block, 0, dst, dstOff + i, bs);
+		}
+		Arrays.fill(block, (byte) 0);
+	}
 
-		if ((buffer.length % bs) != 0) {
+	private int process(BlockCipher engine, ByteBuffer src, ByteBuffer dst)
+			throws PasswordSafeException {
+		final int len = src.remaining();
+		final int bs = checkLength(engine, len);
+		if (dst.remaining() < len) {
+			throw new BufferOverflowException();
+		}
+		for (int i = 0; i < len; i += bs) {
+			src.get(block, 0, bs);
+			processBlock(engine);
+			dst.put(block, 0, bs);
+		}
+		Arrays.fill(block, (byte) 0);
+		return len;
+	}
+
+	private void processBlock(BlockCipher engine) {
+		if (isWordSwapped()) {
+			swapWords(block);
+		}
+		engine.processBlock(block, 0, block, 0);
+		if (isWordSwapped()) {
+			swapWords(block);
+		}
+	}
+
+	private static int checkLength(BlockCipher engine, int len) throws PasswordSafeException {
+		final int bs = engine.getBlockSize();
+		if ((len % bs) != 0) {
 			throw new PasswordSafeException("Block size must be a multiple of cipher block size ("
 					+ bs + ")");
 		}
-		for (int i = 0; i < buffer.length; i += bs) {
-			encipher.processBlock(buffer, i, temp, i);
-		}
+		return bs;
+	}
 
-		Util.bytesToLittleEndian(temp);
-		Util.copyBytes(temp, buffer);
+	/**
+	 * Same as {@link Util#bytesToLittleEndian(byte[])} for a single block,
+	 * without the logging.
+	 */
+	private static void swapWords(byte[] buffer) {
+		for (int i = 0; i < buffer.length; i += 4) {
+			byte t = buffer[i];
+			buffer[i] = buffer[i + 3];
+			buffer[i + 3] = t;
+			t = buffer[i + 1];
+			buffer[i + 1] = buffer[i + 2];
+			buffer[i + 2] = t;
+		}
 	}
 
 	/**
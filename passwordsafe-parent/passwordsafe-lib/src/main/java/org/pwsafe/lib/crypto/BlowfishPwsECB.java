@@ -9,7 +9,6 @@
  */
 package org.pwsafe.lib.crypto;
 
-import org.pwsafe.lib.Util;
 import org.pwsafe.lib.exception.PasswordSafeException;
 
 public class BlowfishPwsECB extends BlowfishPws {
@@ -52,44 +51,14 @@ public class BlowfishPwsECB extends BlowfishPws {
 	}
 
 	/**
-	 * Decrypts <code>buffer</code> in place.
-	 * 
-	 * @param buffer the buffer to be decrypted.
-	 * @throws PasswordSafeException
-	 */
-	@Override
-	public void decrypt(byte[] buffer) throws PasswordSafeException {
-		/*
-		 * The endian conversion is simply to make this compatible with use in
-		 * previous versions of PasswordSafe (in ECB mode). Why the inversion is
-		 * necessary for CBC mode and why it has to "cancelled out" in this (ECB
-		 * mode), I don't know but it is the only way to get the correct
-		 * ordering for the CBC and ECB contexts within a standard password safe
-		 * file.
-		 */
-		Util.bytesToLittleEndian(buffer);
-		super.decrypt(buffer);
-		Util.bytesToLittleEndian(buffer);
-	}
-
-	/**
-	 * Encrypts <code>buffer</code> in place.
-	 * 
-	 * @param buffer the buffer to be encrypted.
-	 * @throws PasswordSafeException
+	 * The endian conversion is simply to make this compatible with use in
+	 * previous versions of PasswordSafe (in ECB mode). Why the inversion is
+	 * necessary for CBC mode and why it has to "cancelled out" in this (ECB
+	 * mode), I don't know but it is the only way to get the correct ordering
+	 * for the CBC and ECB contexts within a standard password safe file.
 	 */
 	@Override
-	public void encrypt(byte[] buffer) throws PasswordSafeException {
-		/*
-		 * The endian conversion is simply to make this compatible with use in
-		 * previous versions of PasswordSafe (in ECB mode). Why the inversion is
-		 * necessary for CBC mode and why it has to "cancelled out" in this (ECB
-		 * mode), I don't know but it is the only way to get the correct
-		 * ordering for the CBC and ECB contexts within a standard password safe
-		 * file.
-		 */
-		Util.bytesToLittleEndian(buffer);
-		super.encrypt(buffer);
-		Util.bytesToLittleEndian(buffer);
+	protected boolean isWordSwapped() {
+		return false;
 	}
 }
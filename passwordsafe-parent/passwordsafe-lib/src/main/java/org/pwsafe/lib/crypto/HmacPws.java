@@ -7,34 +7,86 @@
  */
 package org.pwsafe.lib.crypto;
 
+import java.util.Arrays;
+
 import org.bouncycastle.crypto.digests.SHA256Digest;
-import org.bouncycastle.crypto.macs.HMac;
-import org.bouncycastle.crypto.params.KeyParameter;
 
 /**
- * HMAC implementation. Currently uses BouncyCastle provider underneath.
+ * HMAC-SHA256 implementation on top of the BouncyCastle digest. Unlike the
+ * BouncyCastle <code>HMac</code> the running state can be copied, so that a
+ * file can continue a MAC it has already written.
  * 
  * @author Glen Smith
  */
 public class HmacPws {
 
-	private final HMac mac;
+	private static final int BLOCK_LENGTH = 64;
+
+	/**
+	 * The inner digest after the inner padded key, shared with copies and
+	 * never updated itself.
+	 */
+	private final SHA256Digest innerStart;
+	private final SHA256Digest inner;
+	private final byte[] outerKey;
 
 	public HmacPws(byte[] key) {
 
-		mac = new HMac(new SHA256Digest());
-		final KeyParameter kp = new KeyParameter(key);
-		mac.init(kp);
+		final byte[] padded = new byte[BLOCK_LENGTH];
+		if (key.length > BLOCK_LENGTH) {
+			final SHA256Digest keyDigest = new SHA256Digest();
+			keyDigest.update(key, 0, key.length);
+			keyDigest.doFinal(padded, 0);
+		} else {
+			System.arraycopy(key, 0, padded, 0, key.length);
+		}
+		outerKey = new byte[BLOCK_LENGTH];
+		for (int i = 0; i < BLOCK_LENGTH; i++) {
+			outerKey[i] = (byte) (padded[i] ^ 0x5c);
+			padded[i] ^= 0x36;
+		}
+		innerStart = new SHA256Digest();
+		innerStart.update(padded, 0, BLOCK_LENGTH);
+		Arrays.fill(padded, (byte) 0);
+		inner = new SHA256Digest(innerStart);
 
 	}
 
+	private HmacPws(HmacPws other) {
+		innerStart = other.innerStart;
+		inner = new SHA256Digest(other.inner);
+		outerKey = other.outerKey;
+	}
+
+	/**
+	 * @return an independent HMAC continuing from the current state
+	 */
+	public HmacPws copy() {
+		return new HmacPws(this);
+	}
+
 	public void digest(byte[] incoming) {
-		mac.update(incoming, 0, incoming.length);
+		inner.update(incoming, 0, incoming.length);
+	}
+
+	/**
+	 * Adds <code>len</code> bytes of <code>incoming</code>, starting at
+	 * <code>off</code>, to the HMAC.
+	 */
+	public void digest(byte[] incoming, int off, int len) {
+		inner.update(incoming, off, len);
 	}
 
 	public byte[] doFinal() {
-		final byte[] output = new byte[mac.getUnderlyingDigest().getDigestSize()];
-		mac.doFinal(output, 0);
+		final byte[] innerHash = new byte[inner.getDigestSize()];
+		inner.doFinal(innerHash, 0);
+		inner.reset(innerStart);
+
+		final SHA256Digest outer = new SHA256Digest();
+		outer.update(outerKey, 0, outerKey.length);
+		outer.update(innerHash, 0, innerHash.length);
+		final byte[] output = new byte[outer.getDigestSize()];
+		outer.doFinal(output, 0);
 		return output;
 	}
 
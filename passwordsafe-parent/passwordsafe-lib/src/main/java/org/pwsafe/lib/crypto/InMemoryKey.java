@@ -55,6 +55,37 @@ public class InMemoryKey {
 		buffer.flip();
 	}
 
+	/**
+	 * Initialises the key with given content instead of a random one, e.g.
+	 * to restore a key that was kept encrypted for a while.
+	 * 
+	 * @param key the key content, as returned by {@link #getKey()}
+	 */
+	public void init(final byte[] key) {
+		if (key.length != 8) {
+			throw new IllegalArgumentException("Key must have 8 bytes");
+		}
+		// each key byte needs a buffer position of its own
+		do {
+			dispose();
+			init();
+		} while (!hasDistinctPositions(key.length));
+		for (int i = 0; i < key.length; i++) {
+			buffer.put(Math.abs(access[i]) % BUFFER_SIZE, key[i]);
+		}
+	}
+
+	private boolean hasDistinctPositions(final int count) {
+		for (int i = 0; i < count; i++) {
+			for (int j = i + 1; j < count; j++) {
+				if (Math.abs(access[i]) % BUFFER_SIZE == Math.abs(access[j]) % BUFFER_SIZE) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
 	public byte[] getKey() {
 		if (buffer == null) {
 			throw new IllegalStateException("InMemoryKey has not been intialised or been disposed");
@@ -75,6 +106,10 @@ public class InMemoryKey {
 			if (buffer.hasArray()) {
 				final byte[] content = buffer.array();
 				Arrays.fill(content, (byte) 0);
+			} else {
+				for (int i = 0; i < buffer.capacity(); i++) {
+					buffer.put(i, (byte) 0);
+				}
 			}
 			buffer = null;
 		}
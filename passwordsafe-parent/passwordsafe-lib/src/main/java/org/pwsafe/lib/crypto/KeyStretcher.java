@@ -0,0 +1,195 @@
+/*
+ * Copyright (c) 2008-2014 David Muller <roxon@users.sourceforge.net>.
+ * All rights reserved. Use of the code is allowed under the
+ * Artistic License 2.0 terms, as specified in the LICENSE file
+ * distributed with this code, or available from
+ * http://www.opensource.org/licenses/artistic-license-2.0.php
+ */
+package org.pwsafe.lib.crypto;
+
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+import org.bouncycastle.crypto.digests.SHA256Digest;
+import org.pwsafe.lib.Log;
+
+/**
+ * Key stretching engine for the V3 passphrase KDF.
+ * <p>
+ * Runs the iterated SHA-256 loop on a single reused 32 byte state instead of
+ * allocating a new digest per round. When the JCA provides a SHA-256
+ * {@link MessageDigest} (which the JIT backs with CPU SHA intrinsics where
+ * available) it is used, but only after a self-test has shown that it produces
+ * exactly the same result as the BouncyCastle digest used everywhere else.
+ * Otherwise the BouncyCastle implementation is used.
+ *
+ * @see <a href="http://www.schneier.com/paper-low-entropy.pdf">Section 4.1</a>
+ */
+public abstract class KeyStretcher {
+	private static final Log LOG = Log.getInstance(KeyStretcher.class);
+
+	/**
+	 * Size of the SHA-256 state in bytes.
+	 */
+	public static final int DIGEST_SIZE = 32;
+
+	private static final String JCA_ALGORITHM = "SHA-256";
+
+	/**
+	 * An interruptible stretch checks for interruption every 1024 rounds.
+	 */
+	private static final int INTERRUPT_CHECK_MASK = 1023;
+
+	/**
+	 * Set once the JCA digest has passed the self-test.
+	 */
+	private static final boolean USE_JCA = selfTest();
+
+	/**
+	 * Hashes <code>len</code> bytes of <code>in</code> (and <code>extra</code>
+	 * if not null) into <code>out</code>.
+	 */
+	abstract void hash(byte[] in, int len, byte[] extra, byte[] out);
+
+	/**
+	 * Calculate stretched key: <code>H(...H(H(passphrase|salt))...)</code>
+	 * with <code>iter</code> additional rounds.
+	 *
+	 * @param passphrase the user entered passphrase
+	 * @param salt the salt from the file
+	 * @param iter the number of iters from the file
+	 * @return the stretched user key
+	 */
+	public final byte[] stretch(final byte[] passphrase, final byte[] salt, final int iter) {
+		final byte[] state = new byte[DIGEST_SIZE];
+		hash(passphrase, passphrase.length, salt, state);
+		for (int i = 0; i < iter; i++) {
+			hash(state, DIGEST_SIZE, null, state);
+		}
+		return state;
+	}
+
+	/**
+	 * Same as {@link #stretch(byte[], byte[], int)}, but gives up as soon as
+	 * the current thread is interrupted, e.g. because a stretch running in
+	 * parallel has already produced the wanted key.
+	 *
+	 * @param passphrase the user entered passphrase
+	 * @param salt the salt from the file
+	 * @param iter the number of iters from the file
+	 * @return the stretched user key
+	 * @throws InterruptedException if the thread was interrupted
+	 */
+	public final byte[] stretchInterruptibly(final byte[] passphrase, final byte[] salt, final int iter)
+			throws InterruptedException {
+		final byte[] state = new byte[DIGEST_SIZE];
+		hash(passphrase, passphrase.length, salt, state);
+		for (int i = 0; i < iter; i++) {
+			if ((i & INTERRUPT_CHECK_MASK) == 0 && Thread.interrupted()) {
+				Arrays.fill(state, (byte) 0);
+				throw new InterruptedException();
+			}
+			hash(state, DIGEST_SIZE, null, state);
+		}
+		return state;
+	}
+
+	/**
+	 * Returns a new stretcher using the fastest implementation that passed the
+	 * self-test. Instances are not thread safe, but are cheap enough to create
+	 * one per stretch.
+	 *
+	 * @return a stretcher
+	 */
+	public static KeyStretcher getInstance() {
+		if (USE_JCA) {
+			try {
+				return new JcaStretcher(MessageDigest.getInstance(JCA_ALGORITHM));
+			} catch (final NoSuchAlgorithmException e) {
+				LOG.warn("JCA SHA-256 vanished, falling back to BouncyCastle");
+			}
+		}
+		return new BouncyCastleStretcher();
+	}
+
+	/**
+	 * @return whether the JCA digest is in use
+	 */
+	public static boolean isJcaEnabled() {
+		return USE_JCA;
+	}
+
+	/**
+	 * Stretches a fixed vector with both implementations and compares the
+	 * results bit by bit.
+	 *
+	 * @return true if the JCA digest may be used
+	 */
+	private static boolean selfTest() {
+		final KeyStretcher jca;
+		try {
+			jca = new JcaStretcher(MessageDigest.getInstance(JCA_ALGORITHM));
+		} catch (final NoSuchAlgorithmException e) {
+			LOG.info("No JCA SHA-256 available, using BouncyCastle for key stretching");
+			return false;
+		}
+		final byte[] passphrase = "jpwsafe self test".getBytes();
+		final byte[] salt = new byte[DIGEST_SIZE];
+		for (int i = 0; i < salt.length; i++) {
+			salt[i] = (byte) (i * 7 + 1);
+		}
+		try {
+			final byte[] expected = new BouncyCastleStretcher().stretch(passphrase, salt, 3);
+			final byte[] actual = jca.stretch(passphrase, salt, 3);
+			if (Arrays.equals(expected, actual)) {
+				return true;
+			}
+			LOG.warn("JCA SHA-256 failed the self-test, using BouncyCastle for key stretching");
+		} catch (final RuntimeException e) {
+			LOG.warn("JCA SHA-256 failed the self-test (" + e + "), using BouncyCastle");
+		}
+		return false;
+	}
+
+	/**
+	 * Stretcher backed by a JCA {@link MessageDigest}.
+	 */
+	static final class JcaStretcher extends KeyStretcher {
+		private final MessageDigest digest;
+
+		JcaStretcher(final MessageDigest aDigest) {
+			digest = aDigest;
+		}
+
+		@Override
+		void hash(final byte[] in, final int len, final byte[] extra, final byte[] out) {
+			digest.update(in, 0, len);
+			if (extra != null) {
+				digest.update(extra, 0, extra.length);
+			}
+			try {
+				digest.digest(out, 0, DIGEST_SIZE);
+			} catch (final DigestException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+	}
+
+	/**
+	 * Stretcher backed by the BouncyCastle {@link SHA256Digest}.
+	 */
+	static final class BouncyCastleStretcher extends KeyStretcher {
+		private final SHA256Digest digest = new SHA256Digest();
+
+		@Override
+		void hash(final byte[] in, final int len, final byte[] extra, final byte[] out) {
+			digest.update(in, 0, len);
+			if (extra != null) {
+				digest.update(extra, 0, extra.length);
+			}
+			digest.doFinal(out, 0);
+		}
+	}
+}
@@ -7,6 +7,12 @@
  */
 package org.pwsafe.lib.crypto;
 
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
 import org.bouncycastle.crypto.BufferedBlockCipher;
 import org.bouncycastle.crypto.CryptoException;
 import org.bouncycastle.crypto.engines.TwofishEngine;
@@ -22,8 +28,22 @@ import org.bouncycastle.crypto.params.ParametersWithIV;
  */
 public class TwofishPws {
 
+	/**
+	 * Twofish block size in bytes.
+	 */
+	public static final int BLOCK_SIZE = 16;
+
+	/**
+	 * Number of bytes below which a CBC range is decrypted by a single thread.
+	 */
+	static final int PARALLEL_CHUNK = 64 * 1024;
+
+	private static ForkJoinPool pool;
+
 	CBCBlockCipher cipher;
 
+	private final byte[] scratch = new byte[BLOCK_SIZE];
+
 	public TwofishPws(byte[] key, boolean forEncryption, byte[] IV) {
 
 		final TwofishEngine tfe = new TwofishEngine();
@@ -38,12 +58,70 @@ public class TwofishPws {
 
 		final byte[] out = new byte[input.length];
 
-		cipher.processBlock(input, 0, out, 0);
+		process(input, 0, out, 0, input.length);
 
 		return out;
 
 	}
 
+	/**
+	 * Runs <code>len</code> bytes through the CBC cipher in one call, without
+	 * any intermediate allocation. <code>src</code> and <code>dst</code> may
+	 * be the same array as long as the offsets are equal.
+	 * 
+	 * @param src the input
+	 * @param srcOff offset of the first input byte
+	 * @param dst the array receiving the output
+	 * @param dstOff offset of the first output byte
+	 * @param len number of bytes, a multiple of {@link #BLOCK_SIZE}
+	 */
+	public void process(byte[] src, int srcOff, byte[] dst, int dstOff, int len) {
+		checkLength(len);
+		for (int pos = 0; pos < len; pos += BLOCK_SIZE) {
+			cipher.processBlock(src, srcOff + pos, dst, dstOff + pos);
+		}
+	}
+
+	/**
+	 * Runs all remaining bytes of <code>src</code> through the CBC cipher into
+	 * <code>dst</code>, advancing the position of both buffers. Heap buffers
+	 * are processed on their backing arrays, other buffers (direct or mapped)
+	 * one block at a time through a reused scratch block.
+	 * 
+	 * @param src the input, its remaining length must be a multiple of
+	 *        {@link #BLOCK_SIZE}
+	 * @param dst the buffer receiving the output
+	 * @return the number of bytes processed
+	 */
+	public int process(ByteBuffer src, ByteBuffer dst) {
+		final int len = src.remaining();
+		checkLength(len);
+		if (dst.remaining() < len) {
+			throw new BufferOverflowException();
+		}
+		if (src.hasArray() && dst.hasArray()) {
+			process(src.array(), src.arrayOffset() + src.position(), dst.array(), dst.arrayOffset()
+					+ dst.position(), len);
+			src.position(src.position() + len);
+			dst.position(dst.position() + len);
+		} else {
+			for (int pos = 0; pos < len; pos += BLOCK_SIZE) {
+				src.get(scratch);
+				cipher.processBlock(scratch, 0, scratch, 0);
+				dst.put(scratch);
+			}
+			Arrays.fill(scratch, (byte) 0);
+		}
+		return len;
+	}
+
+	private static void checkLength(int len) {
+		if (len % BLOCK_SIZE != 0) {
+			throw new IllegalArgumentException("Length must be a multiple of the block size ("
+					+ BLOCK_SIZE + ")");
+		}
+	}
+
 	public static byte[] processECB(byte[] key, boolean forEncryption, byte[] input) {
 
 		final BufferedBlockCipher cipher = new BufferedBlockCipher(new TwofishEngine());
@@ -61,4 +139,128 @@ public class TwofishPws {
 		return out;
 	}
 
+	/**
+	 * Decrypts a CBC encrypted range in one call. Unlike encryption, CBC
+	 * decryption of each block only depends on the ciphertext, so large ranges
+	 * are split into chunks which are decrypted in parallel on a fork/join
+	 * pool.
+	 * 
+	 * @param key the twofish key
+	 * @param IV the initial vector preceding the first block of the range
+	 * @param in the ciphertext
+	 * @param inOff offset of the first ciphertext block
+	 * @param len number of bytes to decrypt, a multiple of {@link #BLOCK_SIZE}
+	 * @param out the array receiving the plaintext, must not be <code>in</code>
+	 * @param outOff offset of the first plaintext byte
+	 */
+	public static void decryptCBC(byte[] key, byte[] IV, byte[] in, int inOff, int len, byte[] out,
+			int outOff) {
+		if (in == out) {
+			throw new IllegalArgumentException("In place CBC decryption is not supported");
+		}
+		decryptCBC(key, IV, ByteBuffer.wrap(in), inOff, len, out, outOff);
+	}
+
+	/**
+	 * Same as {@link #decryptCBC(byte[], byte[], byte[], int, int, byte[], int)}
+	 * for ciphertext held in a buffer, e.g. a mapped file. Offsets are
+	 * absolute, the position of <code>in</code> is left untouched.
+	 * 
+	 * @param key the twofish key
+	 * @param IV the initial vector preceding the first block of the range
+	 * @param in the ciphertext
+	 * @param inOff absolute index of the first ciphertext block
+	 * @param len number of bytes to decrypt, a multiple of {@link #BLOCK_SIZE}
+	 * @param out the array receiving the plaintext
+	 * @param outOff offset of the first plaintext byte
+	 */
+	public static void decryptCBC(byte[] key, byte[] IV, ByteBuffer in, int inOff, int len,
+			byte[] out, int outOff) {
+		checkLength(len);
+		final CbcDecryptTask task = new CbcDecryptTask(key, IV, in, inOff, len, out, outOff);
+		if (len <= PARALLEL_CHUNK) {
+			task.compute();
+		} else {
+			getPool().invoke(task);
+		}
+	}
+
+	private static synchronized ForkJoinPool getPool() {
+		if (pool == null) {
+			pool = new ForkJoinPool();
+		}
+		return pool;
+	}
+
+	/**
+	 * Decrypts a range of CBC blocks, splitting it up while it is larger than
+	 * {@link TwofishPws#PARALLEL_CHUNK}.
+	 */
+	private static final class CbcDecryptTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final byte[] key;
+		private final byte[] IV;
+		private final ByteBuffer in;
+		private final int rangeOff;
+		private final int inOff;
+		private final int len;
+		private final byte[] out;
+		private final int outOff;
+
+		CbcDecryptTask(byte[] key, byte[] IV, ByteBuffer in, int inOff, int len, byte[] out,
+				int outOff) {
+			this(key, IV, in, inOff, inOff, len, out, outOff);
+		}
+
+		private CbcDecryptTask(byte[] key, byte[] IV, ByteBuffer in, int rangeOff, int inOff,
+				int len, byte[] out, int outOff) {
+			this.key = key;
+			this.IV = IV;
+			this.in = in;
+			this.rangeOff = rangeOff;
+			this.inOff = inOff;
+			this.len = len;
+			this.out = out;
+			this.outOff = outOff;
+		}
+
+		@Override
+		protected void compute() {
+			if (len > PARALLEL_CHUNK) {
+				final int half = (len / BLOCK_SIZE / 2) * BLOCK_SIZE;
+				invokeAll(new CbcDecryptTask(key, IV, in, rangeOff, inOff, half, out, outOff),
+						new CbcDecryptTask(key, IV, in, rangeOff, inOff + half, len - half, out, outOff
+								+ half));
+				return;
+			}
+			// work on the backing array if there is one, otherwise copy this
+			// chunk (and the ciphertext block chaining into it) off the buffer
+			final byte[] src;
+			final int shift;
+			if (in.hasArray()) {
+				src = in.array();
+				shift = in.arrayOffset();
+			} else {
+				final int chainStart = inOff == rangeOff ? inOff : inOff - BLOCK_SIZE;
+				src = new byte[inOff + len - chainStart];
+				final ByteBuffer view = in.duplicate();
+				view.position(chainStart);
+				view.get(src);
+				shift = -chainStart;
+			}
+			final TwofishEngine engine = new TwofishEngine();
+			engine.init(false, new KeyParameter(key));
+			for (int pos = 0; pos < len; pos += BLOCK_SIZE) {
+				final int inPos = inOff + pos;
+				engine.processBlock(src, inPos + shift, out, outOff + pos);
+				// the previous ciphertext block acts as IV for this one
+				final byte[] chain = inPos == rangeOff ? IV : src;
+				final int chainOff = inPos == rangeOff ? 0 : inPos - BLOCK_SIZE + shift;
+				for (int i = 0; i < BLOCK_SIZE; i++) {
+					out[outOff + pos + i] ^= chain[chainOff + i];
+				}
+			}
+		}
+	}
 }
@@ -9,6 +9,9 @@
  */
 package org.pwsafe.lib.datastore;
 
+import java.nio.charset.StandardCharsets;
+import java.text.CollationKey;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Map;
@@ -70,6 +73,29 @@ public class PwsEntryBean implements Cloneable {
 	Date lastChange;
 	Date expires;
 
+	/**
+	 * Separates the fields of {@link #getNormalizedSearchText()}. It is never
+	 * part of a search string.
+	 */
+	static final char SEARCH_TEXT_SEPARATOR = '\u0000';
+
+	/**
+	 * Search keys, computed on first use and reset by the setters of the
+	 * fields they are made of.
+	 */
+	private String searchText;
+	private String searchTitle;
+	private String searchGroup;
+
+	/**
+	 * Sort keys, computed on first use and reset by the setters of their
+	 * fields.
+	 */
+	private CollationKey titleSortKey;
+	private CollationKey groupSortKey;
+	private CollationKey usernameSortKey;
+	private CollationKey notesSortKey;
+
 	/**
 	 * Default constructor.
 	 *
@@ -121,6 +147,7 @@ public class PwsEntryBean implements Cloneable {
 
 	public void setId(final UUID id) {
 		this.id = id;
+		searchText = null;
 	}
 
 	/**
@@ -135,6 +162,9 @@ public class PwsEntryBean implements Cloneable {
 	 */
 	public void setGroup(final String group) {
 		this.group = group;
+		searchText = null;
+		searchGroup = null;
+		groupSortKey = null;
 	}
 
 	/**
@@ -149,6 +179,8 @@ public class PwsEntryBean implements Cloneable {
 	 */
 	public void setNotes(final String notes) {
 		this.notes = notes;
+		searchText = null;
+		notesSortKey = null;
 	}
 
 	/**
@@ -180,6 +212,8 @@ public class PwsEntryBean implements Cloneable {
 	 */
 	public void setUsername(final String username) {
 		this.username = username;
+		searchText = null;
+		usernameSortKey = null;
 	}
 
 	/**
@@ -194,6 +228,9 @@ public class PwsEntryBean implements Cloneable {
 	 */
 	public void setTitle(final String title) {
 		this.title = title;
+		searchText = null;
+		searchTitle = null;
+		titleSortKey = null;
 	}
 
 	public String getUrl() {
@@ -202,6 +239,7 @@ public class PwsEntryBean implements Cloneable {
 
 	public void setUrl(final String url) {
 		this.url = url;
+		searchText = null;
 	}
 
 	public String getAutotype() {
@@ -431,11 +469,122 @@ public class PwsEntryBean implements Cloneable {
 	}
 
 	/**
-	 * TODO: only used by search, we could use a Stringbuffer here and directly
-	 * lowercase the values without field names. Then a better name would be
-	 * getNormalizedSearchText()
+	 * Returns the text searches look at: the id, group, title, user name,
+	 * notes and URL, each normalized by {@link Util#normalizeForSearch(String)}
+	 * and followed by a separator which is never part of a search string. The
+	 * text is computed once and kept until one of these fields is set.
+	 *
+	 * @return the normalized search text
+	 */
+	public String getNormalizedSearchText() {
+		String text = searchText;
+		if (text == null) {
+			final StringBuilder all = new StringBuilder();
+			appendSearchText(all, id != null ? id.toString() : null);
+			appendSearchText(all, group);
+			appendSearchText(all, title);
+			appendSearchText(all, username);
+			appendSearchText(all, notes);
+			appendSearchText(all, url);
+			text = Util.normalizeForSearch(all.toString());
+			searchText = text;
+		}
+		return text;
+	}
+
+	private static void appendSearchText(final StringBuilder aText, final String aValue) {
+		if (aValue != null) {
+			aText.append(aValue).append(SEARCH_TEXT_SEPARATOR);
+		}
+	}
+
+	/**
+	 * @return the title normalized for searching and sorting, computed once
+	 *         and kept until the title is set
+	 */
+	public String getNormalizedTitle() {
+		String key = searchTitle;
+		if (key == null && title != null) {
+			key = Util.normalizeForSearch(title);
+			searchTitle = key;
+		}
+		return key;
+	}
+
+	/**
+	 * @return the group normalized for searching and sorting, computed once
+	 *         and kept until the group is set
+	 */
+	public String getNormalizedGroup() {
+		String key = searchGroup;
+		if (key == null && group != null) {
+			key = Util.normalizeForSearch(group);
+			searchGroup = key;
+		}
+		return key;
+	}
+
+	/**
+	 * @return the key to sort by title, computed once and kept until the
+	 *         title is set
+	 * @see Util#getSortKey(String)
+	 */
+	public CollationKey getTitleSortKey() {
+		CollationKey key = titleSortKey;
+		if (key == null) {
+			key = Util.getSortKey(title);
+			titleSortKey = key;
+		}
+		return key;
+	}
+
+	/**
+	 * @return the key to sort by group, computed once and kept until the
+	 *         group is set
+	 * @see Util#getSortKey(String)
+	 */
+	public CollationKey getGroupSortKey() {
+		CollationKey key = groupSortKey;
+		if (key == null) {
+			key = Util.getSortKey(group);
+			groupSortKey = key;
+		}
+		return key;
+	}
+
+	/**
+	 * @return the key to sort by user name, computed once and kept until the
+	 *         user name is set
+	 * @see Util#getSortKey(String)
+	 */
+	public CollationKey getUsernameSortKey() {
+		CollationKey key = usernameSortKey;
+		if (key == null) {
+			key = Util.getSortKey(username);
+			usernameSortKey = key;
+		}
+		return key;
+	}
+
+	/**
+	 * @return the key to sort by notes, computed once and kept until the
+	 *         notes are set
+	 * @see Util#getSortKey(String)
+	 */
+	public CollationKey getNotesSortKey() {
+		CollationKey key = notesSortKey;
+		if (key == null) {
+			key = Util.getSortKey(notes);
+			notesSortKey = key;
+		}
+		return key;
+	}
+
+	/**
+	 * Returns the searchable fields by name.
 	 *
-	 * @return
+	 * @return the fields
+	 * @see #getNormalizedSearchText()
 	 */
 	public Map<String, String> getFields() {
 		final Map<String, String> fields = new HashMap<String, String>();
@@ -666,107 +815,222 @@ public class PwsEntryBean implements Cloneable {
 		return newEntry;
 	}
 
+	/**
+	 * Creates a sparse V3 entry with all sparse fields set to the values of an
+	 * empty record, ready to be filled by
+	 * {@link #setRawField(PwsFieldTypeV3, byte[], int, int)}.
+	 *
+	 * @param sparseFields the sparse fields
+	 * @return the new entry
+	 */
+	static PwsEntryBean newSparseV3Entry(final Set<? extends PwsFieldType> sparseFields) {
+		final PwsEntryBean newEntry = new PwsEntryBean();
+		for (final PwsFieldType pwsFieldType : sparseFields) {
+			if (pwsFieldType instanceof PwsFieldTypeV3) {
+				newEntry.setVersion("3");
+				newEntry.setSparseField((PwsFieldTypeV3) pwsFieldType, "", null);
+			}
+		}
+		return newEntry;
+	}
+
+	/**
+	 * Sets a sparse V3 field from its file encoding, i.e. UTF-8 text or a
+	 * time in seconds.
+	 *
+	 * @param theType the field type
+	 * @param buffer the buffer holding the value
+	 * @param offset the offset of the value
+	 * @param length the length of the value
+	 */
+	void setRawField(final PwsFieldTypeV3 theType, final byte[] buffer, final int offset,
+			final int length) {
+		if (theType == PwsFieldTypeV3.UUID) {
+			if (length == 16) {
+				setId(new UUID(Arrays.copyOfRange(buffer, offset, offset + length)));
+			}
+		} else if (isTimeField(theType)) {
+			setSparseField(theType, null, new Date(Util.getMillisFromByteArray(buffer, offset)));
+		} else {
+			setSparseField(theType, new String(buffer, offset, length, StandardCharsets.UTF_8), null);
+		}
+	}
+
+	private static boolean isTimeField(final PwsFieldTypeV3 theType) {
+		switch (theType) {
+		case CREATION_TIME:
+		case PASSWORD_MOD_TIME:
+		case LAST_ACCESS_TIME:
+		case LAST_MOD_TIME:
+		case PASSWORD_LIFETIME:
+			return true;
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * Sets a sparse V3 field.
+	 *
+	 * @param theType the field type
+	 * @param theField the value of a text field
+	 * @param theDate the value of a time field
+	 */
+	private void setSparseField(final PwsFieldTypeV3 theType, final String theField, final Date theDate) {
+		switch (theType) {
+		case GROUP:
+			setGroup(theField);
+			break;
+		case TITLE:
+			setTitle(theField);
+			break;
+		case USERNAME:
+			setUsername(theField);
+			break;
+		case PASSWORD:
+			setPassword(theField == null ? null : new StringBuilder(theField));
+			break;
+		case NOTES:
+			setNotes(theField);
+			break;
+		case URL:
+			setUrl(theField);
+			break;
+		case PASSWORD_LIFETIME:
+			setExpires(theDate);
+			break;
+		case LAST_MOD_TIME:
+			setLastChange(theDate);
+			break;
+		case PASSWORD_MOD_TIME:
+			setLastPwChange(theDate);
+			break;
+		case CREATION_TIME:
+			setCreated(theDate);
+			break;
+		case LAST_ACCESS_TIME:
+			setLastAccess(theDate);
+			break;
+		case AUTOTYPE:
+			setAutotype(theField);
+			break;
+		default:
+			log.warn("Ignored Sparse field type " + theType);
+		}
+	}
+
 	public static PwsEntryBean fromPwsRecord(final PwsRecord nextRecord,
 			final Set<? extends PwsFieldType> sparseFields) {
 		final PwsEntryBean newEntry = new PwsEntryBean();
 		if (nextRecord instanceof PwsRecordV3) {
-			final PwsRecordV3 v3 = (PwsRecordV3) nextRecord;
-			for (final PwsFieldType pwsFieldType : sparseFields) {
+			// the id is always kept, the store indexes entries by it
+			final PwsUUIDField idField = (PwsUUIDField) nextRecord.getField(PwsFieldTypeV3.UUID);
+			if (idField != null) {
+				newEntry.setId((UUID) idField.getValue());
+			}
+		}
+		newEntry.fillSparseFields(nextRecord, sparseFields);
+		return newEntry;
+	}
+
+	/**
+	 * Sets further sparse fields of this entry from a record, which only
+	 * needs to hold these fields.
+	 *
+	 * @param aRecord the record of this entry
+	 * @param someFields the sparse fields to set
+	 */
+	void fillSparseFields(final PwsRecord aRecord, final Set<? extends PwsFieldType> someFields) {
+		if (aRecord instanceof PwsRecordV3) {
+			final PwsRecordV3 v3 = (PwsRecordV3) aRecord;
+			for (final PwsFieldType pwsFieldType : someFields) {
 				final PwsFieldTypeV3 theType = (PwsFieldTypeV3) pwsFieldType;
-				final String theField = getSafeValue(v3, theType);
-				newEntry.setVersion("3");
-				switch (theType) {
-				case GROUP:
-					newEntry.setGroup(theField);
-					break;
-				case TITLE:
-					newEntry.setTitle(theField);
-					break;
-				case USERNAME:
-					newEntry.setUsername(theField);
-					break;
-				case PASSWORD:
-					newEntry.setPassword(new StringBuilder(theField));
-					break;
-				case NOTES:
-					newEntry.setNotes(theField);
-					break;
-				case URL:
-					newEntry.setUrl(theField);
-					break;
-				case PASSWORD_LIFETIME:
-					newEntry.setExpires(getSafeDate(v3, PwsFieldTypeV3.PASSWORD_LIFETIME));
-					break;
-				case LAST_MOD_TIME:
-					newEntry.setLastChange(getSafeDate(v3, PwsFieldTypeV3.LAST_MOD_TIME));
-					break;
-				case PASSWORD_MOD_TIME:
-					newEntry.setLastPwChange(getSafeDate(v3, PwsFieldTypeV3.PASSWORD_MOD_TIME));
-					break;
-				case CREATION_TIME:
-					newEntry.setCreated(getSafeDate(v3, PwsFieldTypeV3.CREATION_TIME));
-					break;
-				case LAST_ACCESS_TIME:
-					newEntry.setLastChange(getSafeDate(v3, PwsFieldTypeV3.LAST_ACCESS_TIME));
-					break;
-				case AUTOTYPE:
-					newEntry.setAutotype(getSafeValue(v3, PwsFieldTypeV3.AUTOTYPE));
-					break;
-				default:
-					log.warn("Ignored Sparse field type " + theType);
-				}
+				setVersion("3");
+				setSparseField(theType, getSafeValue(v3, theType),
+						isTimeField(theType) ? getSafeDate(v3, theType) : null);
 			}
-		} else if (nextRecord instanceof PwsRecordV2) {
-			final PwsRecordV2 v2 = (PwsRecordV2) nextRecord;
-			for (final PwsFieldType pwsFieldType : sparseFields) {
-				final PwsFieldTypeV2 theType = (PwsFieldTypeV2) pwsFieldType;
-				final String theField = getSafeValue(v2, theType);
-				newEntry.setVersion("2");
-				switch (theType) {
-				case GROUP:
-					newEntry.setGroup(theField);
-					break;
-				case TITLE:
-					newEntry.setTitle(theField);
-					break;
-				case USERNAME:
-					newEntry.setUsername(theField);
-					break;
-				case PASSWORD:
-					newEntry.setPassword(new StringBuilder(theField));
-					break;
-				case NOTES:
-					newEntry.setNotes(theField);
-					break;
-				default:
-					log.warn("Ignored Sparse field type " + theType);
-				}
+		} else if (aRecord instanceof PwsRecordV2) {
+			for (final PwsFieldType pwsFieldType : someFields) {
+				setVersion("2");
+				setSparseField((PwsFieldTypeV2) pwsFieldType, getSafeValue(aRecord, pwsFieldType));
 			}
 		} else {
-			final PwsRecordV1 v1 = (PwsRecordV1) nextRecord;
-			for (final PwsFieldType pwsFieldType : sparseFields) {
-				final PwsFieldTypeV1 theType = (PwsFieldTypeV1) pwsFieldType;
-				final String theField = getSafeValue(v1, theType);
-				newEntry.setVersion("1");
-				switch (theType) {
-				case TITLE:
-					newEntry.setTitle(theField);
-					break;
-				case USERNAME:
-					newEntry.setUsername(theField);
-					break;
-				case PASSWORD:
-					newEntry.setPassword(new StringBuilder(theField));
-					break;
-				case NOTES:
-					newEntry.setNotes(theField);
-					break;
-				default:
-					log.warn("Ignored Sparse field type " + theType);
-				}
+			for (final PwsFieldType pwsFieldType : someFields) {
+				setVersion("1");
+				setSparseField((PwsFieldTypeV1) pwsFieldType, getSafeValue(aRecord, pwsFieldType));
 			}
 		}
-		return newEntry;
+	}
+
+	/**
+	 * Drops the values of sparse fields which are no longer wanted, so their
+	 * memory can be released.
+	 *
+	 * @param someFields the sparse fields to drop
+	 */
+	void releaseSparseFields(final Set<? extends PwsFieldType> someFields) {
+		for (final PwsFieldType pwsFieldType : someFields) {
+			if (pwsFieldType instanceof PwsFieldTypeV3) {
+				setSparseField((PwsFieldTypeV3) pwsFieldType, null, null);
+			} else if (pwsFieldType instanceof PwsFieldTypeV2) {
+				setSparseField((PwsFieldTypeV2) pwsFieldType, null);
+			} else {
+				setSparseField((PwsFieldTypeV1) pwsFieldType, null);
+			}
+		}
+	}
+
+	/**
+	 * Sets a sparse V2 field.
+	 *
+	 * @param theType the field type
+	 * @param theField the value
+	 */
+	private void setSparseField(final PwsFieldTypeV2 theType, final String theField) {
+		switch (theType) {
+		case GROUP:
+			setGroup(theField);
+			break;
+		case TITLE:
+			setTitle(theField);
+			break;
+		case USERNAME:
+			setUsername(theField);
+			break;
+		case PASSWORD:
+			setPassword(theField == null ? null : new StringBuilder(theField));
+			break;
+		case NOTES:
+			setNotes(theField);
+			break;
+		default:
+			log.warn("Ignored Sparse field type " + theType);
+		}
+	}
+
+	/**
+	 * Sets a sparse V1 field.
+	 *
+	 * @param theType the field type
+	 * @param theField the value
+	 */
+	private void setSparseField(final PwsFieldTypeV1 theType, final String theField) {
+		switch (theType) {
+		case TITLE:
+			setTitle(theField);
+			break;
+		case USERNAME:
+			setUsername(theField);
+			break;
+		case PASSWORD:
+			setPassword(theField == null ? null : new StringBuilder(theField));
+			break;
+		case NOTES:
+			setNotes(theField);
+			break;
+		default:
+			log.warn("Ignored Sparse field type " + theType);
+		}
 	}
 
 }
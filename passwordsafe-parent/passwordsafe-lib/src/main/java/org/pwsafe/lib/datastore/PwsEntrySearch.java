@@ -0,0 +1,141 @@
+/*
+ * $Id:$
+ *
+ * Copyright (c) 2008-2014 David Muller <roxon@users.sourceforge.net>.
+ * All rights reserved. Use of the code is allowed under the
+ * Artistic License 2.0 terms, as specified in the LICENSE file
+ * distributed with this code, or available from
+ * http://www.opensource.org/licenses/artistic-license-2.0.php
+ */
+package org.pwsafe.lib.datastore;
+
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.pwsafe.lib.Log;
+
+/**
+ * Runs {@link PwsEntryStore#findEntries(String)} for search as you type on a
+ * background thread.
+ * <p>
+ * Each new query waits for a short delay, so a burst of keystrokes causes
+ * only one search, and supersedes the query before it: a pending search is
+ * dropped and a running one is interrupted. Results of superseded queries
+ * are never reported. Since the store narrows a query which extends the last
+ * one to its hits, typing ahead gets cheaper with every character.
+ */
+public class PwsEntrySearch {
+
+	private static final Log LOG = Log.getInstance(PwsEntrySearch.class.getPackage().getName());
+
+	/**
+	 * Default delay between the last keystroke and the search, in
+	 * milliseconds.
+	 */
+	public static final long DEFAULT_DELAY = 150;
+
+	/**
+	 * Receives the results of a search, on the search thread.
+	 */
+	public interface Listener {
+
+		/**
+		 * Called with the matches of a query which was not superseded.
+		 * Implementations hand them over to their UI thread.
+		 *
+		 * @param aQuery the query
+		 * @param someEntries the matching sparse entries
+		 */
+		void found(String aQuery, List<PwsEntryBean> someEntries);
+	}
+
+	private final PwsEntryStore store;
+	private final Listener listener;
+	private final long delay;
+	private final ScheduledExecutorService executor;
+
+	private Future<?> pending;
+	private long generation;
+
+	public PwsEntrySearch(final PwsEntryStore aStore, final Listener aListener) {
+		this(aStore, aListener, DEFAULT_DELAY);
+	}
+
+	public PwsEntrySearch(final PwsEntryStore aStore, final Listener aListener, final long aDelay) {
+		store = aStore;
+		listener = aListener;
+		delay = aDelay;
+		executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			public Thread newThread(final Runnable aRunnable) {
+				final Thread thread = new Thread(aRunnable, "jpwsafe search");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * Starts a search after the delay, superseding the previous one.
+	 *
+	 * @param aQuery the string to look for
+	 */
+	public synchronized void search(final String aQuery) {
+		schedule(aQuery, delay);
+	}
+
+	/**
+	 * Starts a search right away, superseding the previous one.
+	 *
+	 * @param aQuery the string to look for
+	 */
+	public synchronized void searchNow(final String aQuery) {
+		schedule(aQuery, 0);
+	}
+
+	/**
+	 * Drops the pending or running search, if any.
+	 */
+	public synchronized void cancel() {
+		generation++;
+		if (pending != null) {
+			pending.cancel(true);
+			pending = null;
+		}
+	}
+
+	/**
+	 * Cancels the current search and stops the search thread.
+	 */
+	public synchronized void dispose() {
+		cancel();
+		executor.shutdownNow();
+	}
+
+	private void schedule(final String aQuery, final long aDelay) {
+		cancel();
+		final long thisGeneration = generation;
+		pending = executor.schedule(new Runnable() {
+			public void run() {
+				final List<PwsEntryBean> entries;
+				try {
+					entries = store.findEntries(aQuery);
+				} catch (final CancellationException e) {
+					LOG.debug1("Search superseded");
+					return;
+				}
+				synchronized (PwsEntrySearch.this) {
+					if (thisGeneration != generation) {
+						return;
+					}
+					pending = null;
+				}
+				listener.found(aQuery, entries);
+			}
+		}, aDelay, TimeUnit.MILLISECONDS);
+	}
+}
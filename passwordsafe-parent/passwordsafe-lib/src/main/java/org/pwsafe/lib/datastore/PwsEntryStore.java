@@ -12,6 +12,7 @@ package org.pwsafe.lib.datastore;
 import java.util.List;
 import java.util.Set;
 
+import org.pwsafe.lib.UUID;
 import org.pwsafe.lib.exception.PasswordSafeException;
 import org.pwsafe.lib.file.PwsFieldType;
 import org.pwsafe.lib.file.PwsFile;
@@ -30,6 +31,14 @@ public interface PwsEntryStore {
 
 	PwsEntryBean getEntry(final int anIndex);
 
+	/**
+	 * Returns the filled entry with the given id.
+	 * 
+	 * @param anId the id of the entry
+	 * @return the entry, or null if there is none with this id
+	 */
+	PwsEntryBean getEntry(final UUID anId);
+
 	boolean addEntry(final PwsEntryBean anEntry) throws PasswordSafeException;
 
 	boolean updateEntry(final PwsEntryBean anEntry);
@@ -38,6 +47,38 @@ public interface PwsEntryStore {
 
 	void clear();
 
+	/**
+	 * Returns the root of the group hierarchy of the sparse entries. It is
+	 * kept up to date by the store.
+	 * 
+	 * @return the root group, holding the entries without a group
+	 */
+	PwsGroupNode getGroupTree();
+
+	/**
+	 * Finds the sparse entries with an id, group, title, user name, notes or
+	 * URL containing a string, ignoring case and accents. Only the sparse
+	 * fields of the entries are searched.
+	 * 
+	 * @param aSubString the string to look for
+	 * @return the matching sparse entries
+	 */
+	List<PwsEntryBean> findEntries(final String aSubString);
+
+	/**
+	 * Registers a listener for changes of the sparse entries.
+	 * 
+	 * @param aListener the listener
+	 */
+	void addStoreListener(final PwsEntryStoreListener aListener);
+
+	/**
+	 * Unregisters a listener for changes of the sparse entries.
+	 * 
+	 * @param aListener the listener
+	 */
+	void removeStoreListener(final PwsEntryStoreListener aListener);
+
 	/**
 	 * 
 	 * @return the PwwFile associated with the store-
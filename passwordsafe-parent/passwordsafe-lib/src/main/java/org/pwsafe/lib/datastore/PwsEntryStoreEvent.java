@@ -0,0 +1,86 @@
+/*
+ * $Id:$
+ *
+ * Copyright (c) 2008-2014 David Muller <roxon@users.sourceforge.net>.
+ * All rights reserved. Use of the code is allowed under the
+ * Artistic License 2.0 terms, as specified in the LICENSE file
+ * distributed with this code, or available from
+ * http://www.opensource.org/licenses/artistic-license-2.0.php
+ */
+package org.pwsafe.lib.datastore;
+
+/**
+ * A change of the sparse entries of a {@link PwsEntryStore}.
+ * <p>
+ * The entries are the sparse entries of the store, which are the stable
+ * handles of their records. An update replaces the sparse entry of a record,
+ * so it carries both the old and the new one.
+ *
+ * @see PwsEntryStoreListener
+ */
+public final class PwsEntryStoreEvent {
+
+	public enum Type {
+		/** An entry was added. */
+		ADDED,
+		/** An entry was updated and stays in its group. */
+		UPDATED,
+		/** An entry was updated and moved to another group. */
+		MOVED,
+		/** An entry was removed. */
+		REMOVED,
+		/**
+		 * All entries may have changed, e.g. after the store was cleared or
+		 * filled again.
+		 */
+		REFRESHED
+	}
+
+	private final PwsEntryStore store;
+	private final Type type;
+	private final PwsEntryBean entry;
+	private final PwsEntryBean oldEntry;
+
+	PwsEntryStoreEvent(final PwsEntryStore aStore, final Type aType, final PwsEntryBean anEntry,
+			final PwsEntryBean anOldEntry) {
+		store = aStore;
+		type = aType;
+		entry = anEntry;
+		oldEntry = anOldEntry;
+	}
+
+	/**
+	 * @return the changed store
+	 */
+	public PwsEntryStore getStore() {
+		return store;
+	}
+
+	/**
+	 * @return the kind of change
+	 */
+	public Type getType() {
+		return type;
+	}
+
+	/**
+	 * @return the added, updated or removed sparse entry, null for
+	 *         {@link Type#REFRESHED}
+	 */
+	public PwsEntryBean getEntry() {
+		return entry;
+	}
+
+	/**
+	 * @return the sparse entry an update replaced, null unless the type is
+	 *         {@link Type#UPDATED} or {@link Type#MOVED}
+	 */
+	public PwsEntryBean getOldEntry() {
+		return oldEntry;
+	}
+
+	@Override
+	public String toString() {
+		return "PwsEntryStoreEvent " + type + ": " + entry;
+	}
+}
@@ -11,12 +11,17 @@ package org.pwsafe.lib.datastore;
 
 import java.util.ArrayList;
 import java.util.EnumSet;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import org.pwsafe.lib.Log;
+import org.pwsafe.lib.UUID;
+import org.pwsafe.lib.datastore.PwsEntryStoreEvent.Type;
 import org.pwsafe.lib.exception.PasswordSafeException;
+import org.pwsafe.lib.file.PwsFieldLoadListener;
 import org.pwsafe.lib.file.PwsFieldType;
 import org.pwsafe.lib.file.PwsFieldTypeV1;
 import org.pwsafe.lib.file.PwsFieldTypeV2;
@@ -24,10 +29,9 @@ import org.pwsafe.lib.file.PwsFieldTypeV3;
 import org.pwsafe.lib.file.PwsFile;
 import org.pwsafe.lib.file.PwsFileV1;
 import org.pwsafe.lib.file.PwsFileV2;
-import org.pwsafe.lib.file.PwsLoadListener;
 import org.pwsafe.lib.file.PwsRecord;
 
-public class PwsEntryStoreImpl implements PwsEntryStore, PwsLoadListener {
+public class PwsEntryStoreImpl implements PwsEntryStore, PwsFieldLoadListener {
 
 	private final static Log LOGGER = Log.getInstance(PwsEntryStoreImpl.class);
 	private static final EnumSet<PwsFieldTypeV1> DEFAULT_V1_SPARSE_FIELDS = EnumSet.of(
@@ -46,8 +50,41 @@ public class PwsEntryStoreImpl implements PwsEntryStore, PwsLoadListener {
 	 */
 	protected List<PwsEntryBean> sparseEntries;
 
+	/**
+	 * The sparse entries by their id.
+	 */
+	private final UuidIndex uuidIndex = new UuidIndex();
+
+	/**
+	 * The sparse entries by their group.
+	 */
+	private final PwsGroupNode groupTree = new PwsGroupNode();
+
+	/**
+	 * The sparse entries by the trigrams of their searchable fields.
+	 */
+	private final TrigramIndex textIndex = new TrigramIndex();
+
+	private final List<PwsEntryStoreListener> storeListeners = new CopyOnWriteArrayList<PwsEntryStoreListener>();
+
 	private Set<? extends PwsFieldType> sparseFields;
 
+	/**
+	 * Whether a V3 field id is one of the sparse fields, built on demand.
+	 */
+	private boolean[] wantedFields;
+
+	/**
+	 * The entry being filled from raw fields while the file loads.
+	 */
+	private PwsEntryBean loadingEntry;
+
+	/**
+	 * Loaded entries waiting for {@link #addLoadedEntries()}, null unless
+	 * loading is deferred. Guarded by itself.
+	 */
+	private List<PwsEntryBean> deferredEntries;
+
 
 	public PwsEntryStoreImpl(final PwsFile aPwsFile) {
 		this(aPwsFile, false);
@@ -76,6 +113,7 @@ public class PwsEntryStoreImpl implements PwsEntryStore, PwsLoadListener {
 		super();
 		pwsFile = aPwsFile;
 		sparseFields = someSparseFields;
+		sparseEntries = new ArrayList<PwsEntryBean>();
 
 		// Backward compatibility - if the store is not loaded via the listener,
 		// fill it here
@@ -103,6 +141,9 @@ public class PwsEntryStoreImpl implements PwsEntryStore, PwsLoadListener {
 
 	private void refresh() {
 		sparseEntries.clear();
+		uuidIndex.clear();
+		groupTree.clear();
+		textIndex.clear();
 
 		if (pwsFile == null) {
 			return;
@@ -113,12 +154,23 @@ public class PwsEntryStoreImpl implements PwsEntryStore, PwsLoadListener {
 			// TODO: more effective: only fill sparse fields
 			addRecord(r);
 		}
+		fireStoreChanged(Type.REFRESHED, null, null);
 	}
 
 	private void addRecord(final PwsRecord r) {
 		final PwsEntryBean theBean = sparsify(PwsEntryBean.fromPwsRecord(r, sparseFields));
 		theBean.setStoreIndex(sparseEntries.size());
 		sparseEntries.add(theBean);
+		index(theBean);
+	}
+
+	/**
+	 * Adds a sparse entry to the indexes.
+	 */
+	private void index(final PwsEntryBean aSparseEntry) {
+		uuidIndex.put(aSparseEntry);
+		groupTree.add(aSparseEntry);
+		textIndex.add(aSparseEntry);
 	}
 
 	/*
@@ -148,6 +200,8 @@ public class PwsEntryStoreImpl implements PwsEntryStore, PwsLoadListener {
 		anEntry = sparsify(PwsEntryBean.fromPwsRecord(theRecord, sparseFields));
 		anEntry.setStoreIndex(pwsFile.getRecordCount() - 1);
 		sparseEntries.add(anEntry);
+		index(anEntry);
+		fireStoreChanged(Type.ADDED, anEntry, null);
 
 		return true;
 	}
@@ -159,7 +213,11 @@ public class PwsEntryStoreImpl implements PwsEntryStore, PwsLoadListener {
 	 */
 	public void clear() {
 		sparseEntries.clear();
+		uuidIndex.clear();
+		groupTree.clear();
+		textIndex.clear();
 		pwsFile = null;
+		fireStoreChanged(Type.REFRESHED, null, null);
 	}
 
 	/*
@@ -179,6 +237,88 @@ public class PwsEntryStoreImpl implements PwsEntryStore, PwsLoadListener {
 		}
 	}
 
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.pwsafe.lib.datastore.PwsEntryStore#getEntry(org.pwsafe.lib.UUID)
+	 */
+	public PwsEntryBean getEntry(final UUID anId) {
+		final PwsEntryBean theSparseEntry = uuidIndex.get(anId);
+		return theSparseEntry == null ? null : getEntry(theSparseEntry.getStoreIndex());
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.pwsafe.lib.datastore.PwsEntryStore#getGroupTree()
+	 */
+	public PwsGroupNode getGroupTree() {
+		return groupTree;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.pwsafe.lib.datastore.PwsEntryStore#findEntries(java.lang.String)
+	 */
+	public List<PwsEntryBean> findEntries(final String aSubString) {
+		return textIndex.find(aSubString);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * org.pwsafe.lib.datastore.PwsEntryStore#addStoreListener(org.pwsafe.lib
+	 * .datastore.PwsEntryStoreListener)
+	 */
+	public void addStoreListener(final PwsEntryStoreListener aListener) {
+		if (aListener != null) {
+			storeListeners.add(aListener);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * org.pwsafe.lib.datastore.PwsEntryStore#removeStoreListener(org.pwsafe
+	 * .lib.datastore.PwsEntryStoreListener)
+	 */
+	public void removeStoreListener(final PwsEntryStoreListener aListener) {
+		storeListeners.remove(aListener);
+	}
+
+	private void fireStoreChanged(final Type aType, final PwsEntryBean anEntry,
+			final PwsEntryBean anOldEntry) {
+		if (storeListeners.isEmpty()) {
+			return;
+		}
+		final PwsEntryStoreEvent event = new PwsEntryStoreEvent(this, aType, anEntry, anOldEntry);
+		for (final PwsEntryStoreListener listener : storeListeners) {
+			listener.storeChanged(event);
+		}
+	}
+
+	/**
+	 * Finds the current store index of an entry. The index the entry was
+	 * created with is used as long as it still holds the same id, otherwise
+	 * the entry is looked up by its id, as its record may have moved since.
+	 *
+	 * @param anEntry the entry
+	 * @return the store index
+	 */
+	private int indexOf(final PwsEntryBean anEntry) {
+		final int index = anEntry.getStoreIndex();
+		final UUID id = anEntry.getId();
+		if (id == null || (index >= 0 && index < sparseEntries.size()
+				&& id.equals(sparseEntries.get(index).getId()))) {
+			return index;
+		}
+		final PwsEntryBean theSparseEntry = uuidIndex.get(id);
+		return theSparseEntry == null ? index : theSparseEntry.getStoreIndex();
+	}
+
 	/**
 	 * @return the pwsFile
 	 */
@@ -212,16 +352,55 @@ public class PwsEntryStoreImpl implements PwsEntryStore, PwsLoadListener {
 	 * org.pwsafe.lib.datastore.PwsEntryStore#setSparseFields(java.util.Set)
 	 */
 	public void setSparseFields(final Set<PwsFieldType> fieldTypes) {
+		wantedFields = null;
+		final Set<? extends PwsFieldType> oldFields = sparseFields;
+		// a copy, the old set is needed to tell what changed next time
+		sparseFields = new HashSet<PwsFieldType>(fieldTypes);
+		if (oldFields == null) {
+			return;
+		}
 
-		// if this is an update and it is less sparse than before -> refill the
-		// sparse list
-		if (sparseFields != null && !sparseFields.containsAll(fieldTypes)) {
-			sparseFields = fieldTypes;
-			refresh();
-		} else {
-			sparseFields = fieldTypes;
+		// the existing entries keep their identity, they only get the fields
+		// which were added and drop the ones which were removed
+		final Set<PwsFieldType> added = new HashSet<PwsFieldType>(fieldTypes);
+		added.removeAll(oldFields);
+		final Set<PwsFieldType> removed = new HashSet<PwsFieldType>(oldFields);
+		removed.removeAll(fieldTypes);
+		if ((added.isEmpty() && removed.isEmpty()) || sparseEntries.isEmpty()) {
+			return;
 		}
 
+		final boolean regroup = added.contains(PwsFieldTypeV3.GROUP)
+				|| added.contains(PwsFieldTypeV2.GROUP) || removed.contains(PwsFieldTypeV3.GROUP)
+				|| removed.contains(PwsFieldTypeV2.GROUP);
+		boolean reindex = false;
+		for (int i = 0; i < sparseEntries.size(); i++) {
+			final PwsEntryBean theEntry = sparseEntries.get(i);
+			final String oldText = theEntry.getNormalizedSearchText();
+			if (!removed.isEmpty()) {
+				theEntry.releaseSparseFields(removed);
+			}
+			if (!added.isEmpty() && pwsFile != null) {
+				// only the added fields of the record are decoded
+				theEntry.fillSparseFields(pwsFile.getRecord(i, added), added);
+			}
+			reindex = reindex || !oldText.equals(theEntry.getNormalizedSearchText());
+		}
+
+		// rebuilding keeps the order of the entries in the indexes
+		if (regroup) {
+			groupTree.clear();
+			for (final PwsEntryBean theEntry : sparseEntries) {
+				groupTree.add(theEntry);
+			}
+		}
+		if (reindex) {
+			textIndex.clear();
+			for (final PwsEntryBean theEntry : sparseEntries) {
+				textIndex.add(theEntry);
+			}
+		}
+		fireStoreChanged(Type.REFRESHED, null, null);
 	}
 
 	/*
@@ -232,7 +411,7 @@ public class PwsEntryStoreImpl implements PwsEntryStore, PwsLoadListener {
 	 * .PwsEntryBean)
 	 */
 	public boolean updateEntry(final PwsEntryBean anEntry) {
-		final int index = anEntry.getStoreIndex();
+		final int index = indexOf(anEntry);
 		if (anEntry.isSparse() || index < 0) {
 			throw new IllegalArgumentException("Updates only possible with filled entries");
 		}
@@ -251,7 +430,15 @@ public class PwsEntryStoreImpl implements PwsEntryStore, PwsLoadListener {
 		pwsFile.set(index, theRecord);
 		final PwsEntryBean newEntry = PwsEntryBean.fromPwsRecord(theRecord, sparseFields);
 		newEntry.setStoreIndex(index);
-		sparseEntries.set(index, sparsify(newEntry));
+		final PwsEntryBean oldEntry = sparseEntries.set(index, sparsify(newEntry));
+		uuidIndex.replace(oldEntry, newEntry);
+		groupTree.remove(oldEntry);
+		groupTree.add(newEntry);
+		textIndex.remove(oldEntry);
+		textIndex.add(newEntry);
+		final boolean moved = !PwsGroupNode.getGroupPath(oldEntry).equals(
+				PwsGroupNode.getGroupPath(newEntry));
+		fireStoreChanged(moved ? Type.MOVED : Type.UPDATED, newEntry, oldEntry);
 
 		return true;
 	}
@@ -263,23 +450,111 @@ public class PwsEntryStoreImpl implements PwsEntryStore, PwsLoadListener {
 	}
 
 	public boolean removeEntry(final PwsEntryBean anEntry) {
-		final int index = anEntry.getStoreIndex();
+		final int index = indexOf(anEntry);
 
 		if (index >= sparseEntries.size()) {
 			throw new IndexOutOfBoundsException("record index too big - no record with index "
 					+ index);
 		}
-		pwsFile.getRecord(index);
-		// TODO: Check if this Record is the same
 		final boolean result = pwsFile.removeRecord(index);
-
-		refresh();
+		if (result) {
+			// the remaining entries stay valid, only the later ones move up
+			final PwsEntryBean oldEntry = sparseEntries.remove(index);
+			uuidIndex.remove(oldEntry);
+			groupTree.remove(oldEntry);
+			textIndex.remove(oldEntry);
+			for (int i = index; i < sparseEntries.size(); i++) {
+				sparseEntries.get(i).setStoreIndex(i);
+			}
+			fireStoreChanged(Type.REMOVED, oldEntry, null);
+		}
 		return result;
 	}
 
 
+	/**
+	 * Makes the entries loaded from now on wait until
+	 * {@link #addLoadedEntries()} adds them, instead of adding them on the
+	 * loading thread. So a file may be read on a background thread while the
+	 * store and its listeners are only used on one other thread.
+	 */
+	public synchronized void deferLoadedEntries() {
+		if (deferredEntries == null) {
+			deferredEntries = new ArrayList<PwsEntryBean>();
+		}
+	}
+
+	/**
+	 * Adds the entries loaded since the last call, if loading is deferred,
+	 * and tells the store listeners about each of them.
+	 *
+	 * @return the number of entries added
+	 */
+	public int addLoadedEntries() {
+		final List<PwsEntryBean> theEntries;
+		synchronized (this) {
+			if (deferredEntries == null || deferredEntries.isEmpty()) {
+				return 0;
+			}
+			theEntries = deferredEntries;
+			deferredEntries = new ArrayList<PwsEntryBean>();
+		}
+		for (final PwsEntryBean theBean : theEntries) {
+			addLoaded(theBean);
+		}
+		return theEntries.size();
+	}
+
 	public void loaded(final PwsRecord aRecord) {
-		addRecord(aRecord);
+		entryLoaded(sparsify(PwsEntryBean.fromPwsRecord(aRecord, sparseFields)));
+	}
+
+	public boolean isFieldWanted(final int type) {
+		if (wantedFields == null) {
+			final boolean[] wanted = new boolean[PwsFieldTypeV3.END_OF_RECORD.getId() + 1];
+			for (final PwsFieldType fieldType : sparseFields) {
+				if (fieldType instanceof PwsFieldTypeV3 && fieldType != PwsFieldTypeV3.END_OF_RECORD) {
+					wanted[fieldType.getId()] = true;
+				}
+			}
+			// the id is always wanted for the index
+			wanted[PwsFieldTypeV3.UUID.getId()] = true;
+			wantedFields = wanted;
+		}
+		return type >= 0 && type < wantedFields.length && wantedFields[type];
+	}
+
+	public void fieldLoaded(final int type, final byte[] buffer, final int offset, final int length) {
+		if (loadingEntry == null) {
+			loadingEntry = PwsEntryBean.newSparseV3Entry(sparseFields);
+		}
+		loadingEntry.setRawField(PwsFieldTypeV3.valueOf(type), buffer, offset, length);
+	}
+
+	public void recordLoaded(final boolean valid) {
+		if (valid) {
+			final PwsEntryBean theBean = loadingEntry != null ? loadingEntry : PwsEntryBean
+					.newSparseV3Entry(sparseFields);
+			entryLoaded(sparsify(theBean));
+		}
+		loadingEntry = null;
+	}
+
+	private void entryLoaded(final PwsEntryBean aSparseEntry) {
+		synchronized (this) {
+			if (deferredEntries != null) {
+				deferredEntries.add(aSparseEntry);
+				return;
+			}
+		}
+		addLoaded(aSparseEntry);
+	}
+
+	private void addLoaded(final PwsEntryBean aSparseEntry) {
+		aSparseEntry.setStoreIndex(sparseEntries.size());
+		sparseEntries.add(aSparseEntry);
+		index(aSparseEntry);
+		fireStoreChanged(Type.ADDED, aSparseEntry, null);
 	}
 
 }
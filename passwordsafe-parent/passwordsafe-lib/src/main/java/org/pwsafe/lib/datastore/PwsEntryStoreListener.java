@@ -0,0 +1,28 @@
+/*
+ * $Id:$
+ *
+ * Copyright (c) 2008-2014 David Muller <roxon@users.sourceforge.net>.
+ * All rights reserved. Use of the code is allowed under the
+ * Artistic License 2.0 terms, as specified in the LICENSE file
+ * distributed with this code, or available from
+ * http://www.opensource.org/licenses/artistic-license-2.0.php
+ */
+package org.pwsafe.lib.datastore;
+
+/**
+ * Defines a listener for changes of the sparse entries of a
+ * {@link PwsEntryStore}, allowing views to update just the affected entries.
+ *
+ * @see PwsEntryStore#addStoreListener(PwsEntryStoreListener)
+ */
+public interface PwsEntryStoreListener {
+
+	/**
+	 * Forwards a change of the store. It is called on the thread which
+	 * changed the store, after the change.
+	 *
+	 * @param anEvent the change
+	 */
+	void storeChanged(final PwsEntryStoreEvent anEvent);
+
+}
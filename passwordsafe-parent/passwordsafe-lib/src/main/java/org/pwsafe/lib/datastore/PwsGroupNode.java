@@ -0,0 +1,203 @@
+/*
+ * $Id:$
+ *
+ * Copyright (c) 2008-2014 David Muller <roxon@users.sourceforge.net>.
+ * All rights reserved. Use of the code is allowed under the
+ * Artistic License 2.0 terms, as specified in the LICENSE file
+ * distributed with this code, or available from
+ * http://www.opensource.org/licenses/artistic-license-2.0.php
+ */
+package org.pwsafe.lib.datastore;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A node of the group hierarchy of a {@link PwsEntryStore}.
+ * <p>
+ * Group paths are split at {@link #SEPARATOR} into one node per level. Each
+ * node holds its child groups and the sparse entries directly in it, so the
+ * content of a group is available without looking at the rest of the store.
+ * The root node holds the entries without a group. The store keeps the tree
+ * up to date as entries are added, updated and removed; nodes are dropped
+ * once they are empty.
+ *
+ * @see PwsEntryStore#getGroupTree()
+ */
+public final class PwsGroupNode {
+
+	public static final char SEPARATOR = '.';
+
+	private final PwsGroupNode parent;
+	private final String name;
+	private final String path;
+	private final Map<String, PwsGroupNode> groups = new LinkedHashMap<String, PwsGroupNode>();
+	private final List<PwsEntryBean> entries = new ArrayList<PwsEntryBean>();
+
+	/**
+	 * Creates a root node.
+	 */
+	PwsGroupNode() {
+		parent = null;
+		name = "";
+		path = "";
+	}
+
+	private PwsGroupNode(final PwsGroupNode aParent, final String aName) {
+		parent = aParent;
+		name = aName;
+		path = aParent.isRoot() ? aName : aParent.path + SEPARATOR + aName;
+	}
+
+	/**
+	 * Returns the group path under which an entry is shown: its group, or the
+	 * empty root path for V1 entries and blank groups.
+	 *
+	 * @param anEntry the entry
+	 * @return the group path
+	 */
+	public static String getGroupPath(final PwsEntryBean anEntry) {
+		final String group = anEntry.getGroup();
+		if ("1".equals(anEntry.getVersion()) || group == null || group.trim().length() == 0) {
+			return "";
+		}
+		return group;
+	}
+
+	/**
+	 * @return whether this is the root node
+	 */
+	public boolean isRoot() {
+		return parent == null;
+	}
+
+	/**
+	 * @return the last element of the group path, empty for the root
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @return the full group path, empty for the root
+	 */
+	public String getPath() {
+		return path;
+	}
+
+	/**
+	 * @return the parent node, or null for the root
+	 */
+	public PwsGroupNode getParent() {
+		return parent;
+	}
+
+	/**
+	 * @return the child groups
+	 */
+	public Collection<PwsGroupNode> getGroups() {
+		return Collections.unmodifiableCollection(groups.values());
+	}
+
+	/**
+	 * @param aName the name of a child group
+	 * @return the child group, or null if there is none with that name
+	 */
+	public PwsGroupNode getGroup(final String aName) {
+		return groups.get(aName);
+	}
+
+	/**
+	 * @return the sparse entries directly in this group
+	 */
+	public List<PwsEntryBean> getEntries() {
+		return Collections.unmodifiableList(entries);
+	}
+
+	/**
+	 * @return whether this group has neither entries nor child groups
+	 */
+	public boolean isEmpty() {
+		return entries.isEmpty() && groups.isEmpty();
+	}
+
+	/**
+	 * Looks up a group below this node.
+	 *
+	 * @param aPath the group path relative to this node
+	 * @return the group, this node for an empty path or null if there is no
+	 *         such group
+	 */
+	public PwsGroupNode find(final String aPath) {
+		return aPath.length() == 0 ? this : walk(aPath, false);
+	}
+
+	/**
+	 * Adds an entry to the group of its group path, creating missing groups.
+	 *
+	 * @param anEntry the sparse entry
+	 */
+	void add(final PwsEntryBean anEntry) {
+		final String groupPath = getGroupPath(anEntry);
+		final PwsGroupNode node = groupPath.length() == 0 ? this : walk(groupPath, true);
+		node.entries.add(anEntry);
+	}
+
+	/**
+	 * Removes an entry from the group of its group path and drops groups
+	 * which became empty.
+	 *
+	 * @param anEntry the sparse entry
+	 */
+	void remove(final PwsEntryBean anEntry) {
+		PwsGroupNode node = find(getGroupPath(anEntry));
+		if (node == null) {
+			return;
+		}
+		// entries are compared by identity, their values may be equal
+		for (int i = 0; i < node.entries.size(); i++) {
+			if (node.entries.get(i) == anEntry) {
+				node.entries.remove(i);
+				break;
+			}
+		}
+		while (node != this && node.isEmpty()) {
+			node.parent.groups.remove(node.name);
+			node = node.parent;
+		}
+	}
+
+	/**
+	 * Removes all groups and entries.
+	 */
+	void clear() {
+		groups.clear();
+		entries.clear();
+	}
+
+	private PwsGroupNode walk(final String aPath, final boolean create) {
+		PwsGroupNode node = this;
+		int start = 0;
+		for (;;) {
+			final int end = aPath.indexOf(SEPARATOR, start);
+			final String element = end < 0 ? aPath.substring(start) : aPath.substring(start, end);
+			PwsGroupNode child = node.groups.get(element);
+			if (child == null) {
+				if (!create) {
+					return null;
+				}
+				child = new PwsGroupNode(node, element);
+				node.groups.put(element, child);
+			}
+			node = child;
+			if (end < 0) {
+				return node;
+			}
+			start = end + 1;
+		}
+	}
+}
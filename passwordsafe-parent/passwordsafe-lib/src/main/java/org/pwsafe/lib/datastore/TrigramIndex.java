@@ -0,0 +1,374 @@
+/*
+ * $Id:$
+ *
+ * Copyright (c) 2008-2014 David Muller <roxon@users.sourceforge.net>.
+ * All rights reserved. Use of the code is allowed under the
+ * Artistic License 2.0 terms, as specified in the LICENSE file
+ * distributed with this code, or available from
+ * http://www.opensource.org/licenses/artistic-license-2.0.php
+ */
+package org.pwsafe.lib.datastore;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+
+import org.pwsafe.lib.Util;
+
+/**
+ * Inverted trigram index over the searchable text of the sparse entries of a
+ * store, i.e. id, group, title, user name, notes and URL.
+ * <p>
+ * The text of an entry is its {@link PwsEntryBean#getNormalizedSearchText()},
+ * so searches ignore case and accents. Each entry gets
+ * an increasing document number; a posting list holds the sorted numbers of
+ * the entries whose text contains a trigram. A substring query intersects
+ * the posting lists of its trigrams, starting with the shortest one, and
+ * only checks the remaining candidates against their text. Queries shorter
+ * than a trigram check all texts, which is still cheaper than looking at the
+ * entries themselves.
+ * <p>
+ * The hits of the last query are kept until the index changes. A query which
+ * contains the last one can only match those, so they take part in the
+ * intersection as one more list, which narrows typing ahead to the previous
+ * hits. Searches may run on a background thread. They only hold the lock
+ * while they copy the lists and texts they need, so adding and removing
+ * entries doesn't wait for a running search; they give up with a
+ * {@link CancellationException} once that thread is interrupted.
+ */
+final class TrigramIndex {
+
+	private static final char FIELD_SEPARATOR = PwsEntryBean.SEARCH_TEXT_SEPARATOR;
+	private static final int MIN_CAPACITY = 1024;
+	private static final int INTERRUPT_CHECK_MASK = 4095;
+
+	/**
+	 * Indexed entries and their texts by document number, null once removed.
+	 */
+	private PwsEntryBean[] entries = new PwsEntryBean[MIN_CAPACITY];
+	private String[] texts = new String[MIN_CAPACITY];
+	private int nextDocument;
+	private int size;
+	private final Map<PwsEntryBean, Integer> documents = new IdentityHashMap<PwsEntryBean, Integer>();
+
+	/**
+	 * Posting lists by trigram, an open addressing table with linear probing.
+	 */
+	private long[] trigrams = new long[MIN_CAPACITY];
+	private Posting[] postings = new Posting[MIN_CAPACITY];
+	private int trigramCount;
+
+	/**
+	 * The last query and its hits, null once the index has changed.
+	 */
+	private String lastQuery;
+	private Posting lastHits;
+
+	/**
+	 * Counts the changes, so that a search only keeps its hits as the last
+	 * ones if the index didn't change while it ran.
+	 */
+	private int generation;
+
+	private static final class Posting {
+		int[] documents = new int[4];
+		int size;
+
+		void append(final int document) {
+			// documents are added in increasing order, so a repeated trigram
+			// of the same text is the last one
+			if (size > 0 && documents[size - 1] == document) {
+				return;
+			}
+			if (size == documents.length) {
+				documents = Arrays.copyOf(documents, size * 2);
+			}
+			documents[size++] = document;
+		}
+
+		Posting copy() {
+			final Posting copy = new Posting();
+			copy.documents = Arrays.copyOf(documents, size);
+			copy.size = size;
+			return copy;
+		}
+
+		void remove(final int document) {
+			final int pos = Arrays.binarySearch(documents, 0, size, document);
+			if (pos >= 0) {
+				System.arraycopy(documents, pos + 1, documents, pos, size - pos - 1);
+				size--;
+			}
+		}
+	}
+
+	/**
+	 * @return the number of indexed entries
+	 */
+	synchronized int size() {
+		return size;
+	}
+
+	/**
+	 * Indexes the searchable text of an entry.
+	 *
+	 * @param anEntry the sparse entry
+	 */
+	synchronized void add(final PwsEntryBean anEntry) {
+		if (documents.containsKey(anEntry)) {
+			return;
+		}
+		forgetLastQuery();
+		if (nextDocument == entries.length && size * 2 < nextDocument) {
+			compact();
+		}
+		if (nextDocument == entries.length) {
+			entries = Arrays.copyOf(entries, nextDocument * 2);
+			texts = Arrays.copyOf(texts, nextDocument * 2);
+		}
+		final int document = nextDocument++;
+		final String text = anEntry.getNormalizedSearchText();
+		entries[document] = anEntry;
+		texts[document] = text;
+		documents.put(anEntry, Integer.valueOf(document));
+		size++;
+		for (int i = 0; i + 3 <= text.length(); i++) {
+			postingOf(trigramAt(text, i), true).append(document);
+		}
+	}
+
+	/**
+	 * Removes an entry from the index.
+	 *
+	 * @param anEntry the sparse entry
+	 */
+	synchronized void remove(final PwsEntryBean anEntry) {
+		final Integer document = documents.remove(anEntry);
+		if (document == null) {
+			return;
+		}
+		forgetLastQuery();
+		final int doc = document.intValue();
+		final String text = texts[doc];
+		for (int i = 0; i + 3 <= text.length(); i++) {
+			final Posting posting = postingOf(trigramAt(text, i), false);
+			if (posting != null) {
+				posting.remove(doc);
+			}
+		}
+		entries[doc] = null;
+		texts[doc] = null;
+		size--;
+	}
+
+	/**
+	 * Removes all entries.
+	 */
+	synchronized void clear() {
+		forgetLastQuery();
+		entries = new PwsEntryBean[MIN_CAPACITY];
+		texts = new String[MIN_CAPACITY];
+		nextDocument = 0;
+		size = 0;
+		documents.clear();
+		trigrams = new long[MIN_CAPACITY];
+		postings = new Posting[MIN_CAPACITY];
+		trigramCount = 0;
+	}
+
+	/**
+	 * Finds the entries with a searchable field containing a string, ignoring
+	 * case and accents.
+	 *
+	 * @param aSubString the string to look for
+	 * @return the matching entries, in the order they were indexed
+	 * @throws CancellationException if the current thread is interrupted
+	 */
+	List<PwsEntryBean> find(final String aSubString) {
+		final String query = Util.normalizeForSearch(aSubString);
+		final List<PwsEntryBean> result = new ArrayList<PwsEntryBean>();
+		if (query.indexOf(FIELD_SEPARATOR) >= 0) {
+			return result;
+		}
+
+		final List<Posting> lists = new ArrayList<Posting>();
+		final PwsEntryBean[] entriesSnapshot;
+		final String[] textsSnapshot;
+		final int searchedGeneration;
+		synchronized (this) {
+			final List<Posting> found = new ArrayList<Posting>();
+			if (lastQuery != null && query.contains(lastQuery)) {
+				found.add(lastHits);
+			}
+			for (int i = 0; i + 3 <= query.length(); i++) {
+				final Posting posting = postingOf(trigramAt(query, i), false);
+				if (posting == null) {
+					found.clear();
+					found.add(new Posting());
+					break;
+				}
+				if (!found.contains(posting)) {
+					found.add(posting);
+				}
+			}
+			for (final Posting posting : found) {
+				lists.add(posting.copy());
+			}
+			entriesSnapshot = Arrays.copyOf(entries, nextDocument);
+			textsSnapshot = Arrays.copyOf(texts, nextDocument);
+			searchedGeneration = generation;
+		}
+
+		final Posting hits = lists.isEmpty() ? scan(textsSnapshot, query) : intersect(lists,
+				textsSnapshot, query);
+		synchronized (this) {
+			if (generation == searchedGeneration) {
+				lastQuery = query;
+				lastHits = hits;
+			}
+		}
+		for (int i = 0; i < hits.size; i++) {
+			result.add(entriesSnapshot[hits.documents[i]]);
+		}
+		return result;
+	}
+
+	/**
+	 * Checks all texts.
+	 */
+	private static Posting scan(final String[] texts, final String query) {
+		final Posting hits = new Posting();
+		for (int doc = 0; doc < texts.length; doc++) {
+			checkInterrupted(doc);
+			if (texts[doc] != null && texts[doc].contains(query)) {
+				hits.append(doc);
+			}
+		}
+		return hits;
+	}
+
+	/**
+	 * Checks the texts of the documents in all lists, driven by the shortest.
+	 */
+	private static Posting intersect(final List<Posting> lists, final String[] texts,
+			final String query) {
+		Posting shortest = lists.get(0);
+		for (final Posting posting : lists) {
+			if (posting.size < shortest.size) {
+				shortest = posting;
+			}
+		}
+		lists.remove(shortest);
+
+		final Posting hits = new Posting();
+		final int[] positions = new int[lists.size()];
+		candidates: for (int c = 0; c < shortest.size; c++) {
+			checkInterrupted(c);
+			final int doc = shortest.documents[c];
+			for (int l = 0; l < positions.length; l++) {
+				final Posting other = lists.get(l);
+				final int pos = Arrays.binarySearch(other.documents, positions[l], other.size, doc);
+				if (pos < 0) {
+					// later candidates are larger, skip what is smaller
+					positions[l] = -pos - 1;
+					if (positions[l] == other.size) {
+						break candidates;
+					}
+					continue candidates;
+				}
+				positions[l] = pos + 1;
+			}
+			if (texts[doc] != null && texts[doc].contains(query)) {
+				hits.append(doc);
+			}
+		}
+		return hits;
+	}
+
+	private static void checkInterrupted(final int iteration) {
+		if ((iteration & INTERRUPT_CHECK_MASK) == 0 && Thread.currentThread().isInterrupted()) {
+			throw new CancellationException("Search cancelled");
+		}
+	}
+
+	private void forgetLastQuery() {
+		generation++;
+		lastQuery = null;
+		lastHits = null;
+	}
+
+	private static long trigramAt(final String aText, final int anIndex) {
+		return ((long) aText.charAt(anIndex) << 32) | ((long) aText.charAt(anIndex + 1) << 16)
+				| aText.charAt(anIndex + 2);
+	}
+
+	private Posting postingOf(final long aTrigram, final boolean create) {
+		int mask = postings.length - 1;
+		int slot = slotOf(aTrigram, mask);
+		while (postings[slot] != null) {
+			if (trigrams[slot] == aTrigram) {
+				return postings[slot];
+			}
+			slot = (slot + 1) & mask;
+		}
+		if (!create) {
+			return null;
+		}
+		if ((trigramCount + 1) * 4 > postings.length * 3) {
+			rehash();
+			mask = postings.length - 1;
+			slot = slotOf(aTrigram, mask);
+			while (postings[slot] != null) {
+				slot = (slot + 1) & mask;
+			}
+		}
+		final Posting posting = new Posting();
+		trigrams[slot] = aTrigram;
+		postings[slot] = posting;
+		trigramCount++;
+		return posting;
+	}
+
+	private static int slotOf(final long aTrigram, final int mask) {
+		final long hash = aTrigram * 0x9E3779B97F4A7C15L;
+		return (int) (hash >>> 40) & mask;
+	}
+
+	private void rehash() {
+		final long[] oldTrigrams = trigrams;
+		final Posting[] oldPostings = postings;
+		trigrams = new long[oldPostings.length * 2];
+		postings = new Posting[oldPostings.length * 2];
+		final int mask = postings.length - 1;
+		for (int i = 0; i < oldPostings.length; i++) {
+			if (oldPostings[i] != null) {
+				int slot = slotOf(oldTrigrams[i], mask);
+				while (postings[slot] != null) {
+					slot = (slot + 1) & mask;
+				}
+				trigrams[slot] = oldTrigrams[i];
+				postings[slot] = oldPostings[i];
+			}
+		}
+	}
+
+	/**
+	 * Renumbers the documents after many removals, keeping their order.
+	 */
+	private void compact() {
+		final PwsEntryBean[] live = new PwsEntryBean[size];
+		int count = 0;
+		for (int doc = 0; doc < nextDocument; doc++) {
+			if (entries[doc] != null) {
+				live[count++] = entries[doc];
+			}
+		}
+		clear();
+		for (final PwsEntryBean entry : live) {
+			add(entry);
+		}
+	}
+}
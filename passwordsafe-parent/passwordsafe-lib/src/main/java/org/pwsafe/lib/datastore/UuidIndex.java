@@ -0,0 +1,199 @@
+/*
+ * $Id:$
+ *
+ * Copyright (c) 2008-2014 David Muller <roxon@users.sourceforge.net>.
+ * All rights reserved. Use of the code is allowed under the
+ * Artistic License 2.0 terms, as specified in the LICENSE file
+ * distributed with this code, or available from
+ * http://www.opensource.org/licenses/artistic-license-2.0.php
+ */
+package org.pwsafe.lib.datastore;
+
+import java.util.Arrays;
+
+import org.pwsafe.lib.UUID;
+
+/**
+ * Hash index from the {@link UUID} of an entry to its sparse entry in the
+ * store.
+ * <p>
+ * Keys are kept as two primitive longs per slot in an open addressing table
+ * with linear probing, so a lookup neither allocates nor copies the UUID
+ * bytes. The sparse entries are the stable handles of their records: they
+ * keep their identity while their store index changes.
+ */
+final class UuidIndex {
+
+	private static final int MIN_CAPACITY = 16;
+
+	private long[] keys;
+	private PwsEntryBean[] values;
+	private int size;
+
+	UuidIndex() {
+		allocate(MIN_CAPACITY);
+	}
+
+	/**
+	 * @return the number of indexed entries
+	 */
+	int size() {
+		return size;
+	}
+
+	/**
+	 * Looks up the sparse entry of a UUID.
+	 *
+	 * @param id the UUID
+	 * @return the entry, or null if there is none
+	 */
+	PwsEntryBean get(final UUID id) {
+		if (id == null) {
+			return null;
+		}
+		final int slot = find(id.getHighBits(), id.getLowBits());
+		return slot < 0 ? null : values[slot];
+	}
+
+	/**
+	 * Indexes an entry by its id. Entries without an id are ignored, and so
+	 * are duplicate ids: the first entry with an id keeps it.
+	 *
+	 * @param entry the sparse entry
+	 */
+	void put(final PwsEntryBean entry) {
+		final UUID id = entry.getId();
+		if (id == null) {
+			return;
+		}
+		final long high = id.getHighBits();
+		final long low = id.getLowBits();
+		if (find(high, low) >= 0) {
+			return;
+		}
+		if ((size + 1) * 4 > values.length * 3) {
+			rehash(values.length * 2);
+		}
+		insert(high, low, entry);
+		size++;
+	}
+
+	/**
+	 * Replaces the indexed entry of an id, if <code>previous</code> is the
+	 * one indexed for it.
+	 *
+	 * @param previous the entry to replace
+	 * @param entry the new entry with the same id
+	 */
+	void replace(final PwsEntryBean previous, final PwsEntryBean entry) {
+		if (previous.getId() == null) {
+			put(entry);
+			return;
+		}
+		final int slot = find(previous.getId().getHighBits(), previous.getId().getLowBits());
+		if (slot >= 0 && values[slot] == previous) {
+			if (previous.getId().equals(entry.getId())) {
+				values[slot] = entry;
+				return;
+			}
+			removeSlot(slot);
+		}
+		put(entry);
+	}
+
+	/**
+	 * Removes an entry, if it is the one indexed for its id.
+	 *
+	 * @param entry the sparse entry
+	 */
+	void remove(final PwsEntryBean entry) {
+		final UUID id = entry.getId();
+		if (id == null) {
+			return;
+		}
+		final int slot = find(id.getHighBits(), id.getLowBits());
+		if (slot >= 0 && values[slot] == entry) {
+			removeSlot(slot);
+		}
+	}
+
+	/**
+	 * Removes all entries.
+	 */
+	void clear() {
+		allocate(MIN_CAPACITY);
+	}
+
+	private void allocate(final int capacity) {
+		keys = new long[capacity * 2];
+		values = new PwsEntryBean[capacity];
+		size = 0;
+	}
+
+	private int slotOf(final long high, final long low) {
+		long hash = high * 0x9E3779B97F4A7C15L ^ low;
+		hash ^= hash >>> 32;
+		hash *= 0x9E3779B97F4A7C15L;
+		return (int) (hash >>> 33) & (values.length - 1);
+	}
+
+	private int find(final long high, final long low) {
+		final int mask = values.length - 1;
+		for (int slot = slotOf(high, low);; slot = (slot + 1) & mask) {
+			if (values[slot] == null) {
+				return -1;
+			}
+			if (keys[slot * 2] == high && keys[slot * 2 + 1] == low) {
+				return slot;
+			}
+		}
+	}
+
+	private void insert(final long high, final long low, final PwsEntryBean entry) {
+		final int mask = values.length - 1;
+		int slot = slotOf(high, low);
+		while (values[slot] != null) {
+			slot = (slot + 1) & mask;
+		}
+		keys[slot * 2] = high;
+		keys[slot * 2 + 1] = low;
+		values[slot] = entry;
+	}
+
+	/**
+	 * Empties a slot and moves later entries of its probe sequence back, so
+	 * no tombstones are needed.
+	 */
+	private void removeSlot(int slot) {
+		final int mask = values.length - 1;
+		int next = (slot + 1) & mask;
+		while (values[next] != null) {
+			final int home = slotOf(keys[next * 2], keys[next * 2 + 1]);
+			// move the entry if its home is not cyclically in (slot, next]
+			if (((next - home) & mask) >= ((next - slot) & mask)) {
+				keys[slot * 2] = keys[next * 2];
+				keys[slot * 2 + 1] = keys[next * 2 + 1];
+				values[slot] = values[next];
+				slot = next;
+			}
+			next = (next + 1) & mask;
+		}
+		keys[slot * 2] = 0;
+		keys[slot * 2 + 1] = 0;
+		values[slot] = null;
+		size--;
+	}
+
+	private void rehash(final int capacity) {
+		final long[] oldKeys = keys;
+		final PwsEntryBean[] oldValues = values;
+		keys = new long[capacity * 2];
+		values = new PwsEntryBean[capacity];
+		for (int i = 0; i < oldValues.length; i++) {
+			if (oldValues[i] != null) {
+				insert(oldKeys[i * 2], oldKeys[i * 2 + 1], oldValues[i]);
+			}
+		}
+		Arrays.fill(oldValues, null);
+	}
+}
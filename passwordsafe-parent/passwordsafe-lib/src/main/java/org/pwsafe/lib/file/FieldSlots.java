@@ -0,0 +1,151 @@
+/*
+ * $Id:$
+ *
+ * Copyright (c) 2008-2014 David Muller <roxon@users.sourceforge.net>.
+ * All rights reserved. Use of the code is allowed under the
+ * Artistic License 2.0 terms, as specified in the LICENSE file
+ * distributed with this code, or available from
+ * http://www.opensource.org/licenses/artistic-license-2.0.php
+ */
+package org.pwsafe.lib.file;
+
+import java.io.Serializable;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * The fields of a record, indexed by field type.
+ * <p>
+ * Types below the slot count, which covers the types known to the record
+ * version, are kept in a dense array so that lookups need neither boxing nor
+ * a tree walk. Any other (unknown) types go to an overflow map, which is only
+ * created when needed. Iteration is in ascending type order. Like the
+ * records holding them, the slots are serializable.
+ */
+final class FieldSlots implements Iterable<PwsField>, Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	private final PwsField[] slots;
+	private SortedMap<Integer, PwsField> overflow;
+	private int count;
+
+	/**
+	 * @param slotCount the number of types held in the dense array
+	 */
+	FieldSlots(final int slotCount) {
+		slots = new PwsField[slotCount];
+	}
+
+	/**
+	 * @param type the field type
+	 * @return the field of that type or <code>null</code>
+	 */
+	PwsField get(final int type) {
+		if (type >= 0 && type < slots.length) {
+			return slots[type];
+		}
+		return overflow == null ? null : overflow.get(Integer.valueOf(type));
+	}
+
+	/**
+	 * Stores a field under its type, replacing any previous field of that
+	 * type.
+	 *
+	 * @param field the field to store
+	 * @return the replaced field or <code>null</code>
+	 */
+	PwsField put(final PwsField field) {
+		final int type = field.getType();
+		final PwsField previous;
+		if (type >= 0 && type < slots.length) {
+			previous = slots[type];
+			slots[type] = field;
+		} else {
+			if (overflow == null) {
+				overflow = new TreeMap<Integer, PwsField>();
+			}
+			previous = overflow.put(Integer.valueOf(type), field);
+		}
+		if (previous == null) {
+			count++;
+		}
+		return previous;
+	}
+
+	/**
+	 * @return the number of fields
+	 */
+	int size() {
+		return count;
+	}
+
+	/**
+	 * @return an iterator over the stored field types in ascending order
+	 */
+	Iterator<Integer> types() {
+		final Iterator<PwsField> fields = iterator();
+		return new Iterator<Integer>() {
+			public boolean hasNext() {
+				return fields.hasNext();
+			}
+
+			public Integer next() {
+				return Integer.valueOf(fields.next().getType());
+			}
+
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+
+	/**
+	 * @return an iterator over the fields in ascending type order
+	 */
+	public Iterator<PwsField> iterator() {
+		return new Iterator<PwsField>() {
+			private int slot = nextSlot(0);
+			private Iterator<PwsField> overflowIter;
+
+			public boolean hasNext() {
+				if (slot < slots.length) {
+					return true;
+				}
+				if (overflowIter == null) {
+					if (overflow == null) {
+						return false;
+					}
+					overflowIter = overflow.values().iterator();
+				}
+				return overflowIter.hasNext();
+			}
+
+			public PwsField next() {
+				if (!hasNext()) {
+					throw new NoSuchElementException();
+				}
+				if (slot < slots.length) {
+					final PwsField field = slots[slot];
+					slot = nextSlot(slot + 1);
+					return field;
+				}
+				return overflowIter.next();
+			}
+
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+
+	private int nextSlot(final int from) {
+		int i = from;
+		while (i < slots.length && slots[i] == null) {
+			i++;
+		}
+		return i;
+	}
+}
@@ -0,0 +1,36 @@
+/*
+ * $Id:$
+ * 
+ * Copyright (c) 2008-2014 David Muller <roxon@users.sourceforge.net>.
+ * All rights reserved. Use of the code is allowed under the
+ * Artistic License 2.0 terms, as specified in the LICENSE file
+ * distributed with this code, or available from
+ * http://www.opensource.org/licenses/artistic-license-2.0.php
+ */
+package org.pwsafe.lib.file;
+
+import java.io.IOException;
+
+/**
+ * A {@link PwsStorage} whose content can be extended in place, so a save that
+ * only adds to the end of the stored bytes doesn't have to rewrite them all.
+ * 
+ * @see PwsFileStorage
+ */
+public interface PwsAppendableStorage extends PwsStorage {
+
+	/**
+	 * Starts a save which keeps the first <code>keepLength</code> bytes of
+	 * the stored content and replaces the rest by the bytes written to the
+	 * returned stream. Nothing is changed before
+	 * {@link PwsSaveStream#commit()}.
+	 * 
+	 * @param expectedLength the length the stored content must have, as a
+	 *        guard against changes behind the caller's back
+	 * @param keepLength the number of bytes to keep
+	 * @return the stream to write the new tail to, or null if the stored
+	 *         content doesn't have the expected length
+	 * @throws IOException
+	 */
+	public PwsSaveStream openAppend(long expectedLength, long keepLength) throws IOException;
+}
@@ -0,0 +1,48 @@
+/*
+ * $Id:$
+ * 
+ * Copyright (c) 2008-2014 David Muller <roxon@users.sourceforge.net>.
+ * All rights reserved. Use of the code is allowed under the
+ * Artistic License 2.0 terms, as specified in the LICENSE file
+ * distributed with this code, or available from
+ * http://www.opensource.org/licenses/artistic-license-2.0.php
+ */
+package org.pwsafe.lib.file;
+
+/**
+ * A load listener which is fed the raw fields it asks for while a V3 file is
+ * decoded, instead of a complete {@link PwsRecord}. Files of other versions
+ * still call {@link #loaded(PwsRecord)}.
+ * 
+ * @see PwsFileV3
+ */
+public interface PwsFieldLoadListener extends PwsLoadListener {
+
+	/**
+	 * Tells whether {@link #fieldLoaded(int, byte[], int, int)} should be
+	 * called for fields of the given type.
+	 * 
+	 * @param type the field type
+	 * @return true if the field is wanted
+	 */
+	boolean isFieldWanted(int type);
+
+	/**
+	 * Forwards a wanted field of the record being loaded, in its file
+	 * encoding. The buffer is reused and wiped afterwards.
+	 * 
+	 * @param type the field type
+	 * @param buffer the buffer holding the value
+	 * @param offset the offset of the value
+	 * @param length the length of the value
+	 */
+	void fieldLoaded(int type, byte[] buffer, int offset, int length);
+
+	/**
+	 * Marks the end of the record whose fields have been forwarded.
+	 * 
+	 * @param valid whether the record has been added to the file, invalid
+	 *        records are dropped
+	 */
+	void recordLoaded(boolean valid);
+}
@@ -9,9 +9,11 @@
  */
 package org.pwsafe.lib.file;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
@@ -21,6 +23,8 @@ import java.util.ConcurrentModificationException;
 import java.util.Date;
 import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
 
 import javax.crypto.BadPaddingException;
 import javax.crypto.Cipher;
@@ -35,6 +39,7 @@ import org.pwsafe.lib.I18nHelper;
 import org.pwsafe.lib.Log;
 import org.pwsafe.lib.Util;
 import org.pwsafe.lib.crypto.InMemoryKey;
+import org.pwsafe.lib.crypto.TwofishPws;
 import org.pwsafe.lib.exception.EndOfFileException;
 import org.pwsafe.lib.exception.MemoryKeyException;
 import org.pwsafe.lib.exception.PasswordSafeException;
@@ -110,9 +115,11 @@ public abstract class PwsFile {
 	protected OutputStream outStream;
 
 	/**
-	 * The records that are part of the file.
+	 * The records that are part of the file, each encoded by the
+	 * {@link RecordCodec} and encrypted with the memory key. They are kept off
+	 * the heap and wiped on {@link #dispose()}.
 	 */
-	protected List<SealedObject> sealedRecords = new ArrayList<SealedObject>();
+	final RecordArena sealedRecords = new RecordArena();
 
 	/**
 	 * Flag indicating whether (<code>true</code>) or not (<code>false</code>)
@@ -121,6 +128,13 @@ public abstract class PwsFile {
 	 */
 	protected boolean modified = false;
 
+	/**
+	 * Number of leading records which are stored unchanged in the storage
+	 * since the last load or save, -1 if any of them has been changed or
+	 * removed since. Records added since follow behind them.
+	 */
+	protected int storedRecordCount = -1;
+
 	/**
 	 * Flag indicating whether the storage may be changed or saved.
 	 *
@@ -135,6 +149,14 @@ public abstract class PwsFile {
 	private InMemoryKey memoryKey;
 	private byte[] memoryIv;
 
+	/**
+	 * The memory key and IV, encrypted with a key derived from the
+	 * passphrase, while the file is locked. null while it is unlocked.
+	 */
+	private byte[] lockedMemoryKey;
+	private Cipher sealCipher;
+	private Cipher unsealCipher;
+
 	private final List<PwsLoadListener> loadListeners = new ArrayList<PwsLoadListener>();
 
 	/**
@@ -179,24 +201,108 @@ public abstract class PwsFile {
 			LOG.error("Illegal add on read only file - saving won't be possible");
 		}
 
-		this.add(rec, getCipher(true));
-		// recordSet.add( rec );
+		sealedRecords.add(seal(rec));
 		setModified();
 
 
 		LOG.leaveMethod("PwsFile.add");
 	}
 
-	protected void add(final PwsRecord rec, final Cipher aCipher) {
-
+	/**
+	 * Encodes and encrypts a record with the memory key.
+	 *
+	 * @param rec the record to seal
+	 * @return the sealed record
+	 */
+	protected byte[] seal(final PwsRecord rec) {
 		// TODO validate the record before adding it
+		final byte[] data = RecordCodec.encode(rec);
+		try {
+			return sealEncoded(data, data.length);
+		} finally {
+			Arrays.fill(data, (byte) 0);
+		}
+	}
+
+	/**
+	 * Encrypts the first <code>length</code> bytes of an encoded record.
+	 *
+	 * @param data the record as encoded by the {@link RecordCodec}
+	 * @param length the length of the encoded record
+	 * @return the sealed record
+	 */
+	private byte[] sealEncoded(final byte[] data, final int length) {
+		final Cipher cipher = getCachedCipher(true);
+		synchronized (cipher) {
+			return sealEncoded(data, length, cipher);
+		}
+	}
+
+	/**
+	 * Encrypts an encoded record with a sealing cipher owned by the caller,
+	 * so that several threads can seal at the same time.
+	 *
+	 * @param data the record as encoded by the {@link RecordCodec}
+	 * @param length the length of the encoded record
+	 * @param cipher a cipher from {@link #newSealCipher()}
+	 * @return the sealed record
+	 */
+	static byte[] sealEncoded(final byte[] data, final int length, final Cipher cipher) {
 		try {
-			final SealedObject sealedRecord = new SealedObject(rec, aCipher);
-			sealedRecords.add(sealedRecord);
+			return cipher.doFinal(data, 0, length);
 		} catch (final IllegalBlockSizeException e) {
 			throw new MemoryKeyException(e);
-		} catch (final IOException e) {
+		} catch (final BadPaddingException e) {
+			throw new MemoryKeyException(e);
+		}
+	}
+
+	/**
+	 * Seals and appends a record that is already encoded, as done while
+	 * loading.
+	 *
+	 * @param data the record as encoded by the {@link RecordCodec}
+	 * @param length the length of the encoded record
+	 */
+	void addEncoded(final byte[] data, final int length) {
+		sealedRecords.add(sealEncoded(data, length));
+	}
+
+	/**
+	 * Decrypts and decodes a record sealed by {@link #seal(PwsRecord)}.
+	 *
+	 * @param sealedRecord the sealed record
+	 * @return a new copy of the record
+	 */
+	protected PwsRecord unseal(final byte[] sealedRecord) {
+		return unseal(sealedRecord, null);
+	}
+
+	/**
+	 * Decrypts a record sealed by {@link #seal(PwsRecord)} and decodes some of
+	 * its fields.
+	 *
+	 * @param sealedRecord the sealed record
+	 * @param wantedTypes whether a field type is wanted, indexed by type, or
+	 *        null for all fields
+	 * @return a new copy of the record
+	 */
+	private PwsRecord unseal(final byte[] sealedRecord, final boolean[] wantedTypes) {
+		byte[] data = null;
+		try {
+			final Cipher cipher = getCachedCipher(false);
+			synchronized (cipher) {
+				data = cipher.doFinal(sealedRecord);
+			}
+			return RecordCodec.decode(data, wantedTypes);
+		} catch (final IllegalBlockSizeException e) {
+			throw new MemoryKeyException(e);
+		} catch (final BadPaddingException e) {
 			throw new MemoryKeyException(e);
+		} finally {
+			if (data != null) {
+				Arrays.fill(data, (byte) 0);
+			}
 		}
 	}
 
@@ -252,6 +358,72 @@ public abstract class PwsFile {
 		return result;
 	}
 
+	/**
+	 * Opens {@link #inStream} on the content of the storage. A
+	 * {@link PwsMappedStorage} is read straight off its mapping, any other
+	 * storage is loaded into a byte array first.
+	 *
+	 * @return the complete content, its position moves along with
+	 *         <code>inStream</code>
+	 * @throws IOException If the storage can't be read.
+	 */
+	protected ByteBuffer openStorage() throws IOException {
+		ByteBuffer content = null;
+		if (storage instanceof PwsMappedStorage) {
+			content = ((PwsMappedStorage) storage).map();
+		}
+		if (content == null) {
+			content = ByteBuffer.wrap(storage.load());
+		}
+		inStream = new ByteBufferInputStream(content);
+		lastStorageChange = storage.getModifiedDate();
+		return content;
+	}
+
+	/**
+	 * Opens {@link #outStream} for a save. A {@link PwsStreamingStorage} is
+	 * written to directly, for any other storage the content is collected in
+	 * memory and handed over by {@link #commitSave()}.
+	 *
+	 * @throws IOException If the storage can't be opened for writing.
+	 */
+	protected void openSave() throws IOException {
+		if (storage instanceof PwsStreamingStorage) {
+			outStream = ((PwsStreamingStorage) storage).openSave();
+		} else {
+			outStream = new ByteArrayOutputStream();
+		}
+	}
+
+	/**
+	 * Completes a save started by {@link #openSave()}.
+	 *
+	 * @return true if the storage accepted the new content.
+	 * @throws IOException If the content can't be written.
+	 */
+	protected boolean commitSave() throws IOException {
+		if (outStream instanceof PwsSaveStream) {
+			return ((PwsSaveStream) outStream).commit();
+		}
+		outStream.close();
+		return storage.save(((ByteArrayOutputStream) outStream).toByteArray());
+	}
+
+	/**
+	 * Closes {@link #outStream} after a save, discarding anything not
+	 * committed.
+	 */
+	protected void closeSave() {
+		try {
+			if (outStream != null) {
+				outStream.close();
+			}
+		} catch (final Exception e) {
+			// do nothing, either committed or we're going to throw the original exception
+		}
+		outStream = null;
+	}
+
 	/**
 	 * Attempts to close the file.
 	 *
@@ -260,13 +432,23 @@ public abstract class PwsFile {
 	void close() throws IOException {
 		LOG.enterMethod("PwsFile.close");
 
+		releaseStorage();
+
+		LOG.leaveMethod("PwsFile.close");
+	}
+
+	/**
+	 * Drops {@link #inStream} once all records are read, so a mapping of the
+	 * storage is no longer referenced before the file is saved again.
+	 *
+	 * @throws IOException If the stream can't be closed.
+	 */
+	protected void releaseStorage() throws IOException {
 		if (inStream != null) {
 			inStream.close();
 
 			inStream = null;
 		}
-
-		LOG.leaveMethod("PwsFile.close");
 	}
 
 	/**
@@ -274,6 +456,15 @@ public abstract class PwsFile {
 	 */
 	public void dispose() {
 		passphrase = null;
+		sealedRecords.clear();
+		disposeMemoryKey();
+		if (lockedMemoryKey != null) {
+			Arrays.fill(lockedMemoryKey, (byte) 0);
+			lockedMemoryKey = null;
+		}
+	}
+
+	private void disposeMemoryKey() {
 		if (memoryKey != null) {
 			memoryKey.dispose();
 		}
@@ -281,6 +472,115 @@ public abstract class PwsFile {
 			Arrays.fill(memoryIv, (byte) 0);
 			memoryIv = null;
 		}
+		synchronized (this) {
+			sealCipher = null;
+			unsealCipher = null;
+		}
+	}
+
+	/**
+	 * Locks the file. The passphrase, the records and everything else sealed
+	 * with the memory key stay in memory, but the memory key itself is only
+	 * kept encrypted with a key derived from the passphrase, and all other
+	 * secrets are wiped. Unlike {@link #dispose()} followed by a new load, an
+	 * {@link #unlock(StringBuilder)} then only has to derive the key again.
+	 * <p>
+	 * The caller has to drop any plaintext it took from the file itself, e.g.
+	 * the entries of a {@link org.pwsafe.lib.datastore.PwsEntryStore}.
+	 *
+	 * @return true if the file is locked, false if its version doesn't
+	 *         support locking and it should be disposed instead
+	 */
+	public boolean lock() {
+		return false;
+	}
+
+	/**
+	 * Unlocks a file locked by {@link #lock()}. The given passphrase is
+	 * overwritten.
+	 *
+	 * @param aPassphrase the passphrase of the file
+	 * @throws IOException if the passphrase is wrong
+	 * @throws IllegalStateException if the file is not locked
+	 */
+	public void unlock(final StringBuilder aPassphrase) throws IOException {
+		throw new IllegalStateException("File is not locked");
+	}
+
+	/**
+	 * @return whether the file has been locked by {@link #lock()}
+	 */
+	public synchronized boolean isLocked() {
+		return lockedMemoryKey != null;
+	}
+
+	/**
+	 * Encrypts the memory key and IV with <code>lockKey</code> and wipes
+	 * them. Anything sealed can't be accessed until
+	 * {@link #unlockMemoryKey(byte[])} is called with the same key.
+	 *
+	 * @param lockKey a 32 byte key derived from the passphrase
+	 */
+	protected synchronized void lockMemoryKey(final byte[] lockKey) {
+		// makes sure there are a key and an IV to keep
+		getCachedCipher(true);
+		final byte[] key = getKeyBytes();
+		final byte[] keyAndIv = Util.mergeBytes(key, memoryIv);
+		lockedMemoryKey = TwofishPws.processECB(lockKey, true, keyAndIv);
+		Arrays.fill(key, (byte) 0);
+		Arrays.fill(keyAndIv, (byte) 0);
+		disposeMemoryKey();
+		memoryKey = null;
+	}
+
+	/**
+	 * Restores the memory key and IV wiped by {@link #lockMemoryKey(byte[])}.
+	 *
+	 * @param lockKey the key passed to {@link #lockMemoryKey(byte[])}
+	 */
+	protected synchronized void unlockMemoryKey(final byte[] lockKey) {
+		final byte[] keyAndIv = TwofishPws.processECB(lockKey, false, lockedMemoryKey);
+		final byte[] key = Arrays.copyOf(keyAndIv, 8);
+		memoryKey = new InMemoryKey(16);
+		memoryKey.init(key);
+		memoryIv = Arrays.copyOfRange(keyAndIv, 8, 16);
+		Arrays.fill(key, (byte) 0);
+		Arrays.fill(keyAndIv, (byte) 0);
+		Arrays.fill(lockedMemoryKey, (byte) 0);
+		lockedMemoryKey = null;
+	}
+
+	/**
+	 * Returns the cipher used to seal or unseal records. It is created once
+	 * per memory key, as a cipher returns to its initial state after each
+	 * <code>doFinal</code>. Callers must synchronize on the cipher.
+	 *
+	 * @param forWriting true for the sealing cipher
+	 * @return the cached cipher
+	 */
+	private synchronized Cipher getCachedCipher(final boolean forWriting) {
+		if (forWriting) {
+			if (sealCipher == null) {
+				sealCipher = getCipher(true);
+			}
+			return sealCipher;
+		}
+		if (unsealCipher == null) {
+			unsealCipher = getCipher(false);
+		}
+		return unsealCipher;
+	}
+
+	/**
+	 * Creates an additional cipher to seal records with the memory key, for
+	 * threads that seal records concurrently.
+	 *
+	 * @return a new sealing cipher
+	 */
+	synchronized Cipher newSealCipher() {
+		// the cached one sets up the memory key and IV first
+		getCachedCipher(true);
+		return getCipher(true);
 	}
 
 	protected Cipher getCipher(final boolean forWriting) {
@@ -318,6 +618,9 @@ public abstract class PwsFile {
 	}
 
 	private byte[] getKeyBytes() {
+		if (lockedMemoryKey != null) {
+			throw new IllegalStateException("File is locked");
+		}
 		if (memoryKey == null) {
 			memoryKey = new InMemoryKey(16);
 			memoryKey.init();
@@ -406,7 +709,7 @@ public abstract class PwsFile {
 	 * @return An <code>Iterator</code> over the records.
 	 */
 	public Iterator<? extends PwsRecord> getRecords() {
-		return new FileIterator(this, sealedRecords.iterator());
+		return new FileIterator(this);
 	}
 
 	/**
@@ -415,20 +718,28 @@ public abstract class PwsFile {
 	 * @return the PwsRecord at that index
 	 */
 	public PwsRecord getRecord(final int index) {
-		getCipher(true);
-		SealedObject sealedRecord;
-		try {
-			sealedRecord = sealedRecords.get(index);
-			return (PwsRecord) sealedRecord.getObject(getCipher(false));
-		} catch (final IllegalBlockSizeException e) {
-			throw new MemoryKeyException(e);
-		} catch (final IOException e) {
-			throw new MemoryKeyException(e);
-		} catch (final BadPaddingException e) {
-			throw new MemoryKeyException(e);
-		} catch (final ClassNotFoundException e) {
-			throw new MemoryKeyException(e);
+		return unseal(sealedRecords.get(index));
+	}
+
+	/**
+	 * Returns a record holding only some of its fields, e.g. to fill in
+	 * further sparse fields. The values of the other fields are skipped
+	 * without being decoded.
+	 *
+	 * @param index the index of the record
+	 * @param fieldTypes the types of the fields to decode
+	 * @return a partial copy of the record at that index
+	 */
+	public PwsRecord getRecord(final int index, final Set<? extends PwsFieldType> fieldTypes) {
+		int maxType = -1;
+		for (final PwsFieldType fieldType : fieldTypes) {
+			maxType = Math.max(maxType, fieldType.getId());
+		}
+		final boolean[] wantedTypes = new boolean[maxType + 1];
+		for (final PwsFieldType fieldType : fieldTypes) {
+			wantedTypes[fieldType.getId()] = true;
 		}
+		return unseal(sealedRecords.get(index), wantedTypes);
 	}
 
 	/**
@@ -458,18 +769,9 @@ public abstract class PwsFile {
 	 */
 	public void set(final int index, final PwsRecord aRecord) {
 		// TODO validate here as well
-		final Cipher cipher = getCipher(true);
-		SealedObject sealedRecord;
-		try {
-			sealedRecord = new SealedObject(aRecord, cipher);
-			sealedRecords.set(index, sealedRecord);
-			setModified();
-		} catch (final IllegalBlockSizeException e) {
-			throw new MemoryKeyException(e);
-		} catch (final IOException e) {
-			throw new MemoryKeyException(e);
-		}
-
+		sealedRecords.set(index, seal(aRecord));
+		storedRecordCount = -1;
+		setModified();
 	}
 
 	/**
@@ -493,13 +795,15 @@ public abstract class PwsFile {
 	 *         version
 	 */
 	void readAll() throws IOException, UnsupportedFileVersionException {
+		boolean allValid = true;
 		try {
-			final Cipher c = getCipher(true);
 			for (;;) {
 				final PwsRecord rec = PwsRecord.read(this);
 
 				if (rec.isValid()) {
-					this.add(rec, c);
+					sealedRecords.add(seal(rec));
+				} else {
+					allValid = false;
 				}
 				for (final PwsLoadListener loadListener : loadListeners) {
 					loadListener.loaded(rec);
@@ -507,7 +811,11 @@ public abstract class PwsFile {
 			}
 		} catch (final EndOfFileException e) {
 			// OK
+		} finally {
+			releaseStorage();
 		}
+		// dropped records are only dropped from the storage by a full save
+		storedRecordCount = allValid ? sealedRecords.size() : -1;
 	}
 
 	/**
@@ -538,16 +846,39 @@ public abstract class PwsFile {
 	 * @throws IOException If an error occurs whilst reading the file.
 	 */
 	public void readBytes(final byte[] bytes) throws IOException, EndOfFileException {
-		int count;
+		readBytes(bytes, 0, bytes.length);
+	}
 
-		count = inStream.read(bytes);
+	/**
+	 * Reads <code>len</code> raw (undecrypted) bytes from the file into
+	 * <code>bytes</code>, starting at <code>off</code>.
+	 *
+	 * @param bytes the array to be filled from the file.
+	 * @param off the offset of the first byte to fill.
+	 * @param len the number of bytes to read.
+	 *
+	 * @throws EndOfFileException If end of file occurs before any data is read.
+	 * @throws IOException If an error occurs whilst reading the file or less
+	 *         than <code>len</code> bytes are available.
+	 */
+	public void readBytes(final byte[] bytes, final int off, final int len) throws IOException,
+			EndOfFileException {
+		int count = 0;
+
+		while (count < len) {
+			final int read = inStream.read(bytes, off + count, len - count);
+			if (read == -1) {
+				break;
+			}
+			count += read;
+		}
 
-		if (count == -1) {
+		if (count == 0 && len > 0) {
 			LOG.debug1("END OF FILE");
 			throw new EndOfFileException();
-		} else if (count < bytes.length) {
+		} else if (count < len) {
 			LOG.info(I18nHelper.getInstance().formatMessage("I00003",
-					new Object[] { new Integer(bytes.length), new Integer(count) }));
+					new Object[] { new Integer(len), new Integer(count) }));
 			throw new IOException(I18nHelper.getInstance().formatMessage("E00006"));
 		}
 		LOG.debug1("Read " + count + " bytes");
@@ -610,18 +941,18 @@ public abstract class PwsFile {
 	 * @return true if a record was removed
 	 */
 	public boolean removeRecord(final int index) {
-		final boolean success = sealedRecords.remove(index) != null;
-		if (success) {
-			setModified();
-		}
-		return success;
+		sealedRecords.remove(index);
+		storedRecordCount = -1;
+		setModified();
+		return true;
 	}
 
 	/**
 	 * Writes this file back to the filesystem. If successful the modified flag
-	 * is also reset on the file and all records.
+	 * is also reset on the file and all records. A locked file keeps its
+	 * modifications but can't be saved until it is unlocked.
 	 *
-	 * @throws IOException if the attempt fails.
+	 * @throws IOException if the attempt fails or the file is locked.
 	 * @throws NoSuchAlgorithmException if no SHA-1 implementation is found.
 	 * @throws ConcurrentModificationException if the underlying store was
 	 *         independently changed
@@ -648,6 +979,7 @@ public abstract class PwsFile {
 		// TODO: convert to byte[] first
 		try {
 			passphrase = new SealedObject(pass, getCipher(true));
+			storedRecordCount = -1;
 			// now overwrite given StringBuider
 			Util.clear(pass);
 		} catch (final IllegalBlockSizeException e) {
@@ -665,8 +997,22 @@ public abstract class PwsFile {
 	 * @throws IOException
 	 */
 	public void writeBytes(final byte[] buffer) throws IOException {
-		outStream.write(buffer);
-		LOG.debug1("Wrote " + buffer.length + " bytes");
+		writeBytes(buffer, 0, buffer.length);
+	}
+
+	/**
+	 * Writes <code>len</code> unencrypted bytes of <code>buffer</code>,
+	 * starting at <code>off</code>, to the file.
+	 *
+	 * @param buffer the data to be written.
+	 * @param off the offset of the first byte to write.
+	 * @param len the number of bytes to write.
+	 *
+	 * @throws IOException
+	 */
+	public void writeBytes(final byte[] buffer, final int off, final int len) throws IOException {
+		outStream.write(buffer, off, len);
+		LOG.debug1("Wrote " + len + " bytes");
 	}
 
 	/**
@@ -715,9 +1061,8 @@ public abstract class PwsFile {
 	}
 
 	/**
-	 * This provides a wrapper around the <code>Iterator</code> that is returned
-	 * by the <code>iterator()</code> method on the Collections class used to
-	 * store the PasswordSafe records. It allows us to mark the file as modified
+	 * This provides an <code>Iterator</code> over the sealed records which
+	 * unseals them one at a time. It allows us to mark the file as modified
 	 * when records are deleted file using the iterator's <code>remove()</code>
 	 * method.
 	 */
@@ -725,22 +1070,21 @@ public abstract class PwsFile {
 		private final Log LOG = Log.getInstance(FileIterator.class.getPackage().getName());
 
 		private final PwsFile file;
-		private final Iterator<SealedObject> delegate;
-		private Cipher cipher;
+		private int cursor;
+		private int lastReturned = -1;
+		private int expectedModCount;
 
 		/**
 		 * Construct the <code>Iterator</code> linking it to the given
 		 * PasswordSafe file.
 		 *
 		 * @param file the file this iterator is linked to.
-		 * @param iter the <code>Iterator</code> over the records.
 		 */
-		public FileIterator(final PwsFile file, final Iterator<SealedObject> iter) {
+		public FileIterator(final PwsFile file) {
 			LOG.enterMethod("PwsFile$FileIterator");
 
 			this.file = file;
-			delegate = iter;
-			cipher = getCipher(false);
+			expectedModCount = sealedRecords.getModCount();
 
 			LOG.leaveMethod("PwsFile$FileIterator");
 		}
@@ -755,7 +1099,7 @@ public abstract class PwsFile {
 		 * @see java.util.Iterator#hasNext()
 		 */
 		public final boolean hasNext() {
-			return delegate.hasNext();
+			return cursor < sealedRecords.size();
 		}
 
 		/**
@@ -767,23 +1111,12 @@ public abstract class PwsFile {
 		 * @see java.util.Iterator#next()
 		 */
 		public final Object next() {
-			SealedObject sealedRecord;
-			try {
-				sealedRecord = delegate.next();
-				final PwsRecord theRecord = (PwsRecord) sealedRecord.getObject(cipher);
-				if (!hasNext()) {// clean up
-					cipher = null;
-				}
-				return theRecord;
-			} catch (final IllegalBlockSizeException e) {
-				throw new MemoryKeyException(e);
-			} catch (final IOException e) {
-				throw new MemoryKeyException(e);
-			} catch (final BadPaddingException e) {
-				throw new MemoryKeyException(e);
-			} catch (final ClassNotFoundException e) {
-				throw new MemoryKeyException(e);
+			checkForComodification();
+			if (cursor >= sealedRecords.size()) {
+				throw new NoSuchElementException();
 			}
+			lastReturned = cursor++;
+			return unseal(sealedRecords.get(lastReturned));
 		}
 
 		/**
@@ -799,12 +1132,33 @@ public abstract class PwsFile {
 			if (isReadOnly()) {
 				LOG.error("Illegal remove on read only file - saving won't be possible");
 			}
+			if (lastReturned < 0) {
+				throw new IllegalStateException();
+			}
+			checkForComodification();
 
-			delegate.remove();
+			sealedRecords.remove(lastReturned);
+			cursor = lastReturned;
+			lastReturned = -1;
+			expectedModCount = sealedRecords.getModCount();
+			storedRecordCount = -1;
 			file.setModified();
 
 			LOG.leaveMethod("PwsFile$FileIterator.remove");
 		}
+
+		private void checkForComodification() {
+			if (sealedRecords.getModCount() != expectedModCount) {
+				throw new ConcurrentModificationException();
+			}
+		}
+	}
+
+	/**
+	 * @return the registered load listeners
+	 */
+	List<PwsLoadListener> getLoadListeners() {
+		return loadListeners;
 	}
 
 	public void addLoadListener(final PwsLoadListener aLoadListener) {
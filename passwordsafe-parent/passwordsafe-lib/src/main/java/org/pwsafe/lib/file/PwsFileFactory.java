@@ -209,7 +209,7 @@ public class PwsFileFactory {
 		return file;
 	}
 
-	private static PwsFile getPwsFile(final String filename, final StringBuilder aPassphrase)
+	static PwsFile getPwsFile(final String filename, final StringBuilder aPassphrase)
 			throws NoSuchAlgorithmException, EndOfFileException, IOException,
 			UnsupportedFileVersionException, InvalidPassphraseException {
 		LOG.enterMethod("PwsFileFactory.getPwsFile");
@@ -12,6 +12,7 @@ package org.pwsafe.lib.file;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.Serializable;
+import java.util.Arrays;
 
 import org.pwsafe.lib.Log;
 import org.pwsafe.lib.Util;
@@ -46,6 +47,11 @@ import org.pwsafe.lib.exception.EndOfFileException;
 public class PwsFileHeaderV3 implements Serializable {
 	private static final Log LOG = Log.getInstance(PwsFileHeaderV3.class.getPackage().getName());
 
+	/**
+	 * Length of the header in bytes.
+	 */
+	static final int LENGTH = 4 + 32 + 4 + 32 + 4 * 16 + 16;
+
 	private byte[] tag = new byte[4];
 	private final byte[] salt = new byte[32];
 	private final int iter;
@@ -257,6 +263,11 @@ public class PwsFileHeaderV3 implements Serializable {
 		file.decryptedHmacKey = Util.mergeBytes(b3pt, b4pt);
 		file.hasher = new HmacPws(file.decryptedHmacKey);
 
+		if (file.stretchedPassword != null) {
+			Arrays.fill(file.stretchedPassword, (byte) 0);
+		}
+		file.stretchedPassword = stretchedPassword;
+
 		LOG.leaveMethod("PwsFileHeaderV3.update");
 	}
 }
@@ -10,12 +10,20 @@
 package org.pwsafe.lib.file;
 
 import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.Date;
 
 import org.pwsafe.lib.I18nHelper;
@@ -23,11 +31,16 @@ import org.pwsafe.lib.Log;
 
 /**
  * An implementation of the PwsStorage class that reads and writes to files.
+ * Files above {@link #getMappingThreshold()} bytes are mapped into memory
+ * instead of being loaded, saves are streamed into a temporary file. Saves
+ * which only add to the end of the file are written in place. The header can
+ * be peeked at before the file is loaded.
  * 
  * @author mtiller
  * 
  */
-public class PwsFileStorage implements PwsStorage {
+public class PwsFileStorage implements PwsMappedStorage, PwsStreamingStorage,
+		PwsAppendableStorage, PwsPeekableStorage {
 
 	/**
 	 * Default file extension of the password safe file.
@@ -39,6 +52,23 @@ public class PwsFileStorage implements PwsStorage {
 	 */
 	private static final Log LOG = Log.getInstance(PwsFileStorage.class.getPackage().getName());
 
+	/**
+	 * Files smaller than this are loaded, mapping them doesn't pay off.
+	 */
+	private static long mappingThreshold = 256 * 1024;
+
+	/**
+	 * Whether the platform keeps a mapped file from being replaced or
+	 * truncated until the mapping is collected.
+	 */
+	private static final boolean MAPPING_LOCKS_FILE = System.getProperty("os.name", "")
+			.startsWith("Windows");
+
+	/**
+	 * Size of the direct buffer a save is written through.
+	 */
+	private static final int SAVE_BUFFER_SIZE = 64 * 1024;
+
 	/** The filename used for storage */
 	private final String filename;
 
@@ -82,6 +112,53 @@ public class PwsFileStorage implements PwsStorage {
 		return bytes;
 	}
 
+	/**
+	 * Reads the first bytes of the file only.
+	 * 
+	 * @return the bytes, or null if the file is shorter
+	 */
+	public byte[] peek(final int length) throws IOException {
+		final RandomAccessFile raf = new RandomAccessFile(filename, "r");
+		try {
+			if (raf.length() < length) {
+				return null;
+			}
+			final byte[] head = new byte[length];
+			raf.readFully(head);
+			return head;
+		} finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * Maps the file read-only into memory. The mapping stays valid after the
+	 * channel is closed and is only released once the buffer is garbage
+	 * collected, so {@link PwsFile} drops the buffer as soon as the records
+	 * are read. Windows refuses to rename, truncate or overwrite a file while
+	 * such a mapping is alive, so files are always loaded there.
+	 * 
+	 * @return the mapped file, or null if it is below the mapping threshold
+	 *         or mappings lock the file
+	 */
+	public ByteBuffer map() throws IOException {
+		final File file = new File(filename);
+		final long length = file.length();
+		if (length < mappingThreshold || MAPPING_LOCKS_FILE) {
+			return null;
+		}
+		if (length > Integer.MAX_VALUE) {
+			throw new IOException("File is too large to be mapped: " + file.getName());
+		}
+		final RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			LOG.debug1("Mapping " + length + " bytes of " + filename);
+			return raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, length);
+		} finally {
+			raf.close();
+		}
+	}
+
 	/**
 	 * Takes the (encrypted) bytes and writes them out to the file.
 	 * 
@@ -92,70 +169,324 @@ public class PwsFileStorage implements PwsStorage {
 	public boolean save(byte[] data) {
 		try {
 			LOG.debug1("Number of bytes to save = " + data.length);
-			LOG.debug1("Original file: " + filename);
-
-			final File file = new File(filename);
-			if (!file.exists()) {
-				/*
-				 * Original file doesn't exisit, just go ahead and write it (no
-				 * backup, temp files needed).
-				 */
-				final OutputStream OutStream = new FileOutputStream(file);
-
-				OutStream.write(data);
-				OutStream.close(); // TODO: needs a finally
-				return true;
-			}
-			LOG.debug1("Original file path: " + file.getAbsolutePath());
-			final File dir = file.getCanonicalFile().getParentFile();
-			if (dir == null) {
-				LOG.error("Couldn't find the parent directory for: " + file.getAbsolutePath());
-				return false;
+			final PwsSaveStream out = openSave();
+			try {
+				out.write(data);
+				return out.commit();
+			} finally {
+				out.close();
 			}
-			final String FilePath = dir.getAbsolutePath();
-			final String FileName = file.getName();
+		} catch (final Exception e) {
+			LOG.error(e.getMessage());
+			return false;
+		}
+	}
+
+	/**
+	 * Starts a save into a temporary file next to the original one. The
+	 * temporary file is written through a fixed size direct buffer and synced
+	 * to disk on commit, before the original is linked to the backup file
+	 * (<code>filename~</code>) and the temporary file atomically replaces it.
+	 */
+	public PwsSaveStream openSave() throws IOException {
+		LOG.debug1("Original file: " + filename);
+
+		final File file = new File(filename);
+		LOG.debug1("Original file path: " + file.getAbsolutePath());
+		final File dir = file.getCanonicalFile().getParentFile();
+		if (dir == null) {
+			throw new IOException("Couldn't find the parent directory for: "
+					+ file.getAbsolutePath());
+		}
+		return new FileSaveStream(File.createTempFile("pwsafe", null, dir));
+	}
+
+	/**
+	 * Starts an in place save. The new tail is collected in memory and written
+	 * over the old one with a single positional write on commit, followed by
+	 * a sync. Before that the file is copied to the backup file
+	 * (<code>filename~</code>), as the write overwrites the old trailer.
+	 */
+	public PwsSaveStream openAppend(final long expectedLength, final long keepLength)
+			throws IOException {
+		final File file = new File(filename);
+		if (!file.exists() || file.length() != expectedLength) {
+			LOG.debug1("Can't append to " + filename + ", length has changed");
+			return null;
+		}
+		return new AppendSaveStream(file, keepLength);
+	}
 
-			final File oldFile = new File(FilePath, FileName);
-			final File bakFile = new File(FilePath, FileName + "~");
+	/**
+	 * Replaces the original file by <code>tempFile</code>, keeping the
+	 * original as backup. The backup is a second link to the original (or a
+	 * copy where links aren't supported), so the original stays in place
+	 * until the temporary file atomically replaces it, and the directory is
+	 * synced afterwards. If the replacement fails the temporary file is kept,
+	 * as it holds the new content.
+	 */
+	private boolean replace(final File tempFile) throws IOException {
+		final File dir = tempFile.getParentFile();
+		final String FileName = new File(filename).getName();
 
+		final File oldFile = new File(dir, FileName);
+		final File bakFile = new File(dir, FileName + "~");
+
+		if (oldFile.exists()) {
 			if (bakFile.exists()) {
 				if (!bakFile.delete()) {
 					LOG.error(I18nHelper.getInstance().formatMessage("E00012",
 							new Object[] { bakFile.getCanonicalPath() }));
 					// TODO Throw an exception here
+					if (!tempFile.delete()) {
+						LOG.warn("Couldn't delete temp file " + tempFile);
+					}
 					return false;
 				}
 			}
+			try {
+				linkBackup(oldFile, bakFile);
+			} catch (final IOException e) {
+				LOG.error(I18nHelper.getInstance().formatMessage("E00011",
+						new Object[] { tempFile.getCanonicalPath() }));
+				// TODO Throw an exception here?
+				return false;
+			}
+			LOG.debug1("Old file successfully backed up to " + bakFile.getCanonicalPath());
+		}
 
-			final File tempFile = File.createTempFile("pwsafe", null, new File(FilePath));
-			final OutputStream OutStream = new FileOutputStream(tempFile);
+		try {
+			moveIntoPlace(tempFile, oldFile);
+		} catch (final IOException e) {
+			LOG.error(I18nHelper.getInstance().formatMessage("E00010",
+					new Object[] { tempFile.getCanonicalPath() }));
+			// TODO Throw an exception here?
+			return false;
+		}
+		syncDirectory(dir);
+		LOG.debug1("Temp file successfully renamed to " + oldFile.getCanonicalPath());
+		return true;
+	}
 
-			OutStream.write(data);
-			OutStream.close(); // TODO: needs a finally
+	/**
+	 * Makes the backup a second link to the original, which the original
+	 * keeps once it is replaced. File systems without links get a copy.
+	 */
+	private static void linkBackup(final File original, final File backup) throws IOException {
+		try {
+			Files.createLink(backup.toPath(), original.toPath());
+		} catch (final UnsupportedOperationException e) {
+			copyBackup(original, backup);
+		} catch (final FileSystemException e) {
+			copyBackup(original, backup);
+		}
+	}
 
-			if (oldFile.exists()) {
-				if (!oldFile.renameTo(bakFile)) {
-					LOG.error(I18nHelper.getInstance().formatMessage("E00011",
-							new Object[] { tempFile.getCanonicalPath() }));
-					// TODO Throw an exception here?
-					return false;
+	/**
+	 * Copies the original to the backup and syncs the copy.
+	 */
+	private static void copyBackup(final File original, final File backup) throws IOException {
+		Files.copy(original.toPath(), backup.toPath(), StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.COPY_ATTRIBUTES);
+		final FileChannel channel = FileChannel.open(backup.toPath(), StandardOpenOption.WRITE);
+		try {
+			channel.force(true);
+		} finally {
+			channel.close();
+		}
+	}
+
+	/**
+	 * Syncs a directory, so that a rename in it is durable. Not all platforms
+	 * can open a directory, there the rename is left to the file system.
+	 */
+	private static void syncDirectory(final File dir) {
+		try {
+			final FileChannel channel = FileChannel.open(dir.toPath(), StandardOpenOption.READ);
+			try {
+				channel.force(true);
+			} finally {
+				channel.close();
+			}
+		} catch (final IOException e) {
+			LOG.debug1("Couldn't sync directory " + dir + ": " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Moves the synced temporary file over the original one, atomically where
+	 * the file system allows it.
+	 * 
+	 * @param tempFile the temporary file
+	 * @param target the original file
+	 * @throws IOException if the file can't be moved
+	 */
+	void moveIntoPlace(final File tempFile, final File target) throws IOException {
+		try {
+			Files.move(tempFile.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE,
+					StandardCopyOption.REPLACE_EXISTING);
+		} catch (final AtomicMoveNotSupportedException e) {
+			Files.move(tempFile.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	/**
+	 * Sets the file size from which on files are mapped into memory instead of
+	 * loaded. 0 maps every file, {@link Long#MAX_VALUE} none.
+	 * 
+	 * @param bytes the threshold in bytes
+	 */
+	public static void setMappingThreshold(final long bytes) {
+		mappingThreshold = bytes;
+	}
+
+	/**
+	 * @return the file size from which on files are mapped into memory
+	 */
+	public static long getMappingThreshold() {
+		return mappingThreshold;
+	}
+
+	/**
+	 * Writes a save into a temporary file.
+	 */
+	private final class FileSaveStream extends PwsSaveStream {
+		private final File tempFile;
+		private final FileChannel channel;
+		private final ByteBuffer buffer = ByteBuffer.allocateDirect(SAVE_BUFFER_SIZE);
+		private boolean closed;
+
+		FileSaveStream(final File aTempFile) throws IOException {
+			tempFile = aTempFile;
+			channel = new FileOutputStream(tempFile).getChannel();
+		}
+
+		@Override
+		public void write(final int b) throws IOException {
+			ensureOpen();
+			if (!buffer.hasRemaining()) {
+				drain();
+			}
+			buffer.put((byte) b);
+		}
+
+		@Override
+		public void write(final byte[] b, int off, int len) throws IOException {
+			ensureOpen();
+			while (len > 0) {
+				if (!buffer.hasRemaining()) {
+					drain();
+				}
+				final int count = Math.min(len, buffer.remaining());
+				buffer.put(b, off, count);
+				off += count;
+				len -= count;
+			}
+		}
+
+		@Override
+		public void flush() throws IOException {
+			ensureOpen();
+			drain();
+		}
+
+		@Override
+		public boolean commit() throws IOException {
+			ensureOpen();
+			drain();
+			channel.force(true);
+			closed = true;
+			channel.close();
+			return replace(tempFile);
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			channel.close();
+			if (!tempFile.delete()) {
+				LOG.warn("Couldn't delete temp file " + tempFile);
+			}
+		}
+
+		private void drain() throws IOException {
+			buffer.flip();
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+			buffer.clear();
+		}
+
+		private void ensureOpen() throws IOException {
+			if (closed) {
+				throw new IOException("Save stream is closed");
+			}
+		}
+	}
+
+	/**
+	 * Collects the new tail of an in place save.
+	 */
+	private static final class AppendSaveStream extends PwsSaveStream {
+		private final File file;
+		private final long keepLength;
+		private final ByteArrayOutputStream tail = new ByteArrayOutputStream();
+		private boolean closed;
+
+		AppendSaveStream(final File aFile, final long aKeepLength) {
+			file = aFile;
+			keepLength = aKeepLength;
+		}
+
+		@Override
+		public void write(final int b) throws IOException {
+			ensureOpen();
+			tail.write(b);
+		}
+
+		@Override
+		public void write(final byte[] b, final int off, final int len) throws IOException {
+			ensureOpen();
+			tail.write(b, off, len);
+		}
+
+		@Override
+		public boolean commit() throws IOException {
+			ensureOpen();
+			closed = true;
+			final File bakFile = new File(file.getPath() + "~");
+			copyBackup(file, bakFile);
+			syncDirectory(file.getAbsoluteFile().getParentFile());
+			final ByteBuffer buffer = ByteBuffer.wrap(tail.toByteArray());
+			final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+			try {
+				final FileChannel channel = raf.getChannel();
+				long position = keepLength;
+				while (buffer.hasRemaining()) {
+					position += channel.write(buffer, position);
 				}
-				LOG.debug1("Old file successfully renamed to " + bakFile.getCanonicalPath());
+				channel.truncate(position);
+				channel.force(true);
+			} finally {
+				raf.close();
 			}
+			LOG.debug1("Appended " + buffer.capacity() + " bytes at " + keepLength + " to "
+					+ file.getCanonicalPath());
+			return true;
+		}
 
-			if (tempFile.renameTo(oldFile)) {
+		@Override
+		public void close() {
+			closed = true;
+		}
 
-				LOG.debug1("Temp file successfully renamed to " + oldFile.getCanonicalPath());
-				return true;
-			} else {
-				LOG.error(I18nHelper.getInstance().formatMessage("E00010",
-						new Object[] { tempFile.getCanonicalPath() }));
-				// TODO Throw an exception here?
-				return false;
+		private void ensureOpen() throws IOException {
+			if (closed) {
+				throw new IOException("Save stream is closed");
 			}
-		} catch (final Exception e) {
-			LOG.error(e.getMessage());
-			return false;
 		}
 	}
 
@@ -9,8 +9,6 @@
  */
 package org.pwsafe.lib.file;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.security.NoSuchAlgorithmException;
 import java.util.ConcurrentModificationException;
@@ -18,7 +16,6 @@ import java.util.Iterator;
 
 import org.pwsafe.lib.I18nHelper;
 import org.pwsafe.lib.Log;
-import org.pwsafe.lib.Util;
 import org.pwsafe.lib.crypto.BlowfishPws;
 import org.pwsafe.lib.crypto.SHA1;
 import org.pwsafe.lib.exception.EndOfFileException;
@@ -137,8 +134,7 @@ public abstract class PwsFileV1V2 extends PwsFile {
 		setPassphrase(new StringBuilder(aPassphrase));
 
 		if (storage != null) {
-			inStream = new ByteArrayInputStream(storage.load());
-			lastStorageChange = storage.getModifiedDate();
+			openStorage();
 		}
 		header = new PwsFileHeader(this);
 		// TODO: Change to avoid STILL contructing a String
@@ -189,6 +185,9 @@ public abstract class PwsFileV1V2 extends PwsFile {
 		if (isReadOnly()) {
 			throw new IOException("File is read only");
 		}
+		if (isLocked()) {
+			throw new IOException("File is locked, it has to be unlocked before it is saved");
+		}
 
 		if (lastStorageChange != null && // check for concurrent change
 				storage.getModifiedDate().after(lastStorageChange)) {
@@ -200,8 +199,7 @@ public abstract class PwsFileV1V2 extends PwsFile {
 		// the
 		// real name if we manage to write it successfully.
 
-		final ByteArrayOutputStream baos = new ByteArrayOutputStream();
-		outStream = baos;
+		openSave();
 
 		try {
 			header.save(this);
@@ -219,9 +217,7 @@ public abstract class PwsFileV1V2 extends PwsFile {
 				rec.saveRecord(this);
 			}
 
-			outStream.close();
-
-			if (storage.save(baos.toByteArray())) {
+			if (commitSave()) {
 				modified = false;
 				lastStorageChange = storage.getModifiedDate();
 			} else {
@@ -234,15 +230,8 @@ public abstract class PwsFileV1V2 extends PwsFile {
 				// TODO Throw an exception here?
 				return;
 			}
-		} catch (final IOException e) {
-			try {
-				outStream.close();
-			} catch (final Exception e2) {
-				// do nothing we're going to throw the original exception
-			}
-			throw e;
 		} finally {
-			outStream = null;
+			closeSave();
 			algorithm = null;
 		}
 	}
@@ -260,9 +249,9 @@ public abstract class PwsFileV1V2 extends PwsFile {
 			throw new IllegalArgumentException(I18nHelper.getInstance().formatMessage("E00001"));
 		}
 
-		final byte[] temp = Util.cloneByteArray(buff);
+		final byte[] temp = new byte[buff.length];
 		try {
-			algorithm.encrypt(temp);
+			algorithm.encrypt(buff, 0, temp, 0, buff.length);
 		} catch (final PasswordSafeException e) {
 			LOG.error(e.getMessage());
 		}
@@ -10,14 +10,20 @@
 package org.pwsafe.lib.file;
 
 import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
 import java.nio.CharBuffer;
 import java.nio.charset.Charset;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.ConcurrentModificationException;
 import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
 
 import javax.crypto.BadPaddingException;
 import javax.crypto.IllegalBlockSizeException;
@@ -27,6 +33,7 @@ import org.pwsafe.lib.I18nHelper;
 import org.pwsafe.lib.Log;
 import org.pwsafe.lib.Util;
 import org.pwsafe.lib.crypto.HmacPws;
+import org.pwsafe.lib.crypto.KeyStretcher;
 import org.pwsafe.lib.crypto.SHA256Pws;
 import org.pwsafe.lib.crypto.TwofishPws;
 import org.pwsafe.lib.exception.EndOfFileException;
@@ -77,6 +84,64 @@ public final class PwsFileV3 extends PwsFile {
 	HmacPws hasher;
 	PwsRecordV3 headerRecord;
 
+	/**
+	 * The file header and the sealed header record while the file is locked.
+	 */
+	private PwsFileHeaderV3 lockedHeader;
+	private byte[] sealedHeaderRecord;
+
+	private static final byte[] LOCK_KEY_LABEL = "jpwsafe memory key".getBytes();
+
+	/**
+	 * Whether the record stream is decrypted up front in parallel chunks.
+	 */
+	private static boolean parallelDecryption = true;
+
+	/**
+	 * The plaintext of the record stream if it was decrypted up front, null
+	 * otherwise.
+	 */
+	private byte[] decryptedBody;
+	private int decryptedBodyPos;
+
+	/**
+	 * Length of the EOF marker plus the closing HMAC.
+	 */
+	private static final int TRAILER_LENGTH = 16 + 32;
+
+	/**
+	 * Whether saves which only add records append them in place.
+	 */
+	private static boolean appendOnSave = true;
+
+	/**
+	 * Whether records are read, hashed and sealed on separate threads, which
+	 * only pays off with more than one processor.
+	 */
+	private static boolean pipelinedLoading = Runtime.getRuntime().availableProcessors() > 1;
+
+	/**
+	 * The last ciphertext block read or written. Allocated lazily as it is
+	 * already needed while the super constructor opens the file.
+	 */
+	private byte[] lastCipherBlock;
+
+	/**
+	 * State at the end of the record stream as last loaded or saved: the HMAC
+	 * before its final block, the ciphertext block chaining into the next
+	 * record and the length of the stored file. appendHasher is null if
+	 * unknown.
+	 */
+	private HmacPws appendHasher;
+	private byte[] appendIv;
+	private long appendLength;
+
+	/**
+	 * Length of the content opened, and bytes written by the current save.
+	 */
+	private long contentLength;
+	private long written;
+
 	/**
 	 * Constructs and initialises a new, empty version 3 PasswordSafe database
 	 * in memory.
@@ -119,15 +184,12 @@ public final class PwsFileV3 extends PwsFile {
 	@Override
 	public void dispose() {
 		super.dispose();
-		if (stretchedPassword != null) {
-			Arrays.fill(stretchedPassword, (byte) 0);
-		}
-		if (decryptedHmacKey != null) {
-			Arrays.fill(decryptedHmacKey, (byte) 0);
-		}
-		if (decryptedRecordKey != null) {
-			Arrays.fill(decryptedRecordKey, (byte) 0);
+		wipeKeys();
+		if (sealedHeaderRecord != null) {
+			Arrays.fill(sealedHeaderRecord, (byte) 0);
+			sealedHeaderRecord = null;
 		}
+		lockedHeader = null;
 	}
 
 	@Override
@@ -136,34 +198,66 @@ public final class PwsFileV3 extends PwsFile {
 		LOG.enterMethod("PwsFileV3.init");
 
 		setPassphrase(new StringBuilder(aPassphrase));
+		final byte[][] candidates = getPassphraseCandidates(aPassphrase);
 
-		if (storage != null) {
-			inStream = new ByteArrayInputStream(storage.load());
-			lastStorageChange = storage.getModifiedDate();
+		// stretch with the peeked header while the content is loaded
+		final PwsFileHeaderV3 peekedHeader = peekHeader();
+		List<FutureTask<byte[]>> stretches = null;
+		if (peekedHeader != null) {
+			stretches = startStretches(candidates, peekedHeader);
 		}
-		final PwsFileHeaderV3 theHeaderV3 = new PwsFileHeaderV3(this);
-
-		setHeaderV3(theHeaderV3);
 
-		final int iter = theHeaderV3.getIter();
-		LOG.debug1("Using iterations: [" + iter + "]");
-		final SHA256Pws shaHasher = new SHA256Pws();
-		// TODO: Change to avoid to STILL build a String.
-		stretchedPassword = Util.stretchPassphrase(aPassphrase.toString().getBytes(), theHeaderV3.getSalt(),
-				iter);
-
-		if (!Util.bytesAreEqual(theHeaderV3.getPassword(), shaHasher.digest(stretchedPassword))) {
-			// try another method to avoid asymmetric encoding bug in V0.8 Beta1
-			final CharBuffer buf = CharBuffer.wrap(aPassphrase);
-			stretchedPassword = Util.stretchPassphrase(
-					Charset.defaultCharset().encode(buf).array(), theHeaderV3.getSalt(), iter);
-			if (Util.bytesAreEqual(theHeaderV3.getPassword(), shaHasher.digest(stretchedPassword))) {
-				LOG.warn("Succeeded workaround for asymmetric password encoding bug");
-			} else {
-				throw new IOException("Invalid password");
+		ByteBuffer content = null;
+		final PwsFileHeaderV3 theHeaderV3;
+		try {
+			if (storage != null) {
+				content = openStorage();
+				contentLength = content.limit();
+			}
+			theHeaderV3 = new PwsFileHeaderV3(this);
+			setHeaderV3(theHeaderV3);
+			LOG.debug1("Using iterations: [" + theHeaderV3.getIter() + "]");
+
+			if (stretches != null
+					&& (!Arrays.equals(peekedHeader.getSalt(), theHeaderV3.getSalt()) || peekedHeader
+							.getIter() != theHeaderV3.getIter())) {
+				// the file was replaced since the peek
+				cancelStretches(stretches);
+				stretches = null;
+			}
+			if (stretches == null) {
+				stretches = startStretches(candidates, theHeaderV3);
 			}
+			stretchedPassword = awaitMatchingStretch(stretches, theHeaderV3.getPassword());
+		} finally {
+			if (stretches != null) {
+				cancelStretches(stretches);
+			}
+			for (final byte[] candidate : candidates) {
+				Arrays.fill(candidate, (byte) 0);
+			}
+		}
+
+		deriveKeys(theHeaderV3);
+		twofishCbc = new TwofishPws(decryptedRecordKey, false, theHeaderV3.getIV());
+
+		if (content != null && parallelDecryption) {
+			decryptBody(content, content.position(), theHeaderV3.getIV());
 		}
 
+		readExtraHeader(this);
+
+		LOG.leaveMethod("PwsFileV3.init");
+	}
+
+	/**
+	 * Decrypts the record and HMAC keys from the header with the stretched
+	 * password.
+	 *
+	 * @param theHeaderV3 the header of the file
+	 * @throws IOException if the keys can't be decrypted
+	 */
+	private void deriveKeys(final PwsFileHeaderV3 theHeaderV3) throws IOException {
 		try {
 
 			final byte[] rka = TwofishPws.processECB(stretchedPassword, false, theHeaderV3.getB1());
@@ -179,24 +273,322 @@ public final class PwsFileV3 extends PwsFile {
 			e.printStackTrace();
 			throw new IOException("Error reading encrypted fields");
 		}
-		twofishCbc = new TwofishPws(decryptedRecordKey, false, theHeaderV3.getIV());
+	}
 
-		readExtraHeader(this);
+	/**
+	 * Locks the file. Besides the memory key, the stretched password, the
+	 * record and HMAC keys and the append point are wiped and the header
+	 * record is sealed. The (public) file header is kept in the clear to
+	 * check the passphrase on unlock, so it is the passphrase of the last
+	 * load or save which unlocks the file.
+	 *
+	 * @see org.pwsafe.lib.file.PwsFile#lock()
+	 */
+	@Override
+	public synchronized boolean lock() {
+		if (isLocked()) {
+			return true;
+		}
+		if (stretchedPassword == null) {
+			// never opened or saved, nothing to derive a lock key from
+			return false;
+		}
+		lockedHeader = getHeaderV3();
+		sealedHeaderRecord = seal(headerRecord);
+		headerRecord = null;
+
+		final byte[] lockKey = deriveLockKey(stretchedPassword);
+		lockMemoryKey(lockKey);
+		Arrays.fill(lockKey, (byte) 0);
+		wipeKeys();
+		LOG.info("File locked");
+		return true;
+	}
 
-		LOG.leaveMethod("PwsFileV3.init");
+	/**
+	 * Unlocks the file by stretching the passphrase once more, nothing is
+	 * reloaded. The next save rewrites the whole file, as the append point
+	 * was dropped by {@link #lock()}.
+	 *
+	 * @see org.pwsafe.lib.file.PwsFile#unlock(java.lang.StringBuilder)
+	 */
+	@Override
+	public synchronized void unlock(final StringBuilder aPassphrase) throws IOException {
+		if (!isLocked()) {
+			throw new IllegalStateException("File is not locked");
+		}
+		final byte[][] candidates = getPassphraseCandidates(aPassphrase);
+		Util.clear(aPassphrase);
+		final List<FutureTask<byte[]>> stretches = startStretches(candidates, lockedHeader);
+		final byte[] stretched;
+		try {
+			stretched = awaitMatchingStretch(stretches, lockedHeader.getPassword());
+		} finally {
+			cancelStretches(stretches);
+			for (final byte[] candidate : candidates) {
+				Arrays.fill(candidate, (byte) 0);
+			}
+		}
+
+		final byte[] lockKey = deriveLockKey(stretched);
+		unlockMemoryKey(lockKey);
+		Arrays.fill(lockKey, (byte) 0);
+		stretchedPassword = stretched;
+		deriveKeys(lockedHeader);
+		headerRecord = (PwsRecordV3) unseal(sealedHeaderRecord);
+		Arrays.fill(sealedHeaderRecord, (byte) 0);
+		sealedHeaderRecord = null;
+		lockedHeader = null;
+		LOG.info("File unlocked");
+	}
+
+	/**
+	 * Derives the key protecting the memory key of a locked file, so that it
+	 * differs from the key decrypting the record and HMAC keys.
+	 */
+	private static byte[] deriveLockKey(final byte[] stretched) {
+		final HmacPws mac = new HmacPws(stretched);
+		mac.digest(LOCK_KEY_LABEL);
+		return mac.doFinal();
+	}
+
+	/**
+	 * Wipes all keys derived from the passphrase.
+	 */
+	private void wipeKeys() {
+		if (stretchedPassword != null) {
+			Arrays.fill(stretchedPassword, (byte) 0);
+			stretchedPassword = null;
+		}
+		if (decryptedHmacKey != null) {
+			Arrays.fill(decryptedHmacKey, (byte) 0);
+			decryptedHmacKey = null;
+		}
+		if (decryptedRecordKey != null) {
+			Arrays.fill(decryptedRecordKey, (byte) 0);
+			decryptedRecordKey = null;
+		}
+		hasher = null;
+		twofishCbc = null;
+		appendHasher = null;
+		if (appendIv != null) {
+			Arrays.fill(appendIv, (byte) 0);
+			appendIv = null;
+		}
+		if (lastCipherBlock != null) {
+			Arrays.fill(lastCipherBlock, (byte) 0);
+		}
+	}
+
+	/**
+	 * Reads the header ahead of the content if the storage supports it.
+	 *
+	 * @return the header or null
+	 */
+	private PwsFileHeaderV3 peekHeader() {
+		if (!(storage instanceof PwsPeekableStorage)) {
+			return null;
+		}
+		try {
+			final byte[] head = ((PwsPeekableStorage) storage).peek(PwsFileHeaderV3.LENGTH);
+			if (head == null || !Util.bytesAreEqual(ID_STRING, Arrays.copyOf(head, ID_STRING.length))) {
+				return null;
+			}
+			return new PwsFileHeaderV3(new ByteArrayInputStream(head));
+		} catch (final IOException e) {
+			// the regular load reports it
+			LOG.debug1("Could not peek at header: " + e.getMessage());
+			return null;
+		} catch (final EndOfFileException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Returns the encodings of a passphrase to try: the regular one and, if
+	 * it differs, the one of V0.8 Beta1 with its asymmetric encoding bug.
+	 *
+	 * @param aPassphrase the passphrase
+	 * @return the candidate encodings, the regular one first
+	 */
+	private static byte[][] getPassphraseCandidates(final StringBuilder aPassphrase) {
+		// TODO: Change to avoid to STILL build a String.
+		final byte[] regular = aPassphrase.toString().getBytes();
+		// the encoder's backing array may be longer than its content
+		final byte[] legacy = Charset.defaultCharset().encode(CharBuffer.wrap(aPassphrase)).array();
+		if (Arrays.equals(regular, legacy)) {
+			Arrays.fill(legacy, (byte) 0);
+			return new byte[][] { regular };
+		}
+		return new byte[][] { regular, legacy };
+	}
+
+	/**
+	 * Stretches each candidate encoding of the passphrase on a thread of its
+	 * own.
+	 *
+	 * @param candidates the passphrase encodings, must not be changed until
+	 *        the stretches are done or cancelled
+	 * @param header the header with salt and iterations
+	 * @return the running stretches in the order of <code>candidates</code>
+	 */
+	private static List<FutureTask<byte[]>> startStretches(final byte[][] candidates,
+			final PwsFileHeaderV3 header) {
+		final byte[] salt = header.getSalt();
+		final int iter = header.getIter();
+		final List<FutureTask<byte[]>> stretches = new ArrayList<FutureTask<byte[]>>(candidates.length);
+		for (final byte[] candidate : candidates) {
+			final FutureTask<byte[]> task = new FutureTask<byte[]>(new Callable<byte[]>() {
+				public byte[] call() throws InterruptedException {
+					return KeyStretcher.getInstance().stretchInterruptibly(candidate, salt, iter);
+				}
+			});
+			final Thread thread = new Thread(task, "PwsFile key stretching");
+			thread.setDaemon(true);
+			thread.start();
+			stretches.add(task);
+		}
+		return stretches;
+	}
+
+	/**
+	 * Waits for the stretches in order until one matches the stretched
+	 * password of the header. The others are cancelled by the caller.
+	 *
+	 * @param stretches the running stretches, the regular encoding first
+	 * @param expected the hash of the stretched password from the header
+	 * @return the matching stretched password
+	 * @throws IOException if none matches
+	 */
+	private static byte[] awaitMatchingStretch(final List<FutureTask<byte[]>> stretches,
+			final byte[] expected) throws IOException {
+		final SHA256Pws shaHasher = new SHA256Pws();
+		for (int i = 0; i < stretches.size(); i++) {
+			final byte[] stretched = awaitStretch(stretches.get(i));
+			if (Util.bytesAreEqual(expected, shaHasher.digest(stretched))) {
+				if (i > 0) {
+					LOG.warn("Succeeded workaround for asymmetric password encoding bug");
+				}
+				return stretched;
+			}
+			Arrays.fill(stretched, (byte) 0);
+		}
+		throw new IOException("Invalid password");
+	}
+
+	private static byte[] awaitStretch(final FutureTask<byte[]> task) throws IOException {
+		try {
+			return task.get();
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Opening was interrupted");
+		} catch (final ExecutionException e) {
+			throw new IOException("Key stretching failed", e.getCause());
+		}
+	}
+
+	private static void cancelStretches(final List<FutureTask<byte[]>> stretches) {
+		for (final FutureTask<byte[]> stretch : stretches) {
+			stretch.cancel(true);
+		}
+	}
+
+	/**
+	 * Decrypts all blocks between the header and the EOF marker in one go, so
+	 * that {@link #readDecryptedBytes(byte[])} only has to copy plaintext. If
+	 * no EOF marker is found nothing is done and the stream is decrypted block
+	 * by block, which reports the damage as before.
+	 *
+	 * @param content the raw file content
+	 * @param start offset of the first record block
+	 * @param iv the initial vector from the header
+	 */
+	private void decryptBody(final ByteBuffer content, final int start, final byte[] iv) {
+		final int blockSize = getBlockSize();
+		int end = start;
+		while (end + blockSize <= content.limit() && !isEofBlock(content, end)) {
+			end += blockSize;
+		}
+		if (end + blockSize > content.limit()) {
+			LOG.warn("No EOF marker found, decrypting sequentially");
+			return;
+		}
+		decryptedBody = new byte[end - start];
+		TwofishPws.decryptCBC(decryptedRecordKey, iv, content, start, end - start, decryptedBody, 0);
+		decryptedBodyPos = 0;
+	}
+
+	private static boolean isEofBlock(final ByteBuffer content, final int offset) {
+		for (int i = 0; i < EOF_BYTES_RAW.length; i++) {
+			if (content.get(offset + i) != EOF_BYTES_RAW[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean isEofBlock(final byte[] content, final int offset) {
+		for (int i = 0; i < EOF_BYTES_RAW.length; i++) {
+			if (content[offset + i] != EOF_BYTES_RAW[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Overwrites and releases the up front decrypted record stream.
+	 */
+	private void wipeDecryptedBody() {
+		if (decryptedBody != null) {
+			Arrays.fill(decryptedBody, (byte) 0);
+			decryptedBody = null;
+		}
+	}
+
+	/**
+	 * Sets whether files opened from now on decrypt their record stream in
+	 * parallel chunks before parsing, instead of block by block while
+	 * parsing.
+	 *
+	 * @param enabled true to decrypt up front and in parallel
+	 */
+	public static void setParallelDecryption(final boolean enabled) {
+		parallelDecryption = enabled;
+	}
+
+	/**
+	 * @return whether the record stream is decrypted up front in parallel
+	 */
+	public static boolean isParallelDecryption() {
+		return parallelDecryption;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.pwsafe.lib.file.PwsFile#close()
+	 */
+	@Override
+	void close() throws IOException {
+		wipeDecryptedBody();
+		super.close();
 	}
 
 	/**
 	 * Writes this file back to the filesystem. If successful the modified flag
 	 * is also reset on the file and all records.
 	 *
-	 * @throws IOException if the attempt fails.
+	 * @throws IOException if the attempt fails or the file is locked.
 	 */
 	@Override
 	public void save() throws IOException {
 		if (isReadOnly()) {
 			throw new IOException("File is read only");
 		}
+		if (isLocked()) {
+			throw new IOException("File is locked, it has to be unlocked before it is saved");
+		}
 
 		if (lastStorageChange != null && // check for concurrent change
 				storage.getModifiedDate().after(lastStorageChange)) {
@@ -204,12 +596,18 @@ public final class PwsFileV3 extends PwsFile {
 					"Password store was changed independently - no save possible!");
 		}
 
-		final ByteArrayOutputStream baos = new ByteArrayOutputStream();
-		outStream = baos;
+		if (canAppend() && appendRecords()) {
+			return;
+		}
+
+		openSave();
 
 		try {
+			written = 0;
 			final PwsFileHeaderV3 theHeaderV3 = getHeaderV3();
 			theHeaderV3.save(this);
+			// keep the new keys and password hash
+			setHeaderV3(theHeaderV3);
 
 			// Can only be created once the V3 header resets key info
 
@@ -225,35 +623,161 @@ public final class PwsFileV3 extends PwsFile {
 				}
 			}
 
-			outStream.write(PwsRecordV3.EOF_BYTES_RAW);
-			outStream.write(hasher.doFinal());
-
-			outStream.close();
-
-			if (storage.save(baos.toByteArray())) {
-				modified = false;
-				lastStorageChange = storage.getModifiedDate();
-			} else {
+			if (!commitRecords()) {
 				// FIXME: What is the proper error code (see PwsFile::save).
 				LOG.error(I18nHelper.getInstance().formatMessage("E00010",
 						new Object[] { "Storage" }));
 				// TODO Throw an exception here?
 				return;
 			}
-		} catch (final IOException e) {
-			try {
-				if (outStream != null) {
-					outStream.close();
+		} finally {
+			closeSave();
+		}
+	}
+
+	/**
+	 * Whether the next save may append the records added since the last load
+	 * or save instead of rewriting the file.
+	 */
+	private boolean canAppend() {
+		return appendOnSave && appendHasher != null && storedRecordCount >= 0
+				&& storedRecordCount <= sealedRecords.size()
+				&& storage instanceof PwsAppendableStorage;
+	}
+
+	/**
+	 * Saves by replacing the trailer of the stored file with the records
+	 * added since the last load or save and a new trailer, continuing the
+	 * CBC chain and the HMAC where they stopped.
+	 *
+	 * @return false if the storage has changed and a full save is needed
+	 * @throws IOException
+	 */
+	private boolean appendRecords() throws IOException {
+		final long keepLength = appendLength - TRAILER_LENGTH;
+		outStream = ((PwsAppendableStorage) storage).openAppend(appendLength, keepLength);
+		if (outStream == null) {
+			return false;
+		}
+		LOG.debug1("Appending " + (sealedRecords.size() - storedRecordCount) + " records");
+
+		try {
+			written = keepLength;
+			twofishCbc = new TwofishPws(decryptedRecordKey, true, appendIv);
+			hasher = appendHasher.copy();
+
+			for (int i = storedRecordCount; i < sealedRecords.size(); i++) {
+				final PwsRecordV3 rec = (PwsRecordV3) getRecord(i);
+				if (!rec.isHeaderRecord()) {
+					rec.saveRecord(this);
 				}
-			} catch (final Exception e2) {
-				// do nothing we're going to throw the original exception
 			}
+
+			if (!commitRecords()) {
+				throw new IOException("Couldn't append to storage");
+			}
+			return true;
+		} catch (final IOException e) {
+			appendHasher = null;
 			throw e;
 		} finally {
-			outStream = null;
+			closeSave();
 		}
 	}
 
+	/**
+	 * Writes the trailer and commits the save. On success the end of the
+	 * record stream is remembered for the next append.
+	 *
+	 * @return true if the storage accepted the new content.
+	 * @throws IOException
+	 */
+	private boolean commitRecords() throws IOException {
+		writeBytes(PwsRecordV3.EOF_BYTES_RAW);
+		final HmacPws state = hasher.copy();
+		writeBytes(hasher.doFinal());
+
+		if (!commitSave()) {
+			appendHasher = null;
+			return false;
+		}
+		modified = false;
+		lastStorageChange = storage.getModifiedDate();
+		storedRecordCount = sealedRecords.size();
+		appendHasher = lastCipherBlock != null ? state : null;
+		appendIv = Util.cloneByteArray(lastCipherBlock);
+		appendLength = written;
+		return true;
+	}
+
+	private void rememberCipherBlock(final byte[] buff, final int end) {
+		if (lastCipherBlock == null) {
+			lastCipherBlock = new byte[getBlockSize()];
+		}
+		System.arraycopy(buff, end - lastCipherBlock.length, lastCipherBlock, 0,
+				lastCipherBlock.length);
+	}
+
+	/**
+	 * Called once the closing HMAC of the record stream has been verified.
+	 * Remembers the end of the record stream for appending, provided nothing
+	 * follows the HMAC.
+	 *
+	 * @param state the HMAC before its final block
+	 * @throws IOException
+	 */
+	void markAppendPoint(final HmacPws state) throws IOException {
+		if (inStream != null && inStream.available() == 0 && lastCipherBlock != null) {
+			appendHasher = state;
+			appendIv = Util.cloneByteArray(lastCipherBlock);
+			appendLength = contentLength;
+		} else {
+			appendHasher = null;
+		}
+	}
+
+	/**
+	 * Sets whether saves which only add records to a loaded or saved file
+	 * append them in place instead of rewriting the whole file. Edits and
+	 * removals always lead to a full rewrite.
+	 *
+	 * @param enabled true to append where possible
+	 */
+	public static void setAppendOnSave(final boolean enabled) {
+		appendOnSave = enabled;
+	}
+
+	/**
+	 * @return whether saves which only add records append them in place
+	 */
+	public static boolean isAppendOnSave() {
+		return appendOnSave;
+	}
+
+	/**
+	 * Sets whether files loaded from now on read, hash and seal their records
+	 * in a pipeline of threads instead of all on the calling thread. The
+	 * records and the HMAC check are the same either way.
+	 *
+	 * @param enabled true to load in a pipeline
+	 */
+	public static void setPipelinedLoading(final boolean enabled) {
+		pipelinedLoading = enabled;
+	}
+
+	/**
+	 * @return whether records are loaded in a pipeline of threads
+	 */
+	public static boolean isPipelinedLoading() {
+		return pipelinedLoading;
+	}
+
+	@Override
+	public void writeBytes(final byte[] buffer, final int off, final int len) throws IOException {
+		super.writeBytes(buffer, off, len);
+		written += len;
+	}
+
 	/**
 	 * Returns the major version number for the file.
 	 *
@@ -294,6 +818,27 @@ public final class PwsFileV3 extends PwsFile {
 		headerRecord = new PwsRecordV3(this, true);
 	}
 
+	/**
+	 * Reads all records in a single pass, either with a
+	 * {@link RecordPipelineV3} or a {@link RecordDecoderV3}.
+	 *
+	 * @throws IOException If an error occurs reading from the file.
+	 */
+	@Override
+	void readAll() throws IOException {
+		try {
+			if (pipelinedLoading) {
+				// reader and HMAC have a thread each, the rest seal
+				final int workers = Math.max(1, Runtime.getRuntime().availableProcessors() - 2);
+				new RecordPipelineV3(this, workers).readAll();
+			} else {
+				new RecordDecoderV3(this).readAll();
+			}
+		} finally {
+			releaseStorage();
+		}
+	}
+
 	/**
 	 * Writes the extra version 3 header.
 	 *
@@ -323,20 +868,43 @@ public final class PwsFileV3 extends PwsFile {
 		if ((buff.length == 0) || ((buff.length % getBlockSize()) != 0)) {
 			throw new IllegalArgumentException(I18nHelper.getInstance().formatMessage("E00001"));
 		}
-		readBytes(buff);
-		if (Util.bytesAreEqual(buff, EOF_BYTES_RAW)) {
-			throw new EndOfFileException();
+		readDecryptedBytes(buff, 0, buff.length);
+	}
+
+	/**
+	 * Reads and decrypts <code>len</code> bytes into <code>buff</code> in a
+	 * single pass, starting at <code>off</code>.
+	 *
+	 * @param buff the buffer to read the bytes into.
+	 * @param off the offset of the first byte to fill.
+	 * @param len the number of bytes, a multiple of the block size.
+	 *
+	 * @throws EndOfFileException If the end of the record stream is reached.
+	 * @throws IOException If a read error occurs.
+	 */
+	void readDecryptedBytes(final byte[] buff, final int off, final int len)
+			throws EndOfFileException, IOException {
+		readBytes(buff, off, len);
+		for (int pos = off; pos < off + len; pos += getBlockSize()) {
+			if (isEofBlock(buff, pos)) {
+				wipeDecryptedBody();
+				throw new EndOfFileException();
+			}
+		}
+		rememberCipherBlock(buff, off + len);
+
+		if (decryptedBody != null) {
+			System.arraycopy(decryptedBody, decryptedBodyPos, buff, off, len);
+			decryptedBodyPos += len;
+			return;
 		}
 
-		byte[] decrypted;
 		try {
-			decrypted = twofishCbc.processCBC(buff);
+			twofishCbc.process(buff, off, buff, off, len);
 		} catch (final Exception e) {
 			e.printStackTrace();
 			throw new IOException("Error decrypting field");
 		}
-		Util.copyBytes(decrypted, buff);
-		// Algorithm.decrypt( buff );
 	}
 
 	/**
@@ -352,13 +920,28 @@ public final class PwsFileV3 extends PwsFile {
 			throw new IllegalArgumentException(I18nHelper.getInstance().formatMessage("E00001"));
 		}
 
-		byte[] temp; // = Util.cloneByteArray( buff );
+		final byte[] temp = Util.cloneByteArray(buff);
+		writeEncryptedBytes(temp, 0, temp.length);
+	}
+
+	/**
+	 * Encrypts <code>len</code> bytes of <code>buff</code> <b>in place</b>
+	 * and writes them to the file in one call.
+	 *
+	 * @param buff the data to be written, holds the ciphertext afterwards.
+	 * @param off the offset of the first byte to write.
+	 * @param len the number of bytes, a multiple of the block size.
+	 *
+	 * @throws IOException
+	 */
+	void writeEncryptedBytes(final byte[] buff, final int off, final int len) throws IOException {
 		try {
-			temp = twofishCbc.processCBC(buff);
+			twofishCbc.process(buff, off, buff, off, len);
 		} catch (final Exception e) {
 			throw new IOException("Error writing encrypted field");
 		}
-		writeBytes(temp);
+		rememberCipherBlock(buff, off + len);
+		writeBytes(buff, off, len);
 	}
 
 	/**
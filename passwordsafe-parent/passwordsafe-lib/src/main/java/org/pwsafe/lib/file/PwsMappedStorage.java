@@ -0,0 +1,35 @@
+/*
+ * $Id:$
+ * 
+ * Copyright (c) 2008-2014 David Muller <roxon@users.sourceforge.net>.
+ * All rights reserved. Use of the code is allowed under the
+ * Artistic License 2.0 terms, as specified in the LICENSE file
+ * distributed with this code, or available from
+ * http://www.opensource.org/licenses/artistic-license-2.0.php
+ */
+package org.pwsafe.lib.file;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * A {@link PwsStorage} that can expose its (encrypted) content as a buffer
+ * instead of a freshly read byte array, e.g. by mapping a local file into
+ * memory. Readers then parse and decrypt straight off the buffer, so the
+ * content is never copied onto the heap as a whole and reading overlaps with
+ * decryption.
+ * 
+ * @see PwsFileStorage
+ */
+public interface PwsMappedStorage extends PwsStorage {
+
+	/**
+	 * Provides a read-only view of the complete content, positioned at the
+	 * first byte.
+	 * 
+	 * @return the content, or null if this storage can't be mapped right now
+	 *         and {@link #load()} should be used instead
+	 * @throws IOException
+	 */
+	public ByteBuffer map() throws IOException;
+}
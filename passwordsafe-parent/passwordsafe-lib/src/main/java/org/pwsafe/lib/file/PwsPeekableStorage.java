@@ -0,0 +1,31 @@
+/*
+ * $Id:$
+ *
+ * Copyright (c) 2008-2014 David Muller <roxon@users.sourceforge.net>.
+ * All rights reserved. Use of the code is allowed under the
+ * Artistic License 2.0 terms, as specified in the LICENSE file
+ * distributed with this code, or available from
+ * http://www.opensource.org/licenses/artistic-license-2.0.php
+ */
+package org.pwsafe.lib.file;
+
+import java.io.IOException;
+
+/**
+ * A {@link PwsStorage} that can read the beginning of its (encrypted) content
+ * much faster than all of it. A file can then start to stretch the passphrase
+ * with the salt from its header while the rest is still being loaded.
+ *
+ * @see PwsFileStorage
+ */
+public interface PwsPeekableStorage extends PwsStorage {
+
+	/**
+	 * Reads the first <code>length</code> bytes of the content.
+	 *
+	 * @param length the number of bytes to read
+	 * @return the bytes, or null if the content is shorter
+	 * @throws IOException
+	 */
+	public byte[] peek(int length) throws IOException;
+}
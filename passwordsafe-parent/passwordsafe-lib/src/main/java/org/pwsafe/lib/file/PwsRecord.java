@@ -13,8 +13,7 @@ import java.io.IOException;
 import java.io.Serializable;
 import java.io.UnsupportedEncodingException;
 import java.util.Iterator;
-import java.util.Map;
-import java.util.TreeMap;
+import java.util.List;
 
 import org.pwsafe.lib.I18nHelper;
 import org.pwsafe.lib.Log;
@@ -59,7 +58,7 @@ public abstract class PwsRecord implements Comparable, Serializable, Cloneable {
 
 	private boolean modified = false;
 	private boolean isLoaded = false;
-	protected Map<Integer, PwsField> attributes = new TreeMap<Integer, PwsField>();
+	private final FieldSlots attributes;
 	private final Object ValidTypes[];
 
 	protected boolean ignoreFieldTypes = false;
@@ -173,6 +172,7 @@ public abstract class PwsRecord implements Comparable, Serializable, Cloneable {
 		super();
 
 		ValidTypes = validTypes;
+		attributes = new FieldSlots(validTypes.length);
 	}
 
 	/**
@@ -189,6 +189,7 @@ public abstract class PwsRecord implements Comparable, Serializable, Cloneable {
 		super();
 
 		ValidTypes = validTypes;
+		attributes = new FieldSlots(validTypes.length);
 
 		loadRecord(owner);
 
@@ -212,6 +213,7 @@ public abstract class PwsRecord implements Comparable, Serializable, Cloneable {
 		super();
 
 		ValidTypes = validTypes;
+		attributes = new FieldSlots(validTypes.length);
 		this.ignoreFieldTypes = ignoreFieldTypes;
 
 		loadRecord(owner);
@@ -221,16 +223,34 @@ public abstract class PwsRecord implements Comparable, Serializable, Cloneable {
 	}
 
 	/**
+	 * Creates a record holding <code>fields</code> as they are, without
+	 * default values or validation. Used when unsealing a record from memory.
 	 * 
-	 * @param base
+	 * @param validTypes an array of valid field types.
+	 * @param fields the fields of the record
+	 */
+	PwsRecord(Object[] validTypes, List<PwsField> fields) {
+		super();
+
+		ValidTypes = validTypes;
+		attributes = new FieldSlots(validTypes.length);
+		for (final PwsField field : fields) {
+			attributes.put(field);
+		}
+	}
+
+	/**
+	 * Creates a deep copy of <code>base</code>, each field is copied.
+	 * 
+	 * @param base the record to copy
 	 */
 	PwsRecord(PwsRecord base) {
 		isLoaded = true;
 		ValidTypes = base.ValidTypes;
+		attributes = new FieldSlots(ValidTypes.length);
 
-		for (final Iterator<Integer> i = getFields(); i.hasNext();) {
-			final Integer key = i.next();
-			attributes.put(key, getField(key));
+		for (final PwsField field : base.attributes) {
+			attributes.put(RecordCodec.copy(field));
 		}
 	}
 
@@ -323,11 +343,18 @@ public abstract class PwsRecord implements Comparable, Serializable, Cloneable {
 	 * 
 	 */
 	public void dispose() {
-		for (final PwsField field : attributes.values()) {
+		for (final PwsField field : attributes) {
 			field.dispose();
 		}
 	}
 
+	/**
+	 * @return the fields of this record, for encoding it
+	 */
+	FieldSlots getFieldSlots() {
+		return attributes;
+	}
+
 	/**
 	 * Gets the value of a field. See the subclass documentation for valid
 	 * values for <code>type</code>.
@@ -337,7 +364,7 @@ public abstract class PwsRecord implements Comparable, Serializable, Cloneable {
 	 * @return The value of the field.
 	 */
 	public PwsField getField(PwsFieldType aType) {
-		return getField(Integer.valueOf(aType.getId()));
+		return attributes.get(aType.getId());
 	}
 
 	/**
@@ -349,7 +376,7 @@ public abstract class PwsRecord implements Comparable, Serializable, Cloneable {
 	 * @return The value of the field.
 	 */
 	public PwsField getField(int aType) {
-		return getField(Integer.valueOf(aType));
+		return attributes.get(aType);
 	}
 
 	/**
@@ -361,7 +388,7 @@ public abstract class PwsRecord implements Comparable, Serializable, Cloneable {
 	 * @return The value of the field.
 	 */
 	public PwsField getField(Integer aType) {
-		return attributes.get(aType);
+		return attributes.get(aType.intValue());
 	}
 
 	/**
@@ -373,7 +400,7 @@ public abstract class PwsRecord implements Comparable, Serializable, Cloneable {
 	 * @return An <code>Iterator</code> over the stored field codes.
 	 */
 	public Iterator<Integer> getFields() {
-		return attributes.keySet().iterator();
+		return attributes.types();
 	}
 
 	/**
@@ -420,6 +447,28 @@ public abstract class PwsRecord implements Comparable, Serializable, Cloneable {
 		modified = false;
 	}
 
+	/**
+	 * Returns whether this record has been read from a file.
+	 * 
+	 * @return <code>true</code> if the record has been loaded
+	 */
+	boolean isLoaded() {
+		return isLoaded;
+	}
+
+	/**
+	 * Restores the flags of a record rebuilt from its sealed form.
+	 * 
+	 * @param loaded whether the record had been read from a file
+	 * @param wasModified whether the record had been modified
+	 * @param ignoreTypes whether field types are ignored
+	 */
+	void restoreState(boolean loaded, boolean wasModified, boolean ignoreTypes) {
+		isLoaded = loaded;
+		modified = wasModified;
+		ignoreFieldTypes = ignoreTypes;
+	}
+
 	/**
 	 * Sets a field on this record from <code>item</code>.
 	 * 
@@ -449,7 +498,7 @@ public abstract class PwsRecord implements Comparable, Serializable, Cloneable {
 				final Class cl = value.getClass();
 
 				if (cl == (((Object[]) ValidTypes[theType])[2])) {
-					attributes.put(Integer.valueOf(theType), value);
+					attributes.put(value);
 					setModified();
 					return;
 				}
@@ -465,7 +514,7 @@ public abstract class PwsRecord implements Comparable, Serializable, Cloneable {
 				final Class cl = value.getClass();
 
 				if (cl == (((Object[]) validType)[2])) {
-					attributes.put(Integer.valueOf(theType), value);
+					attributes.put(value);
 					setModified();
 					return;
 				}
@@ -475,7 +524,7 @@ public abstract class PwsRecord implements Comparable, Serializable, Cloneable {
 		if (allowUnknownFieldTypes()) {
 			LOG.warn("Adding unknown field of type " + theType
 					+ " - maybe a new version is needed?");
-			attributes.put(Integer.valueOf(theType), value);
+			attributes.put(value);
 			setModified();
 			return;
 		} else {
@@ -505,20 +554,19 @@ public abstract class PwsRecord implements Comparable, Serializable, Cloneable {
 	 * @throws IOException
 	 */
 	protected void writeField(PwsFile file, PwsField field, int aType) throws IOException {
-		byte lenBlock[];
-		byte dataBlock[];
-
-		lenBlock = new byte[PwsFile.calcBlockLength(8)];
-		dataBlock = field.getBytes();
-
-		Util.putIntToByteArray(lenBlock, dataBlock.length, 0);
-		Util.putIntToByteArray(lenBlock, aType, 4);
+		final byte[] dataBlock = field.getBytes();
+		final int lenBlockLength = PwsFile.calcBlockLength(8);
+
+		// length block and padded data are encrypted in one go
+		final byte[] buffer = new byte[lenBlockLength
+				+ PwsFile.calcBlockLength(dataBlock.length)];
+		Util.putIntToByteArray(buffer, dataBlock.length, 0);
+		Util.putIntToByteArray(buffer, aType, 4);
 		// TODO put random bytes here
 
-		dataBlock = Util.cloneByteArray(dataBlock, PwsFile.calcBlockLength(dataBlock.length));
+		System.arraycopy(dataBlock, 0, buffer, lenBlockLength, dataBlock.length);
 
-		file.writeEncryptedBytes(lenBlock);
-		file.writeEncryptedBytes(dataBlock);
+		file.writeEncryptedBytes(buffer);
 	}
 
 	/**
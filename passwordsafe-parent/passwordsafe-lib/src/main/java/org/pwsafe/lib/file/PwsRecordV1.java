@@ -11,6 +11,7 @@ package org.pwsafe.lib.file;
 
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
+import java.util.List;
 
 import org.pwsafe.lib.exception.EndOfFileException;
 
@@ -118,6 +119,16 @@ public class PwsRecordV1 extends PwsRecord implements Comparable {
 		super(base);
 	}
 
+	/**
+	 * Creates a record holding the given fields, used when unsealing a record
+	 * from memory.
+	 * 
+	 * @param fields the fields of the record.
+	 */
+	PwsRecordV1(List<PwsField> fields) {
+		super(VALID_TYPES, fields);
+	}
+
 	/**
 	 * Creates a deep clone of this record.
 	 * 
@@ -12,6 +12,7 @@ package org.pwsafe.lib.file;
 import java.io.IOException;
 import java.util.EnumMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 
 import org.pwsafe.lib.Log;
@@ -157,6 +158,16 @@ public class PwsRecordV2 extends PwsRecord {
 		super(base);
 	}
 
+	/**
+	 * Creates a record holding the given fields, used when unsealing a record
+	 * from memory.
+	 * 
+	 * @param fields the fields of the record.
+	 */
+	PwsRecordV2(List<PwsField> fields) {
+		super(VALID_TYPES, fields);
+	}
+
 	/**
 	 * Creates a deep clone of this record.
 	 * 
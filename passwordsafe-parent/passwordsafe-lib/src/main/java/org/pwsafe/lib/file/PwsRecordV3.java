@@ -10,15 +10,17 @@
 package org.pwsafe.lib.file;
 
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.EnumSet;
 import java.util.Iterator;
-import java.util.Map;
+import java.util.List;
 import java.util.Set;
 
 import org.pwsafe.lib.Log;
 import org.pwsafe.lib.UUID;
 import org.pwsafe.lib.Util;
+import org.pwsafe.lib.crypto.HmacPws;
 import org.pwsafe.lib.exception.EndOfFileException;
 
 /**
@@ -206,6 +208,16 @@ public class PwsRecordV3 extends PwsRecord {
 		super(base);
 	}
 
+	/**
+	 * Creates a record holding the given fields, used when unsealing a record
+	 * from memory.
+	 * 
+	 * @param fields the fields of the record.
+	 */
+	PwsRecordV3(List<PwsField> fields) {
+		super(VALID_TYPES, fields);
+	}
+
 	/**
 	 * The V3 format allows and requires the ability to add formerly unknown
 	 * fields.
@@ -318,42 +330,32 @@ public class PwsRecordV3 extends PwsRecord {
 			} catch (final EndOfFileException eofe) {
 				data = new byte[32]; // to hold closing HMAC
 				file.readBytes(data);
+				final HmacPws state = file.hasher.copy();
 				final byte[] hash = file.hasher.doFinal();
 				if (!Util.bytesAreEqual(data, hash)) {
 					LOG.error("HMAC record did not match. File may have been tampered");
 					throw new IOException("HMAC record did not match. File has been tampered");
 				}
+				file.markAppendPoint(state);
 				throw eofe;
 			}
 
 			length = Util.getIntFromByteArray(rawData, 0);
 			type = rawData[4] & 0x000000ff; // rest of header is now random data
 			data = new byte[length];
-			final byte[] remainingDataInRecord = Util.getBytes(rawData, 5, 11);
 			if (length <= 11) {
-				Util.copyBytes(Util.getBytes(remainingDataInRecord, 0, length), data);
-			} else if (length > 11) {
+				System.arraycopy(rawData, 5, data, 0, length);
+			} else {
 				final int bytesToRead = length - 11;
-				int blocksToRead = bytesToRead / file.getBlockSize();
-
-				// if blocksToRead doesn't fit neatly into current block
-				// size, add an extra block for the remaining bytes
-				if (bytesToRead % file.getBlockSize() != 0) {
-					blocksToRead++;
-				}
-
-				byte[] remainingRecords = new byte[0];
-				for (int i = 0; i < blocksToRead; i++) {
-					byte[] nextBlock = new byte[file.getBlockSize()];
-					file.readDecryptedBytes(nextBlock);
-					if (i == blocksToRead - 1) {
-						// last block, do magic
-						nextBlock = Util.getBytes(nextBlock, 0, bytesToRead
-								- remainingRecords.length);
-					}
-					remainingRecords = Util.mergeBytes(remainingRecords, nextBlock);
-				}
-				data = Util.mergeBytes(remainingDataInRecord, remainingRecords);
+				final int blockSize = file.getBlockSize();
+				// round up to whole blocks, the last one holds padding
+				final int blocksLen = ((bytesToRead + blockSize - 1) / blockSize) * blockSize;
+
+				final byte[] remainingRecords = new byte[blocksLen];
+				file.readDecryptedBytes(remainingRecords, 0, blocksLen);
+				System.arraycopy(rawData, 5, data, 0, 11);
+				System.arraycopy(remainingRecords, 0, data, 11, bytesToRead);
+				Arrays.fill(remainingRecords, (byte) 0);
 			}
 			final byte[] dataToHash = data;
 			file.hasher.digest(dataToHash);
@@ -385,7 +387,7 @@ public class PwsRecordV3 extends PwsRecord {
 			if (ignoreFieldTypes) {
 				// header record has no valid types...
 				itemVal = new PwsUnknownField(item.getType(), item.getByteData());
-				attributes.put(new Integer(item.getType()), itemVal);
+				getFieldSlots().put(itemVal);
 			} else {
 
 				switch (item.getType()) {
@@ -498,34 +500,19 @@ public class PwsRecordV3 extends PwsRecord {
 	 */
 	@Override
 	protected void writeField(PwsFile file, PwsField field, int type) throws IOException {
-		byte lenBlock[];
-		byte dataBlock[];
-
-		lenBlock = new byte[5];
-		dataBlock = field.getBytes();
-
-		Util.putIntToByteArray(lenBlock, dataBlock.length, 0);
-		// Util.putIntToByteArray( lenBlock, type, 4 );
-		lenBlock[4] = (byte) type;
+		final byte[] dataBlock = field.getBytes();
 
 		// ensure encryption payload is equal blocks of 16
-		int bytesToPad = 0;
-		final int calcWriteLen = lenBlock.length + dataBlock.length;
-		if (calcWriteLen % 16 != 0) {
-			bytesToPad = 16 - (calcWriteLen % 16);
-		}
+		final int calcWriteLen = 5 + dataBlock.length;
+		final int writeLen = ((calcWriteLen + 15) / 16) * 16;
 
 		// TODO put random bytes here
-		dataBlock = Util.cloneByteArray(dataBlock, dataBlock.length + bytesToPad);
-
-		// file.writeBytes(lenBlock);
-		final byte[] dataToWrite = Util.mergeBytes(lenBlock, dataBlock);
-
-		for (int i = 0; i < (dataToWrite.length / 16); i++) {
-			final byte[] nextBlock = Util.getBytes(dataToWrite, i * 16, 16);
-			file.writeEncryptedBytes(nextBlock);
-		}
+		final byte[] dataToWrite = new byte[writeLen];
+		Util.putIntToByteArray(dataToWrite, dataBlock.length, 0);
+		dataToWrite[4] = (byte) type;
+		System.arraycopy(dataBlock, 0, dataToWrite, 5, dataBlock.length);
 
+		((PwsFileV3) file).writeEncryptedBytes(dataToWrite, 0, dataToWrite.length);
 	}
 
 	/**
@@ -543,15 +530,15 @@ public class PwsRecordV3 extends PwsRecord {
 
 		sb.append("{ ");
 
-		for (final Map.Entry<Integer, PwsField> entry : attributes.entrySet()) {
-			final String value = entry.getValue().toString();
+		for (final PwsField field : getFieldSlots()) {
+			final String value = field.toString();
 
 			if (!first) {
 				sb.append(", ");
 			}
 			first = false;
 
-			sb.append(((Object[]) VALID_TYPES[entry.getKey().intValue()])[1]);
+			sb.append(((Object[]) VALID_TYPES[field.getType()])[1]);
 			sb.append("=");
 			sb.append(value);
 		}
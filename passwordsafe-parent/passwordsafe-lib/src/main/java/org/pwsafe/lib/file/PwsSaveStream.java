@@ -0,0 +1,34 @@
+/*
+ * $Id:$
+ * 
+ * Copyright (c) 2008-2014 David Muller <roxon@users.sourceforge.net>.
+ * All rights reserved. Use of the code is allowed under the
+ * Artistic License 2.0 terms, as specified in the LICENSE file
+ * distributed with this code, or available from
+ * http://www.opensource.org/licenses/artistic-license-2.0.php
+ */
+package org.pwsafe.lib.file;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * The stream a {@link PwsStreamingStorage} is saved through.
+ */
+public abstract class PwsSaveStream extends OutputStream {
+
+	/**
+	 * Makes everything written so far durable and replaces the stored content
+	 * with it. The stream is closed afterwards.
+	 * 
+	 * @return true if the save was successful
+	 * @throws IOException
+	 */
+	public abstract boolean commit() throws IOException;
+
+	/**
+	 * Discards the content written so far, unless it has been committed.
+	 */
+	@Override
+	public abstract void close() throws IOException;
+}
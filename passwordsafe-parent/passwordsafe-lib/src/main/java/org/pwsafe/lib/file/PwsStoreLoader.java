@@ -0,0 +1,289 @@
+/*
+ * $Id:$
+ *
+ * Copyright (c) 2008-2014 David Muller <roxon@users.sourceforge.net>.
+ * All rights reserved. Use of the code is allowed under the
+ * Artistic License 2.0 terms, as specified in the LICENSE file
+ * distributed with this code, or available from
+ * http://www.opensource.org/licenses/artistic-license-2.0.php
+ */
+package org.pwsafe.lib.file;
+
+import java.io.IOException;
+import java.security.NoSuchAlgorithmException;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+
+import org.pwsafe.lib.Log;
+import org.pwsafe.lib.Util;
+import org.pwsafe.lib.datastore.PwsEntryStore;
+import org.pwsafe.lib.datastore.PwsEntryStoreImpl;
+import org.pwsafe.lib.exception.EndOfFileException;
+import org.pwsafe.lib.exception.InvalidPassphraseException;
+import org.pwsafe.lib.exception.UnsupportedFileVersionException;
+
+/**
+ * Loads the records of a Password Safe file into an entry store on a
+ * background thread.
+ * <p>
+ * {@link #open(String, StringBuilder)} reads the header and checks the
+ * passphrase on the calling thread, so a wrong passphrase is reported right
+ * away. {@link #start(Listener)} then reads the records on a thread of its
+ * own, or {@link #load(Listener)} on a worker thread of the caller, and
+ * reports every {@link #BATCH_SIZE} records. Their sparse entries
+ * wait until {@link #publish()} adds them to the store, so the store and its
+ * listeners are only used on the thread calling it, usually the UI thread.
+ * <p>
+ * The HMAC over all records is only checked once the last record has been
+ * read, so the store must not be changed before loading has finished
+ * successfully.
+ */
+public final class PwsStoreLoader {
+
+	private static final Log LOG = Log.getInstance(PwsStoreLoader.class.getPackage().getName());
+
+	/**
+	 * Number of records between two progress reports.
+	 */
+	public static final int BATCH_SIZE = 256;
+
+	/**
+	 * Receives the progress of loading, on the loading thread.
+	 */
+	public interface Listener {
+
+		/**
+		 * Called each time another batch of records has been read.
+		 * Implementations hand over to their UI thread, which calls
+		 * {@link PwsStoreLoader#publish()}.
+		 *
+		 * @param aCount the number of records read so far
+		 */
+		void recordsLoaded(int aCount);
+
+		/**
+		 * Called once all records have been read and the HMAC has been
+		 * checked, or once loading has failed or been cancelled. Entries
+		 * may still be waiting for {@link PwsStoreLoader#publish()}.
+		 *
+		 * @param anError null on success, a {@link CancellationException} if
+		 *        loading was cancelled, otherwise the failure
+		 */
+		void loadFinished(Exception anError);
+	}
+
+	private final PwsFile file;
+	private final PwsEntryStoreImpl store;
+
+	private Thread thread;
+	private final CountDownLatch finished = new CountDownLatch(1);
+	private volatile boolean cancelled;
+	private volatile int loadedCount;
+
+	private PwsStoreLoader(final PwsFile aFile, final PwsEntryStoreImpl aStore) {
+		file = aFile;
+		store = aStore;
+		store.deferLoadedEntries();
+	}
+
+	/**
+	 * Opens a Password Safe file and checks its passphrase, without reading
+	 * its records yet.
+	 *
+	 * @param filename the name of the file to open
+	 * @param aPassphrase the passphrase for the file, it is cleared
+	 * @return the loader of the file
+	 *
+	 * @throws EndOfFileException
+	 * @throws InvalidPassphraseException
+	 * @throws IOException
+	 * @throws UnsupportedFileVersionException
+	 * @throws NoSuchAlgorithmException If no SHA-1 implementation is found.
+	 */
+	public static PwsStoreLoader open(final String filename, final StringBuilder aPassphrase)
+			throws EndOfFileException, InvalidPassphraseException, IOException,
+			UnsupportedFileVersionException, NoSuchAlgorithmException {
+		final PwsFile file = PwsFileFactory.getPwsFile(filename, aPassphrase);
+		Util.clear(aPassphrase);
+		return new PwsStoreLoader(file, new PwsEntryStoreImpl(file, true));
+	}
+
+	/**
+	 * Opens a Password Safe file and checks its passphrase, without reading
+	 * its records yet. The sparse entries will hold the given fields, so
+	 * they need not be filled in by a second pass over all records.
+	 *
+	 * @param filename the name of the file to open
+	 * @param aPassphrase the passphrase for the file, it is cleared
+	 * @param sparseFields Set of fields to fill in the sparse entries.
+	 * @return the loader of the file
+	 *
+	 * @throws EndOfFileException
+	 * @throws InvalidPassphraseException
+	 * @throws IOException
+	 * @throws UnsupportedFileVersionException
+	 * @throws NoSuchAlgorithmException If no SHA-1 implementation is found.
+	 */
+	public static PwsStoreLoader open(final String filename, final StringBuilder aPassphrase,
+			final Set<? extends PwsFieldType> sparseFields) throws EndOfFileException,
+			InvalidPassphraseException, IOException, UnsupportedFileVersionException,
+			NoSuchAlgorithmException {
+		final PwsFile file = PwsFileFactory.getPwsFile(filename, aPassphrase);
+		Util.clear(aPassphrase);
+		return new PwsStoreLoader(file, new PwsEntryStoreImpl(file, sparseFields, true));
+	}
+
+	/**
+	 * @return the store the records are loaded into
+	 */
+	public PwsEntryStore getStore() {
+		return store;
+	}
+
+	/**
+	 * @return the number of records read so far
+	 */
+	public int getLoadedCount() {
+		return loadedCount;
+	}
+
+	/**
+	 * Starts reading the records on a background thread.
+	 *
+	 * @param aListener receives the progress
+	 */
+	public synchronized void start(final Listener aListener) {
+		final Thread loading = new Thread(new Runnable() {
+			public void run() {
+				read(aListener);
+			}
+		}, "jpwsafe load");
+		loading.setDaemon(true);
+		attach(loading);
+		loading.start();
+	}
+
+	/**
+	 * Reads the records on the calling thread, which should not be the UI
+	 * thread. Interrupting it cancels loading, just like {@link #cancel()}.
+	 *
+	 * @param aListener receives the progress, also on the calling thread
+	 */
+	public void load(final Listener aListener) {
+		synchronized (this) {
+			attach(Thread.currentThread());
+		}
+		read(aListener);
+	}
+
+	private void attach(final Thread aThread) {
+		if (thread != null) {
+			throw new IllegalStateException("Loading has already been started");
+		}
+		thread = aThread;
+	}
+
+	private void read(final Listener aListener) {
+		file.addLoadListener(store);
+		file.addLoadListener(new Progress(aListener));
+		Exception error = null;
+		try {
+			file.readAll();
+		} catch (final Exception e) {
+			error = e;
+		} finally {
+			try {
+				file.close();
+			} catch (final IOException e) {
+				LOG.warn("Could not close the file after loading: " + e.getMessage());
+			}
+			finished.countDown();
+		}
+		if (isCancelled()) {
+			error = new CancellationException("Loading cancelled");
+		} else if (error != null) {
+			LOG.error("Loading failed: " + error.getMessage());
+		} else {
+			LOG.debug1("File contains " + file.getRecordCount() + " records.");
+		}
+		aListener.loadFinished(error);
+	}
+
+	private boolean isCancelled() {
+		return cancelled || Thread.currentThread().isInterrupted();
+	}
+
+	/**
+	 * Adds the entries read since the last call to the store, which tells
+	 * its listeners about each of them.
+	 *
+	 * @return the number of entries added
+	 */
+	public int publish() {
+		return store.addLoadedEntries();
+	}
+
+	/**
+	 * Cancels loading and waits until the records are no longer read, which
+	 * happens at the next record. The listener is still told.
+	 */
+	public void cancel() {
+		final Thread loading;
+		synchronized (this) {
+			cancelled = true;
+			loading = thread;
+		}
+		if (loading == null || loading == Thread.currentThread() || finished.getCount() == 0) {
+			return;
+		}
+		loading.interrupt();
+		boolean interrupted = false;
+		for (;;) {
+			try {
+				finished.await();
+				break;
+			} catch (final InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Counts the records and stops loading once it is cancelled or its
+	 * thread is interrupted. It only wants the end of each record, so no
+	 * fields are decoded for it.
+	 */
+	private final class Progress implements PwsFieldLoadListener {
+		private final Listener listener;
+
+		Progress(final Listener aListener) {
+			listener = aListener;
+		}
+
+		public void loaded(final PwsRecord aRecord) {
+			recordLoaded(true);
+		}
+
+		public boolean isFieldWanted(final int type) {
+			return false;
+		}
+
+		public void fieldLoaded(final int type, final byte[] buffer, final int offset, final int length) {
+			// no fields wanted
+		}
+
+		public void recordLoaded(final boolean valid) {
+			if (isCancelled()) {
+				throw new CancellationException("Loading cancelled");
+			}
+			final int count = ++loadedCount;
+			if (count % BATCH_SIZE == 0) {
+				listener.recordsLoaded(count);
+			}
+		}
+	}
+}
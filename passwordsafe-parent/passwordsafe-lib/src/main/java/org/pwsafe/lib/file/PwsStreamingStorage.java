@@ -0,0 +1,32 @@
+/*
+ * $Id:$
+ * 
+ * Copyright (c) 2008-2014 David Muller <roxon@users.sourceforge.net>.
+ * All rights reserved. Use of the code is allowed under the
+ * Artistic License 2.0 terms, as specified in the LICENSE file
+ * distributed with this code, or available from
+ * http://www.opensource.org/licenses/artistic-license-2.0.php
+ */
+package org.pwsafe.lib.file;
+
+import java.io.IOException;
+
+/**
+ * A {@link PwsStorage} that accepts the (encrypted) bytes of a save as a
+ * stream, so that a file can be written while it is being encrypted instead
+ * of being collected in memory for {@link #save(byte[])} first.
+ * 
+ * @see PwsFileStorage
+ */
+public interface PwsStreamingStorage extends PwsStorage {
+
+	/**
+	 * Starts a save. The stored content is only replaced once
+	 * {@link PwsSaveStream#commit()} succeeds, closing the stream without a
+	 * commit discards everything written so far.
+	 * 
+	 * @return the stream to write the new content to
+	 * @throws IOException
+	 */
+	public PwsSaveStream openSave() throws IOException;
+}
@@ -0,0 +1,234 @@
+/*
+ * $Id:$
+ *
+ * Copyright (c) 2008-2014 David Muller <roxon@users.sourceforge.net>.
+ * All rights reserved. Use of the code is allowed under the
+ * Artistic License 2.0 terms, as specified in the LICENSE file
+ * distributed with this code, or available from
+ * http://www.opensource.org/licenses/artistic-license-2.0.php
+ */
+package org.pwsafe.lib.file;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.pwsafe.lib.Log;
+
+/**
+ * Keeps the sealed records of a file off the heap.
+ * <p>
+ * All record blobs are appended to a list of direct {@link ByteBuffer}
+ * segments, and each record is found through a primitive segment, offset and
+ * length index. So a file costs a few arrays on the heap regardless of the
+ * number of records. Replaced and removed blobs are wiped at once and their
+ * space is reclaimed by a compaction when it makes up half of the arena.
+ * <p>
+ * All methods are synchronized.
+ */
+final class RecordArena {
+	private static final Log LOG = Log.getInstance(RecordArena.class.getPackage().getName());
+
+	/**
+	 * Size of the first segment, following segments double up to
+	 * {@link #MAX_SEGMENT_SIZE}.
+	 */
+	static final int MIN_SEGMENT_SIZE = 16 * 1024;
+
+	/**
+	 * Size limit of a segment, except for single blobs which are larger.
+	 */
+	static final int MAX_SEGMENT_SIZE = 1024 * 1024;
+
+	private static final byte[] ZEROS = new byte[4096];
+
+	private final List<ByteBuffer> segments = new ArrayList<ByteBuffer>();
+
+	private int[] segmentIndex = new int[16];
+	private int[] offsets = new int[16];
+	private int[] lengths = new int[16];
+	private int count;
+
+	private long used;
+	private long wasted;
+	private int modCount;
+
+	/**
+	 * @return the number of records
+	 */
+	synchronized int size() {
+		return count;
+	}
+
+	/**
+	 * Returns the change counter, which is incremented whenever a record is
+	 * added or removed.
+	 *
+	 * @return the change counter
+	 */
+	synchronized int getModCount() {
+		return modCount;
+	}
+
+	/**
+	 * Appends a sealed record.
+	 *
+	 * @param blob the sealed record
+	 */
+	synchronized void add(final byte[] blob) {
+		if (count == offsets.length) {
+			final int capacity = count * 2;
+			segmentIndex = Arrays.copyOf(segmentIndex, capacity);
+			offsets = Arrays.copyOf(offsets, capacity);
+			lengths = Arrays.copyOf(lengths, capacity);
+		}
+		store(count, blob);
+		count++;
+		modCount++;
+	}
+
+	/**
+	 * Returns a copy of a sealed record.
+	 *
+	 * @param index the index of the record
+	 * @return the sealed record
+	 */
+	synchronized byte[] get(final int index) {
+		checkIndex(index);
+		final byte[] blob = new byte[lengths[index]];
+		final ByteBuffer segment = segments.get(segmentIndex[index]).duplicate();
+		segment.position(offsets[index]);
+		segment.get(blob);
+		return blob;
+	}
+
+	/**
+	 * Replaces a sealed record. The old one is wiped.
+	 *
+	 * @param index the index of the record
+	 * @param blob the new sealed record
+	 */
+	synchronized void set(final int index, final byte[] blob) {
+		checkIndex(index);
+		release(index);
+		store(index, blob);
+		compactIfWasteful();
+	}
+
+	/**
+	 * Removes and wipes a sealed record.
+	 *
+	 * @param index the index of the record
+	 */
+	synchronized void remove(final int index) {
+		checkIndex(index);
+		release(index);
+		final int tail = count - index - 1;
+		System.arraycopy(segmentIndex, index + 1, segmentIndex, index, tail);
+		System.arraycopy(offsets, index + 1, offsets, index, tail);
+		System.arraycopy(lengths, index + 1, lengths, index, tail);
+		count--;
+		modCount++;
+		compactIfWasteful();
+	}
+
+	/**
+	 * Wipes all segments and removes all records.
+	 */
+	synchronized void clear() {
+		for (final ByteBuffer segment : segments) {
+			wipe(segment, 0, segment.position());
+		}
+		segments.clear();
+		Arrays.fill(offsets, 0);
+		Arrays.fill(lengths, 0);
+		Arrays.fill(segmentIndex, 0);
+		count = 0;
+		used = 0;
+		wasted = 0;
+		modCount++;
+	}
+
+	/**
+	 * @return the number of off-heap bytes allocated
+	 */
+	synchronized long getCapacity() {
+		long capacity = 0;
+		for (final ByteBuffer segment : segments) {
+			capacity += segment.capacity();
+		}
+		return capacity;
+	}
+
+	private void checkIndex(final int index) {
+		if (index < 0 || index >= count) {
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + count);
+		}
+	}
+
+	/**
+	 * Appends <code>blob</code> to the last segment, or a new one if it does
+	 * not fit, and points index entry <code>index</code> at it. The segment
+	 * position marks its fill level.
+	 */
+	private void store(final int index, final byte[] blob) {
+		ByteBuffer segment = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+		if (segment == null || segment.remaining() < blob.length) {
+			int size = segment == null ? MIN_SEGMENT_SIZE : Math.min(segment.capacity() * 2,
+					MAX_SEGMENT_SIZE);
+			size = Math.max(size, blob.length);
+			segment = ByteBuffer.allocateDirect(size);
+			segments.add(segment);
+		}
+		segmentIndex[index] = segments.size() - 1;
+		offsets[index] = segment.position();
+		lengths[index] = blob.length;
+		segment.put(blob);
+		used += blob.length;
+	}
+
+	private void release(final int index) {
+		wipe(segments.get(segmentIndex[index]), offsets[index], lengths[index]);
+		used -= lengths[index];
+		wasted += lengths[index];
+	}
+
+	/**
+	 * Copies the live records into fresh segments once half the arena is
+	 * taken up by released records.
+	 */
+	private void compactIfWasteful() {
+		if (wasted < MIN_SEGMENT_SIZE || wasted < used) {
+			return;
+		}
+		LOG.debug1("Compacting record arena, " + used + " bytes used, " + wasted + " wasted");
+		final List<ByteBuffer> old = new ArrayList<ByteBuffer>(segments);
+		segments.clear();
+		used = 0;
+		wasted = 0;
+		for (int i = 0; i < count; i++) {
+			final ByteBuffer source = old.get(segmentIndex[i]).duplicate();
+			source.limit(offsets[i] + lengths[i]);
+			source.position(offsets[i]);
+			final byte[] blob = new byte[lengths[i]];
+			source.get(blob);
+			store(i, blob);
+			Arrays.fill(blob, (byte) 0);
+		}
+		for (final ByteBuffer segment : old) {
+			wipe(segment, 0, segment.position());
+		}
+	}
+
+	private static void wipe(final ByteBuffer segment, final int offset, final int length) {
+		final ByteBuffer target = segment.duplicate();
+		target.position(offset);
+		int left = length;
+		while (left > 0) {
+			final int chunk = Math.min(left, ZEROS.length);
+			target.put(ZEROS, 0, chunk);
+			left -= chunk;
+		}
+	}
+}
@@ -0,0 +1,361 @@
+/*
+ * $Id:$
+ *
+ * Copyright (c) 2008-2014 David Muller <roxon@users.sourceforge.net>.
+ * All rights reserved. Use of the code is allowed under the
+ * Artistic License 2.0 terms, as specified in the LICENSE file
+ * distributed with this code, or available from
+ * http://www.opensource.org/licenses/artistic-license-2.0.php
+ */
+package org.pwsafe.lib.file;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import org.pwsafe.lib.UUID;
+import org.pwsafe.lib.Util;
+
+/**
+ * Compact binary form of a record, used to keep records encrypted in memory
+ * instead of Java serialization.
+ * <p>
+ * The layout is a record kind byte (the major file version), a flags byte and
+ * then per field a class tag byte, the field type, the value length and the
+ * value bytes. A length of -1 stands for a <code>null</code> value. Values
+ * are stored losslessly, i.e. strings as UTF-8 and times with milliseconds,
+ * which is not always the case for the file format encoding of a field.
+ */
+final class RecordCodec {
+
+	private static final int FLAG_LOADED = 1;
+	private static final int FLAG_MODIFIED = 2;
+	private static final int FLAG_IGNORE_TYPES = 4;
+
+	private static final byte STRING = 1;
+	private static final byte STRING_UNICODE = 2;
+	private static final byte INTEGER = 3;
+	private static final byte VERSION = 4;
+	private static final byte TIME = 5;
+	private static final byte UUID_FIELD = 6;
+	private static final byte UNKNOWN = 7;
+
+	private static final int RECORD_HEADER = 2;
+	private static final int FIELD_HEADER = 1 + 4 + 4;
+
+	private RecordCodec() {
+	}
+
+	/**
+	 * Encodes a record. The caller should wipe the result once it has been
+	 * encrypted.
+	 *
+	 * @param rec the record to encode
+	 * @return the encoded record
+	 */
+	static byte[] encode(final PwsRecord rec) {
+		final int count = rec.getFieldSlots().size();
+		final byte[] tags = new byte[count];
+		final int[] types = new int[count];
+		final byte[][] values = new byte[count][];
+
+		int size = RECORD_HEADER;
+		int i = 0;
+		for (final PwsField field : rec.getFieldSlots()) {
+			tags[i] = tagOf(field);
+			types[i] = field.getType();
+			values[i] = valueOf(tags[i], field);
+			size += FIELD_HEADER + (values[i] == null ? 0 : values[i].length);
+			i++;
+		}
+
+		final byte[] data = new byte[size];
+		final ByteBuffer out = ByteBuffer.wrap(data);
+		out.put(kindOf(rec));
+		out.put((byte) ((rec.isLoaded() ? FLAG_LOADED : 0) | (rec.isModified() ? FLAG_MODIFIED : 0)
+				| (rec.ignoreFieldTypes ? FLAG_IGNORE_TYPES : 0)));
+		for (i = 0; i < count; i++) {
+			out.put(tags[i]);
+			out.putInt(types[i]);
+			if (values[i] == null) {
+				out.putInt(-1);
+			} else {
+				out.putInt(values[i].length);
+				out.put(values[i]);
+				Arrays.fill(values[i], (byte) 0);
+			}
+		}
+		return data;
+	}
+
+	/**
+	 * Rebuilds a record from its encoded form.
+	 *
+	 * @param data the encoded record, as returned by {@link #encode(PwsRecord)}
+	 * @return the record
+	 * @throws IllegalArgumentException if <code>data</code> is malformed
+	 */
+	static PwsRecord decode(final byte[] data) {
+		return decode(data, null);
+	}
+
+	/**
+	 * Rebuilds a record holding only some of its fields. The values of the
+	 * other fields are skipped by their length, so they are never decoded.
+	 *
+	 * @param data the encoded record, as returned by {@link #encode(PwsRecord)}
+	 * @param wantedTypes whether a field type is wanted, indexed by type, or
+	 *        null for all fields
+	 * @return the record
+	 * @throws IllegalArgumentException if <code>data</code> is malformed
+	 */
+	static PwsRecord decode(final byte[] data, final boolean[] wantedTypes) {
+		final ByteBuffer in = ByteBuffer.wrap(data);
+		final byte kind = in.get();
+		final int flags = in.get();
+
+		final List<PwsField> fields = new ArrayList<PwsField>();
+		while (in.hasRemaining()) {
+			final byte tag = in.get();
+			final int type = in.getInt();
+			final int length = in.getInt();
+			if (wantedTypes != null && (type < 0 || type >= wantedTypes.length || !wantedTypes[type])) {
+				if (length > 0) {
+					in.position(in.position() + length);
+				}
+				continue;
+			}
+			byte[] value = null;
+			if (length >= 0) {
+				value = new byte[length];
+				in.get(value);
+			}
+			fields.add(newField(tag, type, value));
+			if (value != null) {
+				Arrays.fill(value, (byte) 0);
+			}
+		}
+
+		final PwsRecord rec;
+		switch (kind) {
+		case PwsFileV1.VERSION:
+			rec = new PwsRecordV1(fields);
+			break;
+		case PwsFileV2.VERSION:
+			rec = new PwsRecordV2(fields);
+			break;
+		case PwsFileV3.VERSION:
+			rec = new PwsRecordV3(fields);
+			break;
+		default:
+			throw new IllegalArgumentException("Unknown record kind " + kind);
+		}
+		rec.restoreState((flags & FLAG_LOADED) != 0, (flags & FLAG_MODIFIED) != 0,
+				(flags & FLAG_IGNORE_TYPES) != 0);
+		return rec;
+	}
+
+	/**
+	 * Copies a field, so that the copy shares no mutable value with it.
+	 *
+	 * @param field the field to copy
+	 * @return the copy
+	 */
+	static PwsField copy(final PwsField field) {
+		final byte tag = tagOf(field);
+		final byte[] value = valueOf(tag, field);
+		try {
+			return newField(tag, field.getType(), value);
+		} finally {
+			if (value != null) {
+				Arrays.fill(value, (byte) 0);
+			}
+		}
+	}
+
+	private static byte kindOf(final PwsRecord rec) {
+		if (rec instanceof PwsRecordV3) {
+			return PwsFileV3.VERSION;
+		} else if (rec instanceof PwsRecordV2) {
+			return PwsFileV2.VERSION;
+		} else if (rec instanceof PwsRecordV1) {
+			return PwsFileV1.VERSION;
+		}
+		throw new IllegalArgumentException("Unsupported record class " + rec.getClass().getName());
+	}
+
+	private static byte tagOf(final PwsField field) {
+		// exact classes, subclasses have their own encoding
+		final Class<?> cl = field.getClass();
+		if (cl == PwsStringUnicodeField.class) {
+			return STRING_UNICODE;
+		} else if (cl == PwsStringField.class) {
+			return STRING;
+		} else if (cl == PwsVersionField.class) {
+			return VERSION;
+		} else if (cl == PwsIntegerField.class) {
+			return INTEGER;
+		} else if (cl == PwsTimeField.class) {
+			return TIME;
+		} else if (cl == PwsUUIDField.class) {
+			return UUID_FIELD;
+		} else if (cl == PwsUnknownField.class) {
+			return UNKNOWN;
+		}
+		throw new IllegalArgumentException("Unsupported field class " + cl.getName());
+	}
+
+	private static byte[] valueOf(final byte tag, final PwsField field) {
+		final Object value = field.getValue();
+		if (value == null) {
+			return null;
+		}
+		switch (tag) {
+		case STRING:
+		case STRING_UNICODE:
+			return value.toString().getBytes(StandardCharsets.UTF_8);
+		case INTEGER:
+			final byte[] intBytes = new byte[4];
+			Util.putIntToByteArray(intBytes, ((Integer) value).intValue(), 0);
+			return intBytes;
+		case TIME:
+			return ByteBuffer.allocate(8).putLong(((Date) value).getTime()).array();
+		case UNKNOWN:
+			return Util.cloneByteArray((byte[]) value);
+		default:
+			return field.getBytes();
+		}
+	}
+
+	private static PwsField newField(final byte tag, final int type, final byte[] value) {
+		switch (tag) {
+		case STRING:
+			return new PwsStringField(type, value == null ? null : new String(value, StandardCharsets.UTF_8));
+		case STRING_UNICODE:
+			return new PwsStringUnicodeField(type, value == null ? null : new String(value,
+					StandardCharsets.UTF_8));
+		case INTEGER:
+			return new PwsIntegerField(type, value);
+		case VERSION:
+			return new PwsVersionField(type, value);
+		case TIME:
+			return new PwsTimeField(type, value == null ? null : new Date(ByteBuffer.wrap(value).getLong()));
+		case UUID_FIELD:
+			return new PwsUUIDField(type, value == null ? null : new UUID(value));
+		case UNKNOWN:
+			return new PwsUnknownField(type, value == null ? null : Util.cloneByteArray(value));
+		default:
+			throw new IllegalArgumentException("Unknown field tag " + tag);
+		}
+	}
+
+	/**
+	 * Returns the tag of a raw V3 field, matching the field class
+	 * {@link PwsRecordV3} creates for that type when it loads a record.
+	 */
+	private static byte rawV3Tag(final int type) {
+		switch (type) {
+		case PwsRecordV3.V3_ID_STRING:
+			return VERSION;
+		case PwsRecordV3.UUID:
+			return UUID_FIELD;
+		case PwsRecordV3.GROUP:
+		case PwsRecordV3.TITLE:
+		case PwsRecordV3.USERNAME:
+		case PwsRecordV3.NOTES:
+		case PwsRecordV3.PASSWORD:
+		case PwsRecordV3.PASSWORD_POLICY:
+		case PwsRecordV3.PASSWORD_HISTORY:
+		case PwsRecordV3.URL:
+		case PwsRecordV3.AUTOTYPE:
+			return STRING_UNICODE;
+		case PwsRecordV3.CREATION_TIME:
+		case PwsRecordV3.PASSWORD_MOD_TIME:
+		case PwsRecordV3.LAST_ACCESS_TIME:
+		case PwsRecordV3.LAST_MOD_TIME:
+		case PwsRecordV3.PASSWORD_LIFETIME:
+			return TIME;
+		default:
+			return UNKNOWN;
+		}
+	}
+
+	/**
+	 * Encodes a V3 record straight from the raw fields of the file, without
+	 * creating any field objects. The result decodes to the same record as
+	 * loading it through {@link PwsRecordV3} would give. An instance is meant
+	 * to be reused for all records of a file.
+	 */
+	static final class V3Builder {
+		private byte[] data = new byte[256];
+		private int length;
+
+		/**
+		 * Wipes the previous record and starts a new one.
+		 */
+		void start() {
+			wipe();
+			data[0] = PwsFileV3.VERSION;
+			data[1] = FLAG_LOADED;
+			length = RECORD_HEADER;
+		}
+
+		/**
+		 * Adds a field in its file encoding.
+		 *
+		 * @param type the field type
+		 * @param buf the buffer holding the field value
+		 * @param off the offset of the value
+		 * @param len the length of the value
+		 */
+		void addRawField(final int type, final byte[] buf, final int off, final int len) {
+			final byte tag = rawV3Tag(type);
+			final int valueLength = tag == TIME ? 8 : len;
+			ensureCapacity(length + FIELD_HEADER + valueLength);
+
+			final ByteBuffer out = ByteBuffer.wrap(data, length, FIELD_HEADER + valueLength);
+			out.put(tag);
+			out.putInt(type);
+			out.putInt(valueLength);
+			if (tag == TIME) {
+				out.putLong(Util.getMillisFromByteArray(buf, off));
+			} else {
+				out.put(buf, off, len);
+			}
+			length += FIELD_HEADER + valueLength;
+		}
+
+		/**
+		 * @return the buffer holding the encoded record
+		 */
+		byte[] getData() {
+			return data;
+		}
+
+		/**
+		 * @return the length of the encoded record
+		 */
+		int getLength() {
+			return length;
+		}
+
+		/**
+		 * Wipes the encoded record.
+		 */
+		void wipe() {
+			Arrays.fill(data, 0, length, (byte) 0);
+			length = 0;
+		}
+
+		private void ensureCapacity(final int capacity) {
+			if (capacity > data.length) {
+				final byte[] larger = Arrays.copyOf(data, Math.max(capacity, data.length * 2));
+				Arrays.fill(data, (byte) 0);
+				data = larger;
+			}
+		}
+	}
+}
@@ -0,0 +1,248 @@
+/*
+ * $Id:$
+ *
+ * Copyright (c) 2008-2014 David Muller <roxon@users.sourceforge.net>.
+ * All rights reserved. Use of the code is allowed under the
+ * Artistic License 2.0 terms, as specified in the LICENSE file
+ * distributed with this code, or available from
+ * http://www.opensource.org/licenses/artistic-license-2.0.php
+ */
+package org.pwsafe.lib.file;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.pwsafe.lib.Log;
+import org.pwsafe.lib.Util;
+import org.pwsafe.lib.crypto.HmacPws;
+import org.pwsafe.lib.exception.EndOfFileException;
+
+/**
+ * Reads the records of a V3 file in a single pass over the decrypted field
+ * stream.
+ * <p>
+ * Each field is decrypted into a reused buffer, added to the HMAC and
+ * appended to the encoded form of its record, which is sealed into the file
+ * at the end of the record. No {@link PwsField} or {@link PwsRecord} objects
+ * are created, unless a plain {@link PwsLoadListener} asks for records.
+ * {@link PwsFieldLoadListener}s only get the fields they want.
+ */
+final class RecordDecoderV3 {
+	private static final Log LOG = Log.getInstance(RecordDecoderV3.class.getPackage().getName());
+
+	/**
+	 * Number of value bytes held by the first block of a field.
+	 */
+	private static final int FIRST_BLOCK_DATA = 11;
+
+	private final PwsFileV3 file;
+	private final int blockSize;
+	private final byte[] block;
+	private byte[] field;
+	private int fieldType;
+	private int fieldLength;
+	private int fieldUsed;
+
+	private final RecordCodec.V3Builder builder = new RecordCodec.V3Builder();
+
+	RecordDecoderV3(final PwsFileV3 aFile) {
+		file = aFile;
+		blockSize = aFile.getBlockSize();
+		block = new byte[blockSize];
+		field = new byte[FIRST_BLOCK_DATA + 4 * blockSize];
+	}
+
+	/**
+	 * Reads all records up to the end of the record stream and verifies the
+	 * closing HMAC.
+	 *
+	 * @throws IOException If a read error occurs or the HMAC does not match.
+	 */
+	void readAll() throws IOException {
+		final List<PwsFieldLoadListener> fieldListeners = new ArrayList<PwsFieldLoadListener>();
+		final List<PwsLoadListener> recordListeners = new ArrayList<PwsLoadListener>();
+		splitListeners(file.getLoadListeners(), fieldListeners, recordListeners);
+
+		boolean allValid = true;
+		try {
+			for (;;) {
+				builder.start();
+				boolean valid = true;
+				for (;;) {
+					readField();
+					file.hasher.digest(field, 0, fieldLength);
+					if (fieldType == PwsRecordV3.END_OF_RECORD) {
+						wipeField();
+						break;
+					}
+					if (fieldType == PwsRecordV3.V3_ID_STRING) {
+						valid = false;
+					}
+					builder.addRawField(fieldType, field, 0, fieldLength);
+					for (final PwsFieldLoadListener listener : fieldListeners) {
+						if (listener.isFieldWanted(fieldType)) {
+							listener.fieldLoaded(fieldType, field, 0, fieldLength);
+						}
+					}
+					wipeField();
+				}
+
+				if (valid) {
+					file.addEncoded(builder.getData(), builder.getLength());
+				} else {
+					LOG.debug1("Ignoring record with a version field");
+					allValid = false;
+				}
+				for (final PwsFieldLoadListener listener : fieldListeners) {
+					listener.recordLoaded(valid);
+				}
+				if (!recordListeners.isEmpty()) {
+					final byte[] encoded = Arrays.copyOf(builder.getData(), builder.getLength());
+					final PwsRecord rec = RecordCodec.decode(encoded);
+					Arrays.fill(encoded, (byte) 0);
+					for (final PwsLoadListener listener : recordListeners) {
+						listener.loaded(rec);
+					}
+				}
+			}
+		} catch (final EndOfFileException e) {
+			final byte[] stored = readHmac();
+			if (stored != null) {
+				file.markAppendPoint(verifyHmac(file.hasher, stored));
+			}
+		} finally {
+			builder.wipe();
+			wipe();
+		}
+		// dropped records are only dropped from the storage by a full save
+		file.storedRecordCount = allValid ? file.sealedRecords.size() : -1;
+	}
+
+	/**
+	 * Sorts load listeners into those which take raw fields and those which
+	 * take records.
+	 *
+	 * @param listeners the listeners of the file
+	 * @param fieldListeners receives the field listeners
+	 * @param recordListeners receives the record listeners
+	 */
+	static void splitListeners(final List<PwsLoadListener> listeners,
+			final List<PwsFieldLoadListener> fieldListeners, final List<PwsLoadListener> recordListeners) {
+		for (final PwsLoadListener listener : listeners) {
+			if (listener instanceof PwsFieldLoadListener) {
+				fieldListeners.add((PwsFieldLoadListener) listener);
+			} else {
+				recordListeners.add(listener);
+			}
+		}
+	}
+
+	/**
+	 * Reads the next field, including the end of record marker, into the
+	 * field buffer. The field is neither hashed nor wiped.
+	 *
+	 * @throws EndOfFileException at the end of the record stream
+	 * @throws IOException
+	 */
+	void readField() throws EndOfFileException, IOException {
+		file.readDecryptedBytes(block, 0, blockSize);
+
+		fieldLength = Util.getIntFromByteArray(block, 0);
+		fieldType = block[4] & 0xff;
+		if (fieldLength < 0) {
+			throw new IOException("Invalid field length " + fieldLength);
+		}
+
+		int remaining = 0;
+		if (fieldLength > FIRST_BLOCK_DATA) {
+			// round up to whole blocks, the last one holds padding
+			remaining = ((fieldLength - FIRST_BLOCK_DATA + blockSize - 1) / blockSize) * blockSize;
+		}
+		fieldUsed = FIRST_BLOCK_DATA + remaining;
+		if (fieldUsed > field.length) {
+			Arrays.fill(field, (byte) 0);
+			field = new byte[Math.max(fieldUsed, field.length * 2)];
+		}
+		System.arraycopy(block, 5, field, 0, FIRST_BLOCK_DATA);
+		Arrays.fill(block, (byte) 0);
+		if (remaining > 0) {
+			file.readDecryptedBytes(field, FIRST_BLOCK_DATA, remaining);
+		}
+	}
+
+	/**
+	 * @return the type of the field last read
+	 */
+	int getFieldType() {
+		return fieldType;
+	}
+
+	/**
+	 * @return the value length of the field last read
+	 */
+	int getFieldLength() {
+		return fieldLength;
+	}
+
+	/**
+	 * @return the buffer holding the value of the field last read, starting
+	 *         at offset 0
+	 */
+	byte[] getField() {
+		return field;
+	}
+
+	/**
+	 * Overwrites the field last read.
+	 */
+	void wipeField() {
+		Arrays.fill(field, 0, fieldUsed, (byte) 0);
+	}
+
+	/**
+	 * Overwrites all buffers.
+	 */
+	void wipe() {
+		Arrays.fill(field, (byte) 0);
+		Arrays.fill(block, (byte) 0);
+	}
+
+	/**
+	 * Reads the HMAC following the end of the record stream.
+	 *
+	 * @return the stored HMAC, or <code>null</code> if the file ends without
+	 *         one, which is not checked just like in earlier releases
+	 * @throws IOException if it can't be read
+	 */
+	byte[] readHmac() throws IOException {
+		final byte[] data = new byte[32];
+		try {
+			file.readBytes(data);
+		} catch (final EndOfFileException e) {
+			LOG.warn("No HMAC record found");
+			return null;
+		}
+		return data;
+	}
+
+	/**
+	 * Checks the stored HMAC against the one of all fields read.
+	 *
+	 * @param hasher the HMAC over all fields read
+	 * @param stored the stored HMAC
+	 * @return the state of <code>hasher</code> before it was finished, to
+	 *         continue with on an append
+	 * @throws IOException if the HMACs don't match
+	 */
+	static HmacPws verifyHmac(final HmacPws hasher, final byte[] stored) throws IOException {
+		final HmacPws state = hasher.copy();
+		final byte[] hash = hasher.doFinal();
+		if (!Util.bytesAreEqual(stored, hash)) {
+			LOG.error("HMAC record did not match. File may have been tampered");
+			throw new IOException("HMAC record did not match. File has been tampered");
+		}
+		return state;
+	}
+}
@@ -0,0 +1,441 @@
+/*
+ * $Id:$
+ *
+ * Copyright (c) 2008-2014 David Muller <roxon@users.sourceforge.net>.
+ * All rights reserved. Use of the code is allowed under the
+ * Artistic License 2.0 terms, as specified in the LICENSE file
+ * distributed with this code, or available from
+ * http://www.opensource.org/licenses/artistic-license-2.0.php
+ */
+package org.pwsafe.lib.file;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.crypto.Cipher;
+
+import org.pwsafe.lib.Log;
+import org.pwsafe.lib.Util;
+import org.pwsafe.lib.crypto.HmacPws;
+import org.pwsafe.lib.exception.EndOfFileException;
+
+/**
+ * Reads the records of a V3 file in stages running on separate threads.
+ * <p>
+ * A reader thread reads and decrypts the field stream and cuts it into raw
+ * records. Each one goes to the HMAC thread, which hashes all fields in file
+ * order, and to a pool of workers, which encode and seal it. The calling
+ * thread takes the records back in file order, adds them to the file and
+ * notifies the load listeners. The stages are connected by bounded queues,
+ * so at most {@link #QUEUE_CAPACITY} records are in flight. The closing HMAC
+ * is checked before {@link #readAll()} returns, just like on a sequential
+ * load, which {@link RecordDecoderV3} does.
+ */
+final class RecordPipelineV3 {
+	private static final Log LOG = Log.getInstance(RecordPipelineV3.class.getPackage().getName());
+
+	/**
+	 * Number of records buffered between two stages.
+	 */
+	static final int QUEUE_CAPACITY = 64;
+
+	/**
+	 * Field type byte and value length preceding each value in a raw record.
+	 */
+	private static final int FIELD_HEADER = 1 + 4;
+
+	private final PwsFileV3 file;
+	private final int workerCount;
+
+	private final BlockingQueue<RawRecord> hmacQueue = new ArrayBlockingQueue<RawRecord>(QUEUE_CAPACITY);
+	private final BlockingQueue<RawRecord> orderQueue = new ArrayBlockingQueue<RawRecord>(QUEUE_CAPACITY);
+
+	/**
+	 * @param aFile the file to read, positioned behind the header record
+	 * @param workers the number of threads encoding and sealing records
+	 */
+	RecordPipelineV3(final PwsFileV3 aFile, final int workers) {
+		file = aFile;
+		workerCount = workers;
+	}
+
+	/**
+	 * Reads all records up to the end of the record stream and verifies the
+	 * closing HMAC.
+	 *
+	 * @throws IOException If a read error occurs or the HMAC does not match.
+	 */
+	void readAll() throws IOException {
+		final List<PwsFieldLoadListener> fieldListeners = new ArrayList<PwsFieldLoadListener>();
+		final List<PwsLoadListener> recordListeners = new ArrayList<PwsLoadListener>();
+		RecordDecoderV3.splitListeners(file.getLoadListeners(), fieldListeners, recordListeners);
+
+		final ExecutorService stages = Executors.newFixedThreadPool(2, new LoaderThreadFactory("stage"));
+		final ExecutorService workers = Executors.newFixedThreadPool(workerCount,
+				new LoaderThreadFactory("worker"));
+		boolean allValid = true;
+		try {
+			final Future<Void> reader = stages.submit(new Reader(workers));
+			final Future<HmacPws> hmac = stages.submit(new HmacStage());
+
+			final RecordCodec.V3Builder builder = new RecordCodec.V3Builder();
+			for (;;) {
+				final RawRecord rec = take(orderQueue);
+				if (rec.isEnd()) {
+					break;
+				}
+				try {
+					if (rec.valid) {
+						file.sealedRecords.add(await(rec.sealed));
+					} else {
+						LOG.debug1("Ignoring record with a version field");
+						allValid = false;
+					}
+					notifyListeners(rec, fieldListeners, recordListeners, builder);
+				} finally {
+					rec.release();
+				}
+			}
+			builder.wipe();
+
+			await(reader);
+			final HmacPws state = await(hmac);
+			if (state != null) {
+				file.markAppendPoint(state);
+			}
+		} finally {
+			stop(stages);
+			stop(workers);
+			for (final RawRecord rec : hmacQueue) {
+				rec.wipe();
+			}
+			for (final RawRecord rec : orderQueue) {
+				rec.wipe();
+			}
+		}
+		// dropped records are only dropped from the storage by a full save
+		file.storedRecordCount = allValid ? file.sealedRecords.size() : -1;
+	}
+
+	private void notifyListeners(final RawRecord rec, final List<PwsFieldLoadListener> fieldListeners,
+			final List<PwsLoadListener> recordListeners, final RecordCodec.V3Builder builder) {
+		if (!fieldListeners.isEmpty()) {
+			for (int pos = 0; pos < rec.data.length;) {
+				final int type = rec.data[pos] & 0xff;
+				final int length = Util.getIntFromByteArray(rec.data, pos + 1);
+				if (type != PwsRecordV3.END_OF_RECORD) {
+					for (final PwsFieldLoadListener listener : fieldListeners) {
+						if (listener.isFieldWanted(type)) {
+							listener.fieldLoaded(type, rec.data, pos + FIELD_HEADER, length);
+						}
+					}
+				}
+				pos += FIELD_HEADER + length;
+			}
+			for (final PwsFieldLoadListener listener : fieldListeners) {
+				listener.recordLoaded(rec.valid);
+			}
+		}
+		if (!recordListeners.isEmpty()) {
+			encode(rec, builder);
+			final byte[] encoded = Arrays.copyOf(builder.getData(), builder.getLength());
+			builder.wipe();
+			final PwsRecord record = RecordCodec.decode(encoded);
+			Arrays.fill(encoded, (byte) 0);
+			for (final PwsLoadListener listener : recordListeners) {
+				listener.loaded(record);
+			}
+		}
+	}
+
+	/**
+	 * Encodes all fields of a raw record but the end of record marker.
+	 */
+	private static void encode(final RawRecord rec, final RecordCodec.V3Builder builder) {
+		builder.start();
+		for (int pos = 0; pos < rec.data.length;) {
+			final int type = rec.data[pos] & 0xff;
+			final int length = Util.getIntFromByteArray(rec.data, pos + 1);
+			if (type != PwsRecordV3.END_OF_RECORD) {
+				builder.addRawField(type, rec.data, pos + FIELD_HEADER, length);
+			}
+			pos += FIELD_HEADER + length;
+		}
+	}
+
+	private static RawRecord take(final BlockingQueue<RawRecord> queue) throws InterruptedIOException {
+		try {
+			return queue.take();
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Loading was interrupted");
+		}
+	}
+
+	/**
+	 * Waits for the result of a stage and rethrows its failure.
+	 */
+	private static <T> T await(final Future<T> future) throws IOException {
+		try {
+			return future.get();
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Loading was interrupted");
+		} catch (final ExecutionException e) {
+			final Throwable cause = e.getCause();
+			if (cause instanceof IOException) {
+				throw (IOException) cause;
+			} else if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			} else if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+			throw new IOException(cause);
+		}
+	}
+
+	/**
+	 * Stops a stage and waits for it, so that no thread touches the file
+	 * after the load has ended. A cancelled load interrupts the calling
+	 * thread, so its interrupt status is cleared while waiting and restored
+	 * afterwards.
+	 */
+	private static void stop(final ExecutorService service) {
+		service.shutdownNow();
+		boolean interrupted = Thread.interrupted();
+		final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+		try {
+			for (;;) {
+				try {
+					if (!service.awaitTermination(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+						LOG.warn("Loader threads did not stop");
+					}
+					return;
+				} catch (final InterruptedException e) {
+					interrupted = true;
+				}
+			}
+		} finally {
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/**
+	 * The fields of a record as read from the file, each one as its type
+	 * byte, value length and value, including the end of record marker. It
+	 * is wiped once both the HMAC stage and the calling thread are done with
+	 * it.
+	 */
+	private static final class RawRecord {
+		final byte[] data;
+		final boolean valid;
+		private final boolean end;
+		Future<byte[]> sealed;
+		private final AtomicInteger users = new AtomicInteger(2);
+
+		RawRecord(final byte[] aData, final boolean isValid) {
+			this(aData, isValid, false);
+		}
+
+		private RawRecord(final byte[] aData, final boolean isValid, final boolean isEnd) {
+			data = aData;
+			valid = isValid;
+			end = isEnd;
+		}
+
+		/**
+		 * Creates the marker following the last record.
+		 *
+		 * @param hmac the stored HMAC or <code>null</code>
+		 * @return the end marker
+		 */
+		static RawRecord end(final byte[] hmac) {
+			return new RawRecord(hmac, false, true);
+		}
+
+		/**
+		 * @return whether this marks the end of the record stream, in which
+		 *         case <code>data</code> holds the stored HMAC, if any
+		 */
+		boolean isEnd() {
+			return end;
+		}
+
+		void release() {
+			if (users.decrementAndGet() == 0) {
+				wipe();
+			}
+		}
+
+		void wipe() {
+			if (data != null) {
+				Arrays.fill(data, (byte) 0);
+			}
+		}
+	}
+
+	/**
+	 * First stage, reads raw records and hands them to the other stages.
+	 */
+	private final class Reader implements Callable<Void> {
+		private final ExecutorService workers;
+		private byte[] staging = new byte[1024];
+
+		Reader(final ExecutorService aWorkers) {
+			workers = aWorkers;
+		}
+
+		public Void call() throws IOException, InterruptedException {
+			final RecordDecoderV3 decoder = new RecordDecoderV3(file);
+			byte[] stored = null;
+			try {
+				for (;;) {
+					final RawRecord rec = readRecord(decoder);
+					if (rec.valid) {
+						rec.sealed = workers.submit(new SealTask(rec));
+					}
+					hmacQueue.put(rec);
+					orderQueue.put(rec);
+				}
+			} catch (final EndOfFileException e) {
+				stored = decoder.readHmac();
+			} finally {
+				decoder.wipe();
+				Arrays.fill(staging, (byte) 0);
+				// let the other stages finish, unless the load is cancelled
+				if (!Thread.currentThread().isInterrupted()) {
+					final RawRecord end = RawRecord.end(stored);
+					hmacQueue.put(end);
+					orderQueue.put(end);
+				}
+			}
+			return null;
+		}
+
+		private RawRecord readRecord(final RecordDecoderV3 decoder) throws EndOfFileException,
+				IOException {
+			int length = 0;
+			boolean valid = true;
+			int type;
+			do {
+				decoder.readField();
+				type = decoder.getFieldType();
+				final int fieldLength = decoder.getFieldLength();
+				if (length + FIELD_HEADER + fieldLength > staging.length) {
+					final byte[] larger = Arrays.copyOf(staging, Math.max(length + FIELD_HEADER
+							+ fieldLength, staging.length * 2));
+					Arrays.fill(staging, (byte) 0);
+					staging = larger;
+				}
+				staging[length] = (byte) type;
+				Util.putIntToByteArray(staging, fieldLength, length + 1);
+				System.arraycopy(decoder.getField(), 0, staging, length + FIELD_HEADER, fieldLength);
+				decoder.wipeField();
+				length += FIELD_HEADER + fieldLength;
+				if (type == PwsRecordV3.V3_ID_STRING) {
+					valid = false;
+				}
+			} while (type != PwsRecordV3.END_OF_RECORD);
+
+			final RawRecord rec = new RawRecord(Arrays.copyOf(staging, length), valid);
+			Arrays.fill(staging, 0, length, (byte) 0);
+			return rec;
+		}
+	}
+
+	/**
+	 * Second stage, hashes the fields of all records in file order and
+	 * checks the result against the stored HMAC.
+	 */
+	private final class HmacStage implements Callable<HmacPws> {
+		public HmacPws call() throws IOException, InterruptedException {
+			for (;;) {
+				final RawRecord rec = hmacQueue.take();
+				if (rec.isEnd()) {
+					if (rec.data == null) {
+						// no HMAC or the reader failed, which it reports itself
+						return null;
+					}
+					return RecordDecoderV3.verifyHmac(file.hasher, rec.data);
+				}
+				for (int pos = 0; pos < rec.data.length;) {
+					final int length = Util.getIntFromByteArray(rec.data, pos + 1);
+					file.hasher.digest(rec.data, pos + FIELD_HEADER, length);
+					pos += FIELD_HEADER + length;
+				}
+				rec.release();
+			}
+		}
+	}
+
+	/**
+	 * The encoder and sealing cipher of each worker thread.
+	 */
+	private final ThreadLocal<WorkerState> workerState = new ThreadLocal<WorkerState>() {
+		@Override
+		protected WorkerState initialValue() {
+			return new WorkerState(file.newSealCipher());
+		}
+	};
+
+	private static final class WorkerState {
+		final RecordCodec.V3Builder builder = new RecordCodec.V3Builder();
+		final Cipher cipher;
+
+		WorkerState(final Cipher aCipher) {
+			cipher = aCipher;
+		}
+	}
+
+	/**
+	 * Third stage, encodes and seals a record on a worker thread.
+	 */
+	private final class SealTask implements Callable<byte[]> {
+		private final RawRecord rec;
+
+		SealTask(final RawRecord aRec) {
+			rec = aRec;
+		}
+
+		public byte[] call() {
+			final WorkerState state = workerState.get();
+			final RecordCodec.V3Builder builder = state.builder;
+			try {
+				encode(rec, builder);
+				return PwsFile.sealEncoded(builder.getData(), builder.getLength(), state.cipher);
+			} finally {
+				builder.wipe();
+			}
+		}
+	}
+
+	private static final class LoaderThreadFactory implements ThreadFactory {
+		private final String role;
+		private final AtomicInteger count = new AtomicInteger();
+
+		LoaderThreadFactory(final String aRole) {
+			role = aRole;
+		}
+
+		public Thread newThread(final Runnable r) {
+			final Thread thread = new Thread(r, "PwsFile loader " + role + " " + count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+}
@@ -239,4 +239,21 @@ public class UtilTest extends TestCase {
 		assertEquals(a[0], b[0]);
 	}
 
+	public void testNormalizeForSearch() {
+		assertNull(Util.normalizeForSearch(null));
+		final String plain = "abc 123";
+		assertSame(plain, Util.normalizeForSearch(plain));
+		assertEquals("abc", Util.normalizeForSearch("ABC"));
+		assertEquals("rene", Util.normalizeForSearch("Ren\u00e9"));
+		assertEquals("rene", Util.normalizeForSearch("RENE"));
+		assertEquals("uber cafe", Util.normalizeForSearch("\u00dcber Cafe\u0301"));
+	}
+
+	public void testGetSortKey() {
+		assertEquals(0, Util.getSortKey("Ren\u00e9").compareTo(Util.getSortKey("rene")));
+		assertEquals(0, Util.getSortKey(null).compareTo(Util.getSortKey("")));
+		assertTrue(Util.getSortKey("apple").compareTo(Util.getSortKey("Banana")) < 0);
+		assertTrue(Util.getSortKey("\u00e9t\u00e9").compareTo(Util.getSortKey("f")) < 0);
+	}
+
 }
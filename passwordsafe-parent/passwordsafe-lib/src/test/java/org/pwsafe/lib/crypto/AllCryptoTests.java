@@ -20,6 +20,7 @@ public class AllCryptoTests {
 		suite.addTestSuite(TwofishPwsTest.class);
 		suite.addTestSuite(HmacPwsTest.class);
 		suite.addTestSuite(SHA256PwsTest.class);
+		suite.addTestSuite(KeyStretcherTest.class);
 		// $JUnit-END$
 		return suite;
 	}
@@ -1,5 +1,7 @@
 package org.pwsafe.lib.crypto;
 
+import java.nio.ByteBuffer;
+
 import junit.framework.TestCase;
 
 import org.bouncycastle.crypto.engines.BlowfishEngine;
@@ -242,6 +244,34 @@ public class BlowfishPwsTest extends TestCase {
 		assertEquals(Util.bytesToHex(tv_p2b), Util.bytesToHex(tv_t2b));
 	}
 
+	public void testBulkMatchesInPlace() throws PasswordSafeException {
+		final byte[] plain = Util.allocateByteArray(8 * 7);
+		final byte[] iv = Util.allocateByteArray(8);
+
+		final byte[] expected = Util.cloneByteArray(plain);
+		new BlowfishPws(k16, iv).encrypt(expected);
+
+		final byte[] cipher = new byte[plain.length + 5];
+		new BlowfishPws(k16, iv).encrypt(plain, 0, cipher, 5, plain.length);
+		assertEquals(Util.bytesToHex(expected), Util.bytesToHex(Util.getBytes(cipher, 5,
+				plain.length)));
+
+		final ByteBuffer direct = ByteBuffer.allocateDirect(plain.length);
+		assertEquals(plain.length, new BlowfishPws(k16, iv).decrypt(ByteBuffer.wrap(expected),
+				direct));
+		direct.flip();
+		final byte[] decrypted = new byte[plain.length];
+		direct.get(decrypted);
+		assertEquals(Util.bytesToHex(plain), Util.bytesToHex(decrypted));
+
+		// ECB keeps its big endian block order in the bulk calls too
+		final byte[] ecb = Util.cloneByteArray(plain);
+		new BlowfishPwsECB(k16).encrypt(ecb);
+		final byte[] ecbBulk = new byte[plain.length];
+		new BlowfishPwsECB(k16).encrypt(plain, 0, ecbBulk, 0, plain.length);
+		assertEquals(Util.bytesToHex(ecb), Util.bytesToHex(ecbBulk));
+	}
+
 	public byte[] convert(int[] v) {
 		final byte[] b = new byte[v.length * 4];
 
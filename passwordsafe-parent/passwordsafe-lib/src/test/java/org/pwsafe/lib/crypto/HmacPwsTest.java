@@ -7,6 +7,8 @@
  */
 package org.pwsafe.lib.crypto;
 
+import java.util.Arrays;
+
 import junit.framework.TestCase;
 
 import org.pwsafe.lib.Util;
@@ -31,4 +33,31 @@ public class HmacPwsTest extends TestCase {
 
 	}
 
+	public void testLongKey() {
+		// RFC 4231 test case 6, key longer than the block size
+		final byte[] key = new byte[131];
+		Arrays.fill(key, (byte) 0xaa);
+		final HmacPws hash = new HmacPws(key);
+		hash.digest("Test Using Larger Than Block-Size Key - Hash Key First".getBytes());
+
+		assertEquals("60e431591ee0b67f0d8a26aacbf5b77f8e0bc6213728c5140546040f0ee37f54",
+				Util.bytesToHex(hash.doFinal()));
+	}
+
+	public void testCopy() {
+		final HmacPws hash = new HmacPws("Jefe".getBytes());
+		hash.digest("what do ya want ".getBytes());
+		final HmacPws copy = hash.copy();
+
+		hash.digest("for nothing?".getBytes());
+		copy.digest("for nothing?".getBytes());
+		final String expected = "5bdcc146bf60754e6a042426089575c75a003f089d2739839dec58b964ec3843";
+		assertEquals(expected, Util.bytesToHex(hash.doFinal()));
+		assertEquals(expected, Util.bytesToHex(copy.doFinal()));
+
+		// doFinal starts over
+		hash.digest("what do ya want for nothing?".getBytes());
+		assertEquals(expected, Util.bytesToHex(hash.doFinal()));
+	}
+
 }
@@ -0,0 +1,66 @@
+/*
+ * Copyright (c) 2008-2014 David Muller <roxon@users.sourceforge.net>.
+ * All rights reserved. Use of the code is allowed under the
+ * Artistic License 2.0 terms, as specified in the LICENSE file
+ * distributed with this code, or available from
+ * http://www.opensource.org/licenses/artistic-license-2.0.php
+ */
+package org.pwsafe.lib.crypto;
+
+import junit.framework.TestCase;
+
+import org.pwsafe.lib.Util;
+
+/**
+ * Test the key stretching engine against the plain SHA256Pws loop.
+ */
+public class KeyStretcherTest extends TestCase {
+
+	private static byte[] referenceStretch(final byte[] passphrase, final byte[] salt, final int iter) {
+		final SHA256Pws hasher = new SHA256Pws();
+		byte[] hash = hasher.digest(Util.mergeBytes(passphrase, salt));
+		for (int i = 0; i < iter; i++) {
+			hash = hasher.digest(hash);
+		}
+		return hash;
+	}
+
+	public void testMatchesReference() {
+		final byte[] passphrase = "Pa$$word".getBytes();
+		final byte[] salt = Util.allocateByteArray(32);
+
+		final String expected = Util.bytesToHex(referenceStretch(passphrase, salt, 2048));
+
+		assertEquals(expected, Util.bytesToHex(KeyStretcher.getInstance().stretch(passphrase, salt, 2048)));
+		assertEquals(expected, Util.bytesToHex(new KeyStretcher.BouncyCastleStretcher().stretch(passphrase,
+				salt, 2048)));
+		assertEquals(expected, Util.bytesToHex(Util.stretchPassphrase(passphrase, salt, 2048)));
+	}
+
+	public void testInterruptible() throws InterruptedException {
+		final byte[] passphrase = "Pa$$word".getBytes();
+		final byte[] salt = Util.allocateByteArray(32);
+
+		assertEquals(Util.bytesToHex(referenceStretch(passphrase, salt, 5000)),
+				Util.bytesToHex(KeyStretcher.getInstance().stretchInterruptibly(passphrase, salt, 5000)));
+
+		Thread.currentThread().interrupt();
+		try {
+			KeyStretcher.getInstance().stretchInterruptibly(passphrase, salt, 5000);
+			fail("interrupt ignored");
+		} catch (final InterruptedException e) {
+			// ok, and the flag is cleared
+			assertFalse(Thread.currentThread().isInterrupted());
+		}
+	}
+
+	public void testZeroIterations() {
+		final byte[] passphrase = "abc".getBytes();
+		final byte[] salt = new byte[0];
+
+		// no extra rounds is a plain SHA-256
+		assertEquals("ba7816bf8f01cfea414140de5dae2223b00361a396177a9cb410ff61f20015ad",
+				Util.bytesToHex(KeyStretcher.getInstance().stretch(passphrase, salt, 0)));
+	}
+
+}
@@ -7,6 +7,8 @@
  */
 package org.pwsafe.lib.crypto;
 
+import java.nio.ByteBuffer;
+
 import junit.framework.TestCase;
 
 import org.pwsafe.lib.Util;
@@ -111,4 +113,69 @@ public class TwofishPwsTest extends TestCase {
 
 	}
 
+	/**
+	 * Tests the bulk CBC decryption against block by block decryption, for a
+	 * range large enough to be split up.
+	 * 
+	 * @throws Exception if bad things happen
+	 */
+	public void testDecryptCBC() throws Exception {
+		final byte[] key = Util.allocateByteArray(32);
+		final byte[] iv = Util.allocateByteArray(16);
+		final byte[] plain = Util.allocateByteArray(TwofishPws.PARALLEL_CHUNK * 3 + 16 * 5);
+
+		final TwofishPws encrypter = new TwofishPws(key, true, iv);
+		final byte[] cipher = new byte[plain.length + 16];
+		for (int i = 0; i < plain.length; i += 16) {
+			System.arraycopy(encrypter.processCBC(Util.getBytes(plain, i, 16)), 0, cipher, i + 16, 16);
+		}
+
+		final byte[] decrypted = new byte[plain.length];
+		TwofishPws.decryptCBC(key, iv, cipher, 16, plain.length, decrypted, 0);
+
+		assertEquals(Util.bytesToHex(plain), Util.bytesToHex(decrypted));
+	}
+
+	/**
+	 * Tests the bulk CBC calls against block by block processing, on arrays,
+	 * in place and on direct buffers.
+	 * 
+	 * @throws Exception if bad things happen
+	 */
+	public void testBulkProcess() throws Exception {
+		final byte[] key = Util.allocateByteArray(32);
+		final byte[] iv = Util.allocateByteArray(16);
+		final byte[] plain = Util.allocateByteArray(16 * 9);
+
+		final TwofishPws blockwise = new TwofishPws(key, true, iv);
+		final byte[] expected = new byte[plain.length];
+		for (int i = 0; i < plain.length; i += 16) {
+			System.arraycopy(blockwise.processCBC(Util.getBytes(plain, i, 16)), 0, expected, i, 16);
+		}
+
+		final byte[] cipher = new byte[plain.length + 3];
+		new TwofishPws(key, true, iv).process(plain, 0, cipher, 3, plain.length);
+		assertEquals(Util.bytesToHex(expected), Util.bytesToHex(Util.getBytes(cipher, 3,
+				plain.length)));
+
+		final ByteBuffer direct = ByteBuffer.allocateDirect(plain.length);
+		assertEquals(plain.length, new TwofishPws(key, true, iv).process(ByteBuffer.wrap(plain),
+				direct));
+		direct.flip();
+		final byte[] fromDirect = new byte[plain.length];
+		direct.get(fromDirect);
+		assertEquals(Util.bytesToHex(expected), Util.bytesToHex(fromDirect));
+
+		final byte[] inPlace = Util.cloneByteArray(expected);
+		new TwofishPws(key, false, iv).process(inPlace, 0, inPlace, 0, inPlace.length);
+		assertEquals(Util.bytesToHex(plain), Util.bytesToHex(inPlace));
+
+		try {
+			new TwofishPws(key, false, iv).process(plain, 0, inPlace, 0, 15);
+			fail("partial block accepted");
+		} catch (final IllegalArgumentException e) {
+			// expected
+		}
+	}
+
 }
@@ -18,6 +18,8 @@ public class AllDataStoreTests {
 		// $JUnit-BEGIN$
 		suite.addTestSuite(TestSparseRecords.class);
 		suite.addTestSuite(PwsEntryStoreTest.class);
+		suite.addTestSuite(UuidIndexTest.class);
+		suite.addTestSuite(TrigramIndexTest.class);
 		// $JUnit-END$
 		return suite;
 	}
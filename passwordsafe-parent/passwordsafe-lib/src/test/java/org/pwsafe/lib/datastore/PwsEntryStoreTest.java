@@ -10,10 +10,16 @@ package org.pwsafe.lib.datastore;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 
 import junit.framework.TestCase;
 
+import org.pwsafe.lib.file.PwsFieldType;
 import org.pwsafe.lib.file.PwsFieldTypeV3;
 import org.pwsafe.lib.file.PwsFileFactory;
 import org.pwsafe.lib.file.PwsFileStorage;
@@ -149,4 +155,112 @@ public class PwsEntryStoreTest extends TestCase {
 		assertEquals("fromPassword", aRecord.getField(PwsFieldTypeV3.PASSWORD).toString());
 	}
 
+	public void testStoreEvents() throws Exception {
+		final List<PwsEntryStoreEvent> events = new ArrayList<PwsEntryStoreEvent>();
+		final PwsEntryStoreListener listener = new PwsEntryStoreListener() {
+			public void storeChanged(final PwsEntryStoreEvent anEvent) {
+				events.add(anEvent);
+			}
+		};
+		entryStore.addStoreListener(listener);
+
+		PwsEntryBean entry = new PwsEntryBean();
+		entry.setGroup("group");
+		entry.setTitle("title");
+		entry.setSparse(false);
+		entryStore.addEntry(entry);
+		assertEquals(1, events.size());
+		assertEquals(PwsEntryStoreEvent.Type.ADDED, events.get(0).getType());
+		final PwsEntryBean added = events.get(0).getEntry();
+		assertSame(entryStore.getSparseEntries().get(0), added);
+		assertNull(events.get(0).getOldEntry());
+
+		entry = entryStore.getEntry(0);
+		entry.setTitle("new title");
+		entryStore.updateEntry(entry);
+		assertEquals(2, events.size());
+		assertEquals(PwsEntryStoreEvent.Type.UPDATED, events.get(1).getType());
+		assertSame(added, events.get(1).getOldEntry());
+		final PwsEntryBean updated = events.get(1).getEntry();
+		assertSame(entryStore.getSparseEntries().get(0), updated);
+		assertEquals("new title", updated.getTitle());
+
+		entry = entryStore.getEntry(0);
+		entry.setGroup("other.group");
+		entryStore.updateEntry(entry);
+		assertEquals(3, events.size());
+		assertEquals(PwsEntryStoreEvent.Type.MOVED, events.get(2).getType());
+		assertSame(updated, events.get(2).getOldEntry());
+
+		final PwsEntryBean moved = events.get(2).getEntry();
+		entryStore.removeEntry(moved);
+		assertEquals(4, events.size());
+		assertEquals(PwsEntryStoreEvent.Type.REMOVED, events.get(3).getType());
+		assertSame(moved, events.get(3).getEntry());
+
+		entryStore.clear();
+		assertEquals(5, events.size());
+		assertEquals(PwsEntryStoreEvent.Type.REFRESHED, events.get(4).getType());
+		assertSame(entryStore, events.get(4).getStore());
+
+		entryStore.removeStoreListener(listener);
+		entryStore.clear();
+		assertEquals(5, events.size());
+	}
+
+	public void testSetSparseFields() throws Exception {
+		PwsEntryBean entry = new PwsEntryBean();
+		entry.setGroup("group");
+		entry.setTitle("title");
+		entry.setNotes("some notes");
+		entry.setPassword(new StringBuilder("secret"));
+		final Date created = new Date();
+		entry.setCreated(created);
+		entry.setSparse(false);
+		entryStore.addEntry(entry);
+
+		final PwsEntryBean sparse = entryStore.getSparseEntries().get(0);
+		assertEquals("some notes", sparse.getNotes());
+		assertNull(sparse.getCreated());
+		assertNull(sparse.getPassword());
+
+		final List<PwsEntryStoreEvent> events = new ArrayList<PwsEntryStoreEvent>();
+		entryStore.addStoreListener(new PwsEntryStoreListener() {
+			public void storeChanged(final PwsEntryStoreEvent anEvent) {
+				events.add(anEvent);
+			}
+		});
+
+		// shrinking drops the notes and widening adds the creation time
+		final Set<PwsFieldType> fields = new HashSet<PwsFieldType>(Arrays.asList(
+				PwsFieldTypeV3.GROUP, PwsFieldTypeV3.TITLE, PwsFieldTypeV3.CREATION_TIME));
+		entryStore.setSparseFields(fields);
+		assertSame(sparse, entryStore.getSparseEntries().get(0));
+		assertNull(sparse.getNotes());
+		assertEquals(created, sparse.getCreated());
+		assertNull(sparse.getPassword());
+		assertEquals("title", sparse.getTitle());
+		assertTrue(entryStore.findEntries("some").isEmpty());
+		assertEquals(1, entryStore.findEntries("title").size());
+		assertSame(sparse, entryStore.getGroupTree().find("group").getEntries().get(0));
+		assertEquals(1, events.size());
+		assertEquals(PwsEntryStoreEvent.Type.REFRESHED, events.get(0).getType());
+
+		fields.add(PwsFieldTypeV3.NOTES);
+		entryStore.setSparseFields(fields);
+		assertSame(sparse, entryStore.getSparseEntries().get(0));
+		assertEquals("some notes", sparse.getNotes());
+		assertEquals(created, sparse.getCreated());
+		assertSame(sparse, entryStore.findEntries("some").get(0));
+		assertEquals(2, events.size());
+
+		// an unchanged set leaves the entries alone
+		entryStore.setSparseFields(new HashSet<PwsFieldType>(fields));
+		assertEquals(2, events.size());
+
+		entry = entryStore.getEntry(0);
+		assertEquals("secret", entry.getPassword().toString());
+		assertEquals("some notes", entry.getNotes());
+	}
+
 }
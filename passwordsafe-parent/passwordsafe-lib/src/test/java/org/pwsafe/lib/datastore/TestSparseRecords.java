@@ -10,10 +10,15 @@ package org.pwsafe.lib.datastore;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.EnumSet;
 import java.util.List;
+import java.util.Set;
 
 import junit.framework.TestCase;
 
+import org.pwsafe.lib.UUID;
+import org.pwsafe.lib.file.PwsFieldTypeV3;
+import org.pwsafe.lib.file.PwsFileFactory;
 import org.pwsafe.lib.file.PwsFileV3;
 import org.pwsafe.lib.file.TestUtils;
 
@@ -41,6 +46,7 @@ public class TestSparseRecords extends TestCase {
 	@Override
 	public void tearDown() {
 		deletePwsFile(filename);
+		deletePwsFile(filename + "~");
 	}
 
 	private static void deletePwsFile(String filename) {
@@ -108,6 +114,115 @@ public class TestSparseRecords extends TestCase {
 
 	}
 
+	public void testDecodedSparseEntries() throws Exception {
+		TestUtils.addDummyRecords(pwsFile, 20);
+		pwsFile.save();
+
+		final Set<PwsFieldTypeV3> sparseFields = EnumSet.of(PwsFieldTypeV3.TITLE,
+				PwsFieldTypeV3.GROUP, PwsFieldTypeV3.USERNAME, PwsFieldTypeV3.PASSWORD,
+				PwsFieldTypeV3.AUTOTYPE, PwsFieldTypeV3.LAST_ACCESS_TIME,
+				PwsFieldTypeV3.CREATION_TIME, PwsFieldTypeV3.PASSWORD_LIFETIME);
+		final PwsEntryStoreImpl loaded = (PwsEntryStoreImpl) PwsFileFactory.loadStore(filename,
+				new StringBuilder("Pa$$word"), sparseFields);
+		final List<PwsEntryBean> theEntries = loaded.getSparseEntries();
+		assertEquals(20, theEntries.size());
+		assertEquals(20, loaded.getPwsFile().getRecordCount());
+
+		for (int i = 0; i < theEntries.size(); i++) {
+			final PwsEntryBean expected = PwsEntryBean.fromPwsRecord(loaded.getPwsFile()
+					.getRecord(i), sparseFields);
+			expected.setStoreIndex(i);
+			expected.setSparse(true);
+			final PwsEntryBean theEntry = theEntries.get(i);
+			assertEquals(expected, theEntry);
+			assertEquals(expected.getPassword().toString(), theEntry.getPassword().toString());
+			assertEquals(expected.getLastAccess(), theEntry.getLastAccess());
+			assertEquals("title" + i, theEntry.getTitle());
+			assertEquals("", theEntry.getAutotype());
+			assertNull(theEntry.getExpires());
+		}
+	}
+
+	public void testRemoveEntries() throws Exception {
+		TestUtils.addDummyRecords(pwsFile, 20);
+		pwsFile.save();
+
+		final PwsEntryStoreImpl loaded = (PwsEntryStoreImpl) PwsFileFactory.loadStore(filename,
+				new StringBuilder("Pa$$word"));
+		final List<PwsEntryBean> theEntries = loaded.getSparseEntries();
+		final UUID removedId = theEntries.get(5).getId();
+		final UUID movedId = theEntries.get(10).getId();
+		assertNotNull(removedId);
+		assertEquals("title10", loaded.getEntry(movedId).getTitle());
+
+		final PwsEntryBean moved = loaded.getEntry(10);
+		final PwsEntryBean first = theEntries.get(0);
+		assertTrue(loaded.removeEntry(theEntries.get(5)));
+
+		assertEquals(19, theEntries.size());
+		assertEquals(19, loaded.getPwsFile().getRecordCount());
+		assertSame(first, theEntries.get(0));
+		for (int i = 0; i < theEntries.size(); i++) {
+			assertEquals(i, theEntries.get(i).getStoreIndex());
+		}
+		assertNull(loaded.getEntry(removedId));
+		assertEquals(9, loaded.getEntry(movedId).getStoreIndex());
+		assertEquals("title10", loaded.getEntry(9).getTitle());
+
+		// an entry read before the removal still updates its own record
+		assertEquals(10, moved.getStoreIndex());
+		moved.setNotes("moved");
+		assertTrue(loaded.updateEntry(moved));
+		assertEquals("moved", loaded.getEntry(movedId).getNotes());
+		assertEquals("title11", loaded.getEntry(10).getTitle());
+		assertFalse("moved".equals(loaded.getEntry(10).getNotes()));
+
+		// and so does a removal
+		assertTrue(loaded.removeEntry(moved));
+		assertNull(loaded.getEntry(movedId));
+		assertEquals("title11", loaded.getEntry(9).getTitle());
+	}
+
+	public void testGroupTree() throws Exception {
+		TestUtils.addDummyRecords(pwsFile, 20);
+		entryStore = new PwsEntryStoreImpl(pwsFile);
+		final PwsGroupNode root = entryStore.getGroupTree();
+		assertTrue(root.isRoot());
+		assertEquals(10, root.getGroups().size());
+		assertTrue(root.getEntries().isEmpty());
+		assertEquals(2, root.find("group3").getEntries().size());
+
+		final PwsEntryBean nested = new PwsEntryBean();
+		nested.setSparse(false);
+		nested.setTitle("nested");
+		nested.setGroup("group3.sub.deep");
+		entryStore.addEntry(nested);
+		final PwsGroupNode deep = root.find("group3.sub.deep");
+		assertEquals("deep", deep.getName());
+		assertEquals("group3.sub", deep.getParent().getPath());
+		assertEquals("nested", deep.getEntries().get(0).getTitle());
+		assertEquals(1, root.find("group3").getGroups().size());
+		assertNull(root.find("group3.deep"));
+
+		// moving the entry drops the groups it leaves empty
+		final PwsEntryBean moved = entryStore.getEntry(deep.getEntries().get(0).getId());
+		moved.setGroup(" ");
+		entryStore.updateEntry(moved);
+		assertNull(root.find("group3.sub"));
+		assertTrue(root.find("group3").getGroups().isEmpty());
+		assertEquals(1, root.getEntries().size());
+		assertEquals("nested", root.getEntries().get(0).getTitle());
+
+		entryStore.removeEntry(entryStore.getSparseEntries().get(3));
+		entryStore.removeEntry(entryStore.getSparseEntries().get(12));
+		assertNull(root.find("group3"));
+		assertTrue(entryStore.findEntries("title3").isEmpty());
+		assertEquals(1, entryStore.findEntries("NESTED").size());
+		assertEquals(10, entryStore.findEntries("title1").size());
+		assertEquals(9, root.getGroups().size());
+		assertEquals(19, entryStore.getSparseEntries().size());
+	}
+
 	// Move this to an own PwsEntryBeanTest class
 	public void testObjectMethods() throws Exception {
 
@@ -0,0 +1,160 @@
+/*
+ * $Id$
+ * Copyright (c) 2008-2014 David Muller <roxon@users.sourceforge.net>.
+ * All rights reserved. Use of the code is allowed under the
+ * Artistic License 2.0 terms, as specified in the LICENSE file
+ * distributed with this code, or available from
+ * http://www.opensource.org/licenses/artistic-license-2.0.php
+ */
+package org.pwsafe.lib.datastore;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CancellationException;
+
+import junit.framework.TestCase;
+
+import org.pwsafe.lib.UUID;
+
+public class TrigramIndexTest extends TestCase {
+
+	private static final String[] WORDS = { "mail", "Bank", "server", "admin", "root", "shop",
+			"Gmail", "web", "intranet", "vpn" };
+
+	private final Random random = new Random(42);
+
+	private PwsEntryBean newEntry(final int i) {
+		final PwsEntryBean entry = new PwsEntryBean();
+		entry.setId(new UUID());
+		entry.setGroup(WORDS[random.nextInt(WORDS.length)] + "." + WORDS[i % WORDS.length]);
+		entry.setTitle(WORDS[random.nextInt(WORDS.length)] + i);
+		entry.setUsername(i % 3 == 0 ? null : "user" + random.nextInt(100));
+		entry.setNotes(i % 7 == 0 ? "Some NOTES about " + WORDS[i % WORDS.length] : "");
+		entry.setUrl("http://" + WORDS[random.nextInt(WORDS.length)].toLowerCase() + ".example.com");
+		return entry;
+	}
+
+	private static List<PwsEntryBean> scan(final List<PwsEntryBean> entries, final String query) {
+		final String lowerQuery = query.toLowerCase();
+		final List<PwsEntryBean> result = new ArrayList<PwsEntryBean>();
+		for (final PwsEntryBean entry : entries) {
+			for (final String value : entry.getFields().values()) {
+				if (value != null && value.toLowerCase().contains(lowerQuery)) {
+					result.add(entry);
+					break;
+				}
+			}
+		}
+		return result;
+	}
+
+	private static void assertSameEntries(final List<PwsEntryBean> expected,
+			final List<PwsEntryBean> actual) {
+		assertEquals(expected.size(), actual.size());
+		for (int i = 0; i < expected.size(); i++) {
+			assertSame(expected.get(i), actual.get(i));
+		}
+	}
+
+	public void testFindLikeScan() {
+		final TrigramIndex index = new TrigramIndex();
+		final List<PwsEntryBean> entries = new ArrayList<PwsEntryBean>();
+		for (int i = 0; i < 3000; i++) {
+			final PwsEntryBean entry = newEntry(i);
+			entries.add(entry);
+			index.add(entry);
+		}
+		final String[] queries = { "", "m", "ma", "mail", "GMAIL", "bank1", "notes about",
+				"user4", "example.com", "://vpn", "nothing", "ail.web", "t\u0000" };
+		for (final String query : queries) {
+			assertSameEntries(scan(entries, query), index.find(query));
+		}
+
+		// remove most entries, which also compacts the index on later adds
+		for (int i = 0; i < entries.size(); i++) {
+			if (i % 5 != 0) {
+				index.remove(entries.get(i));
+			}
+		}
+		final List<PwsEntryBean> remaining = new ArrayList<PwsEntryBean>();
+		for (int i = 0; i < entries.size(); i += 5) {
+			remaining.add(entries.get(i));
+		}
+		for (int i = 0; i < 2000; i++) {
+			final PwsEntryBean entry = newEntry(i);
+			remaining.add(entry);
+			index.add(entry);
+		}
+		assertEquals(remaining.size(), index.size());
+		for (final String query : queries) {
+			assertSameEntries(scan(remaining, query), index.find(query));
+		}
+
+		index.clear();
+		assertEquals(0, index.size());
+		assertTrue(index.find("mail").isEmpty());
+	}
+
+	public void testTypeAhead() {
+		final TrigramIndex index = new TrigramIndex();
+		final List<PwsEntryBean> entries = new ArrayList<PwsEntryBean>();
+		for (int i = 0; i < 1000; i++) {
+			final PwsEntryBean entry = newEntry(i);
+			entries.add(entry);
+			index.add(entry);
+		}
+		final String typed = "Gmail12";
+		for (int i = 1; i <= typed.length(); i++) {
+			final String query = typed.substring(0, i);
+			assertSameEntries(scan(entries, query), index.find(query));
+		}
+
+		// a change of the index must not narrow to stale hits
+		final PwsEntryBean added = newEntry(5000);
+		added.setTitle("gmail123");
+		entries.add(added);
+		index.add(added);
+		assertSameEntries(scan(entries, "gmail123"), index.find("gmail123"));
+		assertTrue(index.find("gmail123").contains(added));
+
+		// backspace and a different query start over
+		assertSameEntries(scan(entries, "gmail1"), index.find("gmail1"));
+		assertSameEntries(scan(entries, "bank"), index.find("bank"));
+	}
+
+	public void testAccents() {
+		final TrigramIndex index = new TrigramIndex();
+		final PwsEntryBean entry = newEntry(1);
+		entry.setTitle("Caf\u00e9 Z\u00fcrich");
+		index.add(entry);
+		index.add(newEntry(2));
+		assertSameEntries(Collections.singletonList(entry), index.find("cafe zurich"));
+		assertSameEntries(Collections.singletonList(entry), index.find("Z\u00dcRICH"));
+
+		// the cached search key follows the fields
+		assertEquals("cafe zurich", entry.getNormalizedTitle());
+		entry.setTitle("Cr\u00e8me");
+		assertEquals("creme", entry.getNormalizedTitle());
+		assertTrue(entry.getNormalizedSearchText().contains("creme"));
+		assertFalse(entry.getNormalizedSearchText().contains("zurich"));
+	}
+
+	public void testInterrupt() {
+		final TrigramIndex index = new TrigramIndex();
+		for (int i = 0; i < 5000; i++) {
+			index.add(newEntry(i));
+		}
+		Thread.currentThread().interrupt();
+		try {
+			index.find("ma");
+			fail("an interrupted search completed");
+		} catch (final CancellationException e) {
+			// ok
+		} finally {
+			Thread.interrupted();
+		}
+		assertFalse(index.find("ma").isEmpty());
+	}
+}
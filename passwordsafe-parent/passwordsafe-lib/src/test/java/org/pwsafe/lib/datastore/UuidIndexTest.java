@@ -0,0 +1,67 @@
+/*
+ * $Id$
+ * Copyright (c) 2008-2014 David Muller <roxon@users.sourceforge.net>.
+ * All rights reserved. Use of the code is allowed under the
+ * Artistic License 2.0 terms, as specified in the LICENSE file
+ * distributed with this code, or available from
+ * http://www.opensource.org/licenses/artistic-license-2.0.php
+ */
+package org.pwsafe.lib.datastore;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.pwsafe.lib.UUID;
+
+public class UuidIndexTest extends TestCase {
+
+	private static PwsEntryBean newEntry(final UUID anId) {
+		final PwsEntryBean entry = new PwsEntryBean();
+		entry.setId(anId);
+		return entry;
+	}
+
+	public void testPutGetRemove() {
+		final UuidIndex index = new UuidIndex();
+		final List<PwsEntryBean> entries = new ArrayList<PwsEntryBean>();
+		for (int i = 0; i < 1000; i++) {
+			final PwsEntryBean entry = newEntry(new UUID());
+			entries.add(entry);
+			index.put(entry);
+		}
+		assertEquals(1000, index.size());
+		for (final PwsEntryBean entry : entries) {
+			assertSame(entry, index.get(new UUID(entry.getId().getBytes())));
+		}
+
+		// duplicates and entries without id are not indexed
+		index.put(newEntry(entries.get(0).getId()));
+		index.put(new PwsEntryBean());
+		assertEquals(1000, index.size());
+		assertSame(entries.get(0), index.get(entries.get(0).getId()));
+
+		// remove every other entry, the rest must still be found
+		for (int i = 0; i < entries.size(); i += 2) {
+			index.remove(entries.get(i));
+		}
+		assertEquals(500, index.size());
+		for (int i = 0; i < entries.size(); i++) {
+			final PwsEntryBean entry = entries.get(i);
+			assertEquals(i % 2 == 0 ? null : entry, index.get(entry.getId()));
+		}
+
+		final PwsEntryBean replacement = newEntry(entries.get(1).getId());
+		index.replace(entries.get(1), replacement);
+		assertSame(replacement, index.get(entries.get(1).getId()));
+		// only the indexed entry is removed
+		index.remove(entries.get(1));
+		assertSame(replacement, index.get(entries.get(1).getId()));
+
+		index.clear();
+		assertEquals(0, index.size());
+		assertNull(index.get(entries.get(3).getId()));
+		assertNull(index.get(null));
+	}
+}
@@ -24,6 +24,9 @@ public class AllFileTests {
 		suite.addTestSuite(PwsFieldTest.class);
 		suite.addTestSuite(InMemoryKeyTest.class);
 		suite.addTestSuite(PwsFieldTypeTest.class);
+		suite.addTestSuite(RecordCodecTest.class);
+		suite.addTestSuite(RecordArenaTest.class);
+		suite.addTestSuite(FieldSlotsTest.class);
 		// $JUnit-END$
 		return suite;
 	}
@@ -0,0 +1,109 @@
+/*
+ * $Id:$
+ * 
+ * Copyright (c) 2008-2014 David Muller <roxon@users.sourceforge.net>.
+ * All rights reserved. Use of the code is allowed under the
+ * Artistic License 2.0 terms, as specified in the LICENSE file
+ * distributed with this code, or available from
+ * http://www.opensource.org/licenses/artistic-license-2.0.php
+ */
+package org.pwsafe.lib.file;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Arrays;
+import java.util.Iterator;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests the slot based field storage of records.
+ */
+public class FieldSlotsTest extends TestCase {
+
+	public void testSlotsAndOverflow() {
+		final FieldSlots slots = new FieldSlots(4);
+		slots.put(new PwsUnknownField(200, new byte[] { 1 }));
+		slots.put(new PwsUnknownField(2, new byte[] { 2 }));
+		slots.put(new PwsUnknownField(7, new byte[] { 3 }));
+		slots.put(new PwsUnknownField(0, new byte[] { 4 }));
+		assertEquals(4, slots.size());
+
+		final PwsField replacement = new PwsUnknownField(2, new byte[] { 5 });
+		assertNotNull(slots.put(replacement));
+		assertNotNull(slots.put(new PwsUnknownField(200, new byte[] { 6 })));
+		assertEquals(4, slots.size());
+		assertSame(replacement, slots.get(2));
+		assertNull(slots.get(1));
+		assertNull(slots.get(100));
+		assertNull(slots.get(-1));
+
+		final Iterator<Integer> types = slots.types();
+		assertEquals(Integer.valueOf(0), types.next());
+		assertEquals(Integer.valueOf(2), types.next());
+		assertEquals(Integer.valueOf(7), types.next());
+		assertEquals(Integer.valueOf(200), types.next());
+		assertFalse(types.hasNext());
+	}
+
+	public void testRecordFields() {
+		final PwsRecordV3 rec = new PwsRecordV3();
+		rec.setField(new PwsStringUnicodeField(PwsFieldTypeV3.NOTES, "notes"));
+		rec.setField(new PwsUnknownField(99, new byte[] { 1, 2 }));
+
+		assertEquals("notes", rec.getField(PwsFieldTypeV3.NOTES).getValue());
+		assertEquals("notes", rec.getField(Integer.valueOf(PwsRecordV3.NOTES)).getValue());
+		assertNotNull(rec.getField(99));
+
+		int last = -1;
+		int count = 0;
+		for (final Iterator<Integer> iter = rec.getFields(); iter.hasNext();) {
+			final int type = iter.next().intValue();
+			assertTrue(type > last);
+			last = type;
+			count++;
+		}
+		assertEquals(6, count);
+		assertEquals(99, last);
+
+		final PwsRecord copy = (PwsRecord) rec.clone();
+		assertEquals("notes", copy.getField(PwsRecordV3.NOTES).getValue());
+		assertEquals(rec, copy);
+	}
+
+	public void testDisposeClone() {
+		final PwsRecordV3 rec = new PwsRecordV3();
+		rec.setField(new PwsStringUnicodeField(PwsFieldTypeV3.NOTES, "notes"));
+		rec.setField(new PwsUnknownField(99, new byte[] { 1, 2 }));
+
+		final PwsRecord copy = (PwsRecord) rec.clone();
+		assertNotSame(rec.getField(99), copy.getField(99));
+		final byte[] copyValue = (byte[]) copy.getField(99).getValue();
+		copy.dispose();
+		Arrays.fill(copyValue, (byte) 0);
+
+		assertEquals("notes", rec.getField(PwsFieldTypeV3.NOTES).getValue());
+		assertTrue(Arrays.equals(new byte[] { 1, 2 }, (byte[]) rec.getField(99).getValue()));
+	}
+
+	public void testSerializableRecord() throws Exception {
+		final PwsRecordV3 rec = new PwsRecordV3();
+		rec.setField(new PwsStringUnicodeField(PwsFieldTypeV3.NOTES, "notes"));
+		rec.setField(new PwsUnknownField(99, new byte[] { 1, 2 }));
+
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		final ObjectOutputStream out = new ObjectOutputStream(bytes);
+		out.writeObject(rec);
+		out.close();
+		final ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(
+				bytes.toByteArray()));
+		final PwsRecordV3 copy = (PwsRecordV3) in.readObject();
+		in.close();
+
+		assertEquals("notes", copy.getField(PwsFieldTypeV3.NOTES).getValue());
+		assertNotNull(copy.getField(99));
+		assertEquals(rec.getFieldSlots().size(), copy.getFieldSlots().size());
+	}
+}
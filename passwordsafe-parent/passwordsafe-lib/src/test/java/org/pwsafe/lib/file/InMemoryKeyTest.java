@@ -26,6 +26,18 @@ public class InMemoryKeyTest extends TestCase {
 		key.dispose();
 	}
 
+	public void testRestoreKey() {
+		final InMemoryKey key = new InMemoryKey(16);
+		key.init();
+		final byte[] content = key.getKey();
+
+		final InMemoryKey restored = new InMemoryKey(16);
+		restored.init(content);
+		assertTrue(Arrays.equals(content, restored.getKey()));
+		key.dispose();
+		restored.dispose();
+	}
+
 	public void testDispose() {
 		final InMemoryKey key = new InMemoryKey(8);
 		key.init();
@@ -13,6 +13,8 @@ import java.io.IOException;
 import java.net.URL;
 import java.util.ConcurrentModificationException;
 import java.util.EnumSet;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import junit.framework.TestCase;
 import org.apache.commons.logging.Log;
@@ -123,6 +125,68 @@ public class PwsFileFactoryTest extends TestCase {
 		}
 	}
 
+	@Test
+	public void testStoreLoader() throws Exception {
+		final PwsStoreLoader theLoader = PwsStoreLoader.open(testV2FilePath, new StringBuilder(PASSPHRASE));
+		final PwsEntryStore theStore = theLoader.getStore();
+		assertEquals(0, theStore.getSparseEntries().size());
+
+		final CountDownLatch finished = new CountDownLatch(1);
+		final Exception[] error = new Exception[1];
+		theLoader.start(new PwsStoreLoader.Listener() {
+			public void recordsLoaded(final int aCount) {
+				// a single record is no batch
+			}
+
+			public void loadFinished(final Exception anError) {
+				error[0] = anError;
+				finished.countDown();
+			}
+		});
+		assertTrue(finished.await(10, TimeUnit.SECONDS));
+		assertNull(error[0]);
+		assertEquals(1, theLoader.getLoadedCount());
+
+		// the entries wait for the caller
+		assertEquals(0, theStore.getSparseEntries().size());
+		assertEquals(1, theLoader.publish());
+		assertEquals(1, theStore.getSparseEntries().size());
+		assertEquals(0, theLoader.publish());
+
+		try {
+			PwsStoreLoader.open(testV2FilePath, new StringBuilder("wrong passphrase"));
+			fail("Wrong passphrase should lead to an InvalidPassphraseException");
+		} catch (final InvalidPassphraseException e) {
+			// ok
+			LOGGER.info(e.toString());
+		}
+	}
+
+	@Test
+	public void testStoreLoaderWithSparse() throws Exception {
+		final PwsStoreLoader theLoader = PwsStoreLoader.open(testV2FilePath, new StringBuilder(PASSPHRASE),
+				EnumSet.of(PwsFieldTypeV2.TITLE, PwsFieldTypeV2.USERNAME));
+
+		final Exception[] error = new Exception[1];
+		// loads on this thread
+		theLoader.load(new PwsStoreLoader.Listener() {
+			public void recordsLoaded(final int aCount) {
+				// a single record is no batch
+			}
+
+			public void loadFinished(final Exception anError) {
+				error[0] = anError;
+			}
+		});
+		assertNull(error[0]);
+		assertEquals(1, theLoader.publish());
+
+		final PwsEntryStore theStore = theLoader.getStore();
+		assertEquals(1, theStore.getSparseEntries().size());
+		assertNotNull(theStore.getSparseEntries().get(0).getTitle());
+		assertNull(theStore.getSparseEntries().get(0).getNotes());
+	}
+
 	@Test
 	public void testReadOnly() throws Exception {
 		final PwsFile pwsFile = PwsFileFactory.loadFile(testV2FilePath, new StringBuilder(
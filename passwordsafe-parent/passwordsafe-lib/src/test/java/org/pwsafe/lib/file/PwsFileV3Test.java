@@ -8,16 +8,23 @@
  */
 package org.pwsafe.lib.file;
 
+import java.io.DataInputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.RandomAccessFile;
 import java.net.URL;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.ConcurrentModificationException;
 import java.util.Iterator;
+import java.util.List;
 
 import junit.framework.TestCase;
 
 import org.pwsafe.lib.Log;
+import org.pwsafe.lib.Util;
 import org.pwsafe.lib.exception.EndOfFileException;
 import org.pwsafe.lib.exception.UnsupportedFileVersionException;
 
@@ -184,6 +191,412 @@ public class PwsFileV3Test extends TestCase {
 	}
 
 
+	public void testSequentialDecryption() throws Exception {
+		final int amount = 200;
+		TestUtils.addDummyRecords(pwsFile, amount);
+		pwsFile.save();
+		pwsFile.close();
+
+		final boolean parallel = PwsFileV3.isParallelDecryption();
+		try {
+			PwsFileV3.setParallelDecryption(false);
+			final PwsFileV3 sequential = new PwsFileV3(new PwsFileStorage(filename),
+					new StringBuilder(passphrase));
+			sequential.readAll();
+			sequential.close();
+
+			PwsFileV3.setParallelDecryption(true);
+			final PwsFileV3 bulk = new PwsFileV3(new PwsFileStorage(filename), new StringBuilder(
+					passphrase));
+			bulk.readAll();
+			bulk.close();
+
+			assertEquals(amount, sequential.getRecordCount());
+			assertEquals(amount, bulk.getRecordCount());
+			for (int i = 0; i < amount; i++) {
+				assertEquals(sequential.getRecord(i).toString(), bulk.getRecord(i).toString());
+			}
+		} finally {
+			PwsFileV3.setParallelDecryption(parallel);
+		}
+	}
+
+	public void testPipelinedLoading() throws Exception {
+		final int amount = 500;
+		TestUtils.addDummyRecords(pwsFile, amount);
+		pwsFile.save();
+		pwsFile.close();
+
+		final boolean pipelined = PwsFileV3.isPipelinedLoading();
+		try {
+			PwsFileV3.setPipelinedLoading(false);
+			final PwsFileV3 sequential = new PwsFileV3(new PwsFileStorage(filename),
+					new StringBuilder(passphrase));
+			sequential.readAll();
+			sequential.close();
+
+			PwsFileV3.setPipelinedLoading(true);
+			final PwsFileV3 pipeline = new PwsFileV3(new PwsFileStorage(filename),
+					new StringBuilder(passphrase));
+			final List<String> loaded = new ArrayList<String>();
+			pipeline.addLoadListener(new PwsLoadListener() {
+				public void loaded(final PwsRecord aRecord) {
+					loaded.add(aRecord.toString());
+				}
+			});
+			pipeline.readAll();
+			pipeline.close();
+
+			assertEquals(amount, pipeline.getRecordCount());
+			assertEquals(amount, loaded.size());
+			for (int i = 0; i < amount; i++) {
+				assertEquals(sequential.getRecord(i).toString(), pipeline.getRecord(i).toString());
+				assertEquals(sequential.getRecord(i).toString(), loaded.get(i));
+			}
+
+			// the append point is kept as well
+			TestUtils.addDummyRecords(pipeline, 3);
+			pipeline.save();
+			final PwsFileV3 reloaded = new PwsFileV3(new PwsFileStorage(filename),
+					new StringBuilder(passphrase));
+			reloaded.readAll();
+			assertEquals(amount + 3, reloaded.getRecordCount());
+		} finally {
+			PwsFileV3.setPipelinedLoading(pipelined);
+		}
+	}
+
+	public void testPipelinedTamperCheck() throws Exception {
+		TestUtils.addDummyRecords(pwsFile, 100);
+		pwsFile.save();
+		pwsFile.close();
+
+		// flip a bit of the closing HMAC
+		final RandomAccessFile raw = new RandomAccessFile(filename, "rw");
+		try {
+			raw.seek(raw.length() - 1);
+			final int last = raw.read();
+			raw.seek(raw.length() - 1);
+			raw.write(last ^ 1);
+		} finally {
+			raw.close();
+		}
+
+		final boolean pipelined = PwsFileV3.isPipelinedLoading();
+		try {
+			for (final boolean mode : new boolean[] { true, false }) {
+				PwsFileV3.setPipelinedLoading(mode);
+				final PwsFileV3 tampered = new PwsFileV3(new PwsFileStorage(filename),
+						new StringBuilder(passphrase));
+				try {
+					tampered.readAll();
+					fail("tampered file loaded");
+				} catch (final IOException e) {
+					assertTrue(e.getMessage().contains("HMAC"));
+				} finally {
+					tampered.close();
+				}
+			}
+		} finally {
+			PwsFileV3.setPipelinedLoading(pipelined);
+		}
+	}
+
+	public void testPeekedHeader() throws Exception {
+		TestUtils.addDummyRecords(pwsFile, 10);
+		pwsFile.save();
+		pwsFile.close();
+
+		final byte[] head = new PwsFileStorage(filename).peek(PwsFileHeaderV3.LENGTH);
+		assertEquals(Util.bytesToHex(readHeader()), Util.bytesToHex(head));
+		assertNull(new PwsFileStorage(filename).peek(Integer.MAX_VALUE));
+
+		final PwsFileV3 peeked = new PwsFileV3(new PwsFileStorage(filename), new StringBuilder(
+				passphrase));
+		peeked.readAll();
+		assertEquals(10, peeked.getRecordCount());
+
+		// a header that is outdated by the time the file is loaded is ignored
+		final PwsFileV3 stale = new PwsFileV3(new PwsFileStorage(filename) {
+			@Override
+			public byte[] peek(final int length) throws IOException {
+				final byte[] bytes = super.peek(length);
+				bytes[4] ^= 1; // first salt byte
+				return bytes;
+			}
+		}, new StringBuilder(passphrase));
+		stale.readAll();
+		assertEquals(10, stale.getRecordCount());
+	}
+
+	public void testLockUnlock() throws Exception {
+		TestUtils.addDummyRecords(pwsFile, 20);
+		pwsFile.save();
+		pwsFile.close();
+
+		final PwsFileV3 file = new PwsFileV3(new PwsFileStorage(filename), new StringBuilder(passphrase));
+		file.readAll();
+		file.close();
+		final String first = file.getRecord(0).toString();
+		final String last = file.getRecord(19).toString();
+
+		assertTrue(file.lock());
+		assertTrue(file.isLocked());
+		assertNull(file.stretchedPassword);
+		assertNull(file.decryptedRecordKey);
+		try {
+			file.getRecord(0);
+			fail("a locked file can't be read");
+		} catch (final IllegalStateException e) {
+			// ok
+		}
+
+		try {
+			file.unlock(new StringBuilder("wrong"));
+			fail("unlocked with a wrong passphrase");
+		} catch (final IOException e) {
+			assertTrue(file.isLocked());
+		}
+
+		final StringBuilder unlockPassphrase = new StringBuilder(passphrase);
+		file.unlock(unlockPassphrase);
+		assertFalse(file.isLocked());
+		assertEquals("", unlockPassphrase.toString());
+		assertEquals(passphrase, file.getPassphrase().toString());
+		assertEquals(20, file.getRecordCount());
+		assertEquals(first, file.getRecord(0).toString());
+		assertEquals(last, file.getRecord(19).toString());
+
+		// still saves and can be locked again
+		TestUtils.addDummyRecords(file, 1);
+		file.save();
+		assertTrue(file.lock());
+		file.unlock(new StringBuilder(passphrase));
+
+		// a passphrase change takes effect with the save
+		file.setPassphrase(new StringBuilder("changed"));
+		file.save();
+		assertTrue(file.lock());
+		file.unlock(new StringBuilder("changed"));
+
+		final PwsFileV3 reloaded = new PwsFileV3(new PwsFileStorage(filename), new StringBuilder(
+				"changed"));
+		reloaded.readAll();
+		assertEquals(21, reloaded.getRecordCount());
+		assertEquals(first, reloaded.getRecord(0).toString());
+	}
+
+	public void testSaveLockedFile() throws Exception {
+		pwsFile.save();
+		TestUtils.addDummyRecords(pwsFile, 3);
+		assertTrue(pwsFile.isModified());
+		assertTrue(pwsFile.lock());
+		assertTrue(pwsFile.isModified());
+
+		try {
+			pwsFile.save();
+			fail("saved a locked file");
+		} catch (final IOException e) {
+			assertTrue(pwsFile.isLocked());
+			assertTrue(pwsFile.isModified());
+		}
+
+		// the edits are saved once the file is unlocked
+		pwsFile.unlock(new StringBuilder(passphrase));
+		pwsFile.save();
+		assertFalse(pwsFile.isModified());
+		final PwsFileV3 reloaded = new PwsFileV3(new PwsFileStorage(filename), new StringBuilder(
+				passphrase));
+		reloaded.readAll();
+		assertEquals(3, reloaded.getRecordCount());
+	}
+
+	public void testMappedStorage() throws Exception {
+		final int amount = 200;
+		TestUtils.addDummyRecords(pwsFile, amount);
+		pwsFile.save();
+		pwsFile.close();
+
+		final long threshold = PwsFileStorage.getMappingThreshold();
+		final boolean parallel = PwsFileV3.isParallelDecryption();
+		try {
+			PwsFileStorage.setMappingThreshold(Long.MAX_VALUE);
+			final PwsFileV3 loaded = new PwsFileV3(new PwsFileStorage(filename), new StringBuilder(
+					passphrase));
+			loaded.readAll();
+			loaded.close();
+
+			PwsFileStorage.setMappingThreshold(0);
+			for (final boolean mode : new boolean[] { true, false }) {
+				PwsFileV3.setParallelDecryption(mode);
+				final PwsFileV3 mapped = new PwsFileV3(new PwsFileStorage(filename),
+						new StringBuilder(passphrase));
+				mapped.readAll();
+				// the mapping is dropped as soon as the records are read
+				assertNull(mapped.inStream);
+				mapped.close();
+
+				assertEquals(amount, mapped.getRecordCount());
+				for (int i = 0; i < amount; i++) {
+					assertEquals(loaded.getRecord(i).toString(), mapped.getRecord(i).toString());
+				}
+				// the mapped original must still be replaceable
+				mapped.setModified();
+				mapped.save();
+			}
+		} finally {
+			PwsFileStorage.setMappingThreshold(threshold);
+			PwsFileV3.setParallelDecryption(parallel);
+		}
+	}
+
+	public void testSaveKeepsBackup() throws Exception {
+		final boolean append = PwsFileV3.isAppendOnSave();
+		PwsFileV3.setAppendOnSave(false);
+		try {
+			TestUtils.addDummyRecords(pwsFile, 10);
+			pwsFile.save();
+			TestUtils.addDummyRecords(pwsFile, 5);
+			pwsFile.save();
+			pwsFile.close();
+		} finally {
+			PwsFileV3.setAppendOnSave(append);
+		}
+
+		final String backupName = filename + "~";
+		try {
+			final PwsFileV3 backup = new PwsFileV3(new PwsFileStorage(backupName),
+					new StringBuilder(passphrase));
+			backup.readAll();
+			assertEquals(10, backup.getRecordCount());
+
+			final PwsFileV3 current = new PwsFileV3(new PwsFileStorage(filename),
+					new StringBuilder(passphrase));
+			current.readAll();
+			assertEquals(15, current.getRecordCount());
+		} finally {
+			deletePwsFile(backupName);
+		}
+	}
+
+	public void testAppendSaveKeepsBackup() throws Exception {
+		final boolean append = PwsFileV3.isAppendOnSave();
+		PwsFileV3.setAppendOnSave(true);
+		try {
+			TestUtils.addDummyRecords(pwsFile, 10);
+			pwsFile.save();
+			final long length = new File(filename).length();
+			TestUtils.addDummyRecords(pwsFile, 5);
+			pwsFile.save();
+			pwsFile.close();
+			// the append has to back up the old trailer first
+			assertEquals(length, new File(filename + "~").length());
+		} finally {
+			PwsFileV3.setAppendOnSave(append);
+		}
+
+		final String backupName = filename + "~";
+		try {
+			final PwsFileV3 backup = new PwsFileV3(new PwsFileStorage(backupName),
+					new StringBuilder(passphrase));
+			backup.readAll();
+			assertEquals(10, backup.getRecordCount());
+		} finally {
+			deletePwsFile(backupName);
+		}
+	}
+
+	public void testFailedMoveKeepsSavedData() throws Exception {
+		final byte[] original = new PwsFileStorage(filename).load();
+		final byte[] data = new byte[1000];
+		Arrays.fill(data, (byte) 42);
+
+		final File[] tempFile = new File[1];
+		final PwsFileStorage storage = new PwsFileStorage(filename) {
+			@Override
+			void moveIntoPlace(final File aTempFile, final File target) throws IOException {
+				tempFile[0] = aTempFile;
+				throw new IOException("move failed");
+			}
+		};
+		try {
+			assertFalse(storage.save(data));
+			assertNotNull(tempFile[0]);
+			// the original stays in place and the new content is kept
+			assertTrue(Arrays.equals(original, new PwsFileStorage(filename).load()));
+			assertTrue(Arrays.equals(data, new PwsFileStorage(tempFile[0].getPath()).load()));
+		} finally {
+			if (tempFile[0] != null) {
+				deletePwsFile(tempFile[0].getPath());
+			}
+			deletePwsFile(filename + "~");
+		}
+	}
+
+	public void testAbortedSaveLeavesFile() throws Exception {
+		final File file = new File(filename);
+		final long length = file.length();
+		final File backup = new File(filename + "~");
+		final long backupLength = backup.length();
+		final File[] before = file.getCanonicalFile().getParentFile().listFiles();
+
+		final PwsSaveStream out = new PwsFileStorage(filename).openSave();
+		out.write(new byte[100 * 1024]);
+		out.close();
+
+		assertEquals(length, file.length());
+		assertEquals(backupLength, backup.length());
+		assertEquals(before.length, file.getCanonicalFile().getParentFile().listFiles().length);
+	}
+
+	public void testAppendSave() throws Exception {
+		TestUtils.addDummyRecords(pwsFile, 10);
+		pwsFile.save();
+		final byte[] header = readHeader();
+
+		TestUtils.addDummyRecords(pwsFile, 5);
+		pwsFile.save();
+		// an append leaves the header and its keys alone
+		assertEquals(Util.bytesToHex(header), Util.bytesToHex(readHeader()));
+
+		PwsFileV3 reloaded = new PwsFileV3(new PwsFileStorage(filename), new StringBuilder(
+				passphrase));
+		reloaded.readAll();
+		reloaded.close();
+		assertEquals(15, reloaded.getRecordCount());
+		for (int i = 0; i < 15; i++) {
+			assertEquals(pwsFile.getRecord(i).toString(), reloaded.getRecord(i).toString());
+		}
+
+		// append to the loaded file
+		TestUtils.addDummyRecords(reloaded, 3);
+		reloaded.save();
+		assertEquals(Util.bytesToHex(header), Util.bytesToHex(readHeader()));
+
+		// an edit needs a full rewrite
+		final PwsRecord record = reloaded.getRecord(0);
+		record.setField(new PwsStringField(PwsRecordV3.TITLE, "edited"));
+		reloaded.set(0, record);
+		reloaded.save();
+		assertFalse(Util.bytesToHex(header).equals(Util.bytesToHex(readHeader())));
+
+		reloaded = new PwsFileV3(new PwsFileStorage(filename), new StringBuilder(passphrase));
+		reloaded.readAll();
+		assertEquals(18, reloaded.getRecordCount());
+		assertEquals("edited", reloaded.getRecord(0).getField(PwsRecordV3.TITLE).toString());
+	}
+
+	private byte[] readHeader() throws IOException {
+		final byte[] header = new byte[152];
+		final DataInputStream in = new DataInputStream(new FileInputStream(filename));
+		try {
+			in.readFully(header);
+		} finally {
+			in.close();
+		}
+		return header;
+	}
+
 	/**
 	 * Checks if a record with a new passphrase policy field (#16) can be
 	 * loaded.
@@ -0,0 +1,132 @@
+/*
+ * $Id:$
+ * 
+ * Copyright (c) 2008-2014 David Muller <roxon@users.sourceforge.net>.
+ * All rights reserved. Use of the code is allowed under the
+ * Artistic License 2.0 terms, as specified in the LICENSE file
+ * distributed with this code, or available from
+ * http://www.opensource.org/licenses/artistic-license-2.0.php
+ */
+package org.pwsafe.lib.file;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests the off-heap record arena against a plain list.
+ */
+public class RecordArenaTest extends TestCase {
+
+	private static byte[] blob(final int seed, final int length) {
+		final byte[] blob = new byte[length];
+		for (int i = 0; i < length; i++) {
+			blob[i] = (byte) (seed + i);
+		}
+		return blob;
+	}
+
+	private static void assertSame(final List<byte[]> expected, final RecordArena arena) {
+		assertEquals(expected.size(), arena.size());
+		for (int i = 0; i < expected.size(); i++) {
+			assertTrue("record " + i, Arrays.equals(expected.get(i), arena.get(i)));
+		}
+	}
+
+	public void testAddSetRemove() {
+		final RecordArena arena = new RecordArena();
+		final List<byte[]> expected = new ArrayList<byte[]>();
+		for (int i = 0; i < 500; i++) {
+			final byte[] blob = blob(i, 40 + i % 200);
+			arena.add(blob);
+			expected.add(blob);
+		}
+		assertSame(expected, arena);
+
+		for (int i = 0; i < 500; i += 3) {
+			final byte[] blob = blob(-i, 8 + i % 50);
+			arena.set(i, blob);
+			expected.set(i, blob);
+		}
+		assertSame(expected, arena);
+
+		for (int i = 400; i >= 0; i -= 7) {
+			arena.remove(i);
+			expected.remove(i);
+		}
+		assertSame(expected, arena);
+
+		try {
+			arena.get(expected.size());
+			fail("index out of bounds expected");
+		} catch (final IndexOutOfBoundsException e) {
+			// ok
+		}
+	}
+
+	public void testLargeBlob() {
+		final RecordArena arena = new RecordArena();
+		final byte[] large = blob(1, RecordArena.MAX_SEGMENT_SIZE + 10);
+		arena.add(blob(2, 100));
+		arena.add(large);
+		assertTrue(Arrays.equals(large, arena.get(1)));
+	}
+
+	public void testCompaction() {
+		final RecordArena arena = new RecordArena();
+		final byte[] blob = blob(3, 1000);
+		arena.add(blob);
+		for (int i = 0; i < 10000; i++) {
+			arena.set(0, blob);
+		}
+		assertTrue(Arrays.equals(blob, arena.get(0)));
+		assertTrue("arena did not compact: " + arena.getCapacity(), arena.getCapacity() <= 4 * 1024 * 1024);
+	}
+
+	public void testClear() {
+		final RecordArena arena = new RecordArena();
+		arena.add(blob(4, 100));
+		arena.clear();
+		assertEquals(0, arena.size());
+		assertEquals(0, arena.getCapacity());
+	}
+
+	public void testFileIterator() throws Exception {
+		final PwsFileV3 file = new PwsFileV3();
+		for (int i = 0; i < 5; i++) {
+			final PwsRecord rec = file.newRecord();
+			rec.setField(new PwsStringUnicodeField(PwsRecordV3.TITLE, "title " + i));
+			file.add(rec);
+		}
+
+		final Iterator<? extends PwsRecord> iter = file.getRecords();
+		int i = 0;
+		while (iter.hasNext()) {
+			final PwsRecord rec = iter.next();
+			assertEquals("title " + i, rec.getField(PwsRecordV3.TITLE).getValue());
+			if (i % 2 == 0) {
+				iter.remove();
+			}
+			i++;
+		}
+		assertEquals(5, i);
+		assertEquals(2, file.getRecordCount());
+		assertEquals("title 3", file.getRecord(1).getField(PwsRecordV3.TITLE).getValue());
+
+		final Iterator<? extends PwsRecord> stale = file.getRecords();
+		file.add(file.newRecord());
+		try {
+			stale.next();
+			fail("concurrent modification expected");
+		} catch (final ConcurrentModificationException e) {
+			// ok
+		}
+
+		file.dispose();
+		assertEquals(0, file.getRecordCount());
+	}
+}
@@ -0,0 +1,111 @@
+/*
+ * $Id:$
+ * 
+ * Copyright (c) 2008-2014 David Muller <roxon@users.sourceforge.net>.
+ * All rights reserved. Use of the code is allowed under the
+ * Artistic License 2.0 terms, as specified in the LICENSE file
+ * distributed with this code, or available from
+ * http://www.opensource.org/licenses/artistic-license-2.0.php
+ */
+package org.pwsafe.lib.file;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Iterator;
+
+import junit.framework.TestCase;
+
+import org.pwsafe.lib.UUID;
+
+/**
+ * Tests the in memory record codec and the sealing built on it.
+ */
+public class RecordCodecTest extends TestCase {
+
+	private static void assertSameFields(final PwsRecord expected, final PwsRecord actual) {
+		assertEquals(expected.getClass(), actual.getClass());
+		int count = 0;
+		for (final Iterator<Integer> iter = expected.getFields(); iter.hasNext();) {
+			final Integer type = iter.next();
+			final PwsField field = expected.getField(type);
+			final PwsField copy = actual.getField(type);
+			assertNotNull("missing field " + type, copy);
+			assertEquals(field.getClass(), copy.getClass());
+			if (field.getValue() instanceof byte[]) {
+				assertTrue(Arrays.equals((byte[]) field.getValue(), (byte[]) copy.getValue()));
+			} else {
+				assertEquals(field.getValue(), copy.getValue());
+			}
+			count++;
+		}
+		int copies = 0;
+		for (final Iterator<Integer> iter = actual.getFields(); iter.hasNext(); iter.next()) {
+			copies++;
+		}
+		assertEquals(count, copies);
+	}
+
+	public void testRoundTripV3() {
+		final PwsRecordV3 rec = new PwsRecordV3();
+		rec.setField(new PwsStringUnicodeField(PwsRecordV3.TITLE, "Tïtle ☺"));
+		rec.setField(new PwsStringUnicodeField(PwsRecordV3.NOTES, (String) null));
+		rec.setField(new PwsTimeField(PwsRecordV3.LAST_MOD_TIME, new Date(1234567890123L)));
+		rec.setField(new PwsVersionField(PwsRecordV3.V3_ID_STRING, new byte[] { 3, 1 }));
+		rec.setField(new PwsIntegerField(42, new byte[] { 1, 2, 3, 4 }));
+		rec.setField(new PwsUnknownField(43, new byte[] { 9, 8, 7 }));
+
+		final PwsRecord copy = RecordCodec.decode(RecordCodec.encode(rec));
+
+		assertSameFields(rec, copy);
+		assertEquals(1234567890123L, ((Date) copy.getField(PwsRecordV3.LAST_MOD_TIME).getValue()).getTime());
+		assertEquals(rec, copy);
+	}
+
+	public void testRoundTripV1V2() {
+		final PwsRecordV1 v1 = new PwsRecordV1();
+		v1.setField(new PwsStringField(PwsFieldTypeV1.TITLE, "café"));
+		assertSameFields(v1, RecordCodec.decode(RecordCodec.encode(v1)));
+
+		final PwsRecordV2 v2 = new PwsRecordV2();
+		v2.setField(new PwsUUIDField(PwsFieldTypeV2.UUID, new UUID()));
+		v2.setField(new PwsStringField(PwsFieldTypeV2.NOTES, "some notes"));
+		assertSameFields(v2, RecordCodec.decode(RecordCodec.encode(v2)));
+	}
+
+	public void testFlags() {
+		final PwsRecordV3 rec = new PwsRecordV3();
+		rec.restoreState(true, true, true);
+
+		final PwsRecord copy = RecordCodec.decode(RecordCodec.encode(rec));
+		assertTrue(copy.isLoaded());
+		assertTrue(copy.isModified());
+		assertTrue(copy.ignoreFieldTypes);
+
+		copy.restoreState(false, false, false);
+		final PwsRecord second = RecordCodec.decode(RecordCodec.encode(copy));
+		assertFalse(second.isLoaded());
+		assertFalse(second.isModified());
+		assertFalse(second.ignoreFieldTypes);
+	}
+
+	public void testSealedRecords() throws Exception {
+		final PwsFileV3 file = new PwsFileV3();
+		final PwsRecordV3 rec = (PwsRecordV3) file.newRecord();
+		rec.setField(new PwsStringUnicodeField(PwsRecordV3.TITLE, "sealed"));
+		file.add(rec);
+		file.add(file.newRecord());
+
+		assertSameFields(rec, file.getRecord(0));
+		assertNotSame(file.getRecord(0), file.getRecord(0));
+
+		final PwsRecord changed = file.getRecord(1);
+		changed.setField(new PwsStringUnicodeField(PwsRecordV3.USERNAME, "user"));
+		file.set(1, changed);
+
+		final Iterator<? extends PwsRecord> iter = file.getRecords();
+		assertSameFields(rec, iter.next());
+		assertEquals("user", iter.next().getField(PwsRecordV3.USERNAME).getValue());
+		assertFalse(iter.hasNext());
+		file.dispose();
+	}
+}
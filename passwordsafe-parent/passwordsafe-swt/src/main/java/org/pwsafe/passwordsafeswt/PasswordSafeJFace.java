@@ -23,16 +23,22 @@ import java.io.IOException;
 import java.io.Reader;
 import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Comparator;
 import java.util.Date;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Set;
 import java.util.Timer;
 import java.util.TimerTask;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.jface.action.*;
 import org.eclipse.jface.preference.IPreferenceStore;
 import org.eclipse.jface.preference.JFacePreferences;
@@ -42,7 +48,6 @@ import org.eclipse.jface.viewers.IElementComparer;
 import org.eclipse.jface.viewers.StructuredSelection;
 import org.eclipse.jface.viewers.TableViewer;
 import org.eclipse.jface.viewers.TreeViewer;
-import org.eclipse.jface.viewers.ViewerComparator;
 import org.eclipse.jface.window.ApplicationWindow;
 import org.eclipse.jface.window.Window;
 import org.eclipse.swt.SWT;
@@ -70,6 +75,8 @@ import org.eclipse.swt.widgets.TreeColumn;
 import org.eclipse.swt.widgets.TreeItem;
 import org.pwsafe.lib.datastore.PwsEntryBean;
 import org.pwsafe.lib.datastore.PwsEntryStore;
+import org.pwsafe.lib.datastore.PwsEntryStoreEvent;
+import org.pwsafe.lib.datastore.PwsEntryStoreListener;
 import org.pwsafe.lib.exception.PasswordSafeException;
 import org.pwsafe.lib.file.PwsFieldTypeV1;
 import org.pwsafe.lib.file.PwsFieldTypeV2;
@@ -80,6 +87,7 @@ import org.pwsafe.lib.file.PwsFileStorage;
 import org.pwsafe.lib.file.PwsRecord;
 import org.pwsafe.lib.file.PwsRecordV1;
 import org.pwsafe.lib.file.PwsRecordV2;
+import org.pwsafe.lib.file.PwsStoreLoader;
 import org.pwsafe.passwordsafeswt.action.*;
 import org.pwsafe.passwordsafeswt.dialog.StartupDialog;
 import org.pwsafe.passwordsafeswt.dnd.PwsEntryBeanTransfer;
@@ -92,7 +100,7 @@ import org.pwsafe.passwordsafeswt.model.PasswordTableLabelProvider;
 import org.pwsafe.passwordsafeswt.model.PasswordTableSorter;
 import org.pwsafe.passwordsafeswt.model.PasswordTreeContentProvider;
 import org.pwsafe.passwordsafeswt.model.PasswordTreeLabelProvider;
-import org.pwsafe.passwordsafeswt.model.comparator.EqualsIgnoreCasecomparator;
+import org.pwsafe.passwordsafeswt.model.PasswordTreeSorter;
 import org.pwsafe.passwordsafeswt.preference.JpwPreferenceConstants;
 import org.pwsafe.passwordsafeswt.preference.WidgetPreferences;
 import org.pwsafe.passwordsafeswt.state.LockState;
@@ -170,9 +178,35 @@ public class PasswordSafeJFace extends ApplicationWindow {
 
 	private static PasswordSafeJFace app;
 
+	/**
+	 * Milliseconds between two looks at the cancel button while loading.
+	 */
+	private static final int CANCEL_POLL_INTERVAL = 200;
+
 	private PwsFile pwsFile;
 	private PwsEntryStore dataStore;
 
+	/**
+	 * Loads the records of the current store in the background, null once
+	 * loading has finished.
+	 */
+	private PwsStoreLoader loader;
+
+	/**
+	 * Collects the entries added while a batch of loaded entries is
+	 * published, null otherwise.
+	 */
+	private List<PwsEntryBean> publishedEntries;
+
+	/**
+	 * Applies the changes of the current store to the viewers.
+	 */
+	private final PwsEntryStoreListener storeListener = new PwsEntryStoreListener() {
+		public void storeChanged(final PwsEntryStoreEvent anEvent) {
+			applyStoreChange(anEvent);
+		}
+	};
+
 	private static final String V1_GROUP_PLACEHOLDER = Messages
 			.getString("PasswordSafeJFace.V1GroupPlaceholder"); //$NON-NLS-1$
 
@@ -603,7 +637,10 @@ public class PasswordSafeJFace extends ApplicationWindow {
 	}
 
 	/**
-	 * Opens a password safe from the file system.
+	 * Opens a password safe from the file system. The passphrase is checked
+	 * on a background thread while the window keeps handling events, the
+	 * records are then loaded in the background and show up in batches. Editing stays disabled until all records are loaded and the
+	 * file has been verified.
 	 *
 	 * @param fileName
 	 * @param password
@@ -613,24 +650,236 @@ public class PasswordSafeJFace extends ApplicationWindow {
 	public void openFile(final String fileName, final StringBuilder password,
 			final boolean forReadOnly) throws Exception {
 
-		final PwsEntryStore file = PwsFileFactory.loadStore(fileName, password);
+		final PwsStoreLoader newLoader = openInBackground(fileName, password);
+		cancelLoading();
 		getShell().setText(PasswordSafeJFace.APP_NAME + " - " + fileName); //$NON-NLS-1$
-		setPwsEntryStore(file);
+		loader = newLoader;
+		setPwsEntryStore(newLoader.getStore());
 		setReadOnly(forReadOnly);
 		if (true) {// TODO (!openedFromMRU)
             UserPreferences.getInstance().setMostRecentFilename(fileName);
         }
         updateFileMenu();
+		startLoading(newLoader);
+	}
+
+	/**
+	 * Opens a safe on a background thread, as checking the passphrase and
+	 * reading the file take a while. The window is disabled but keeps
+	 * painting until then, errors such as a wrong passphrase are rethrown
+	 * here on the UI thread.
+	 */
+	private PwsStoreLoader openInBackground(final String fileName, final StringBuilder password)
+			throws Exception {
+		final Shell shell = getShell();
+		final Display display = shell.getDisplay();
+		final FutureTask<PwsStoreLoader> task = new FutureTask<PwsStoreLoader>(
+				new Callable<PwsStoreLoader>() {
+					public PwsStoreLoader call() throws Exception {
+						return PwsStoreLoader.open(fileName, password);
+					}
+				}) {
+			@Override
+			protected void done() {
+				if (!display.isDisposed()) {
+					display.wake();
+				}
+			}
+		};
+		final Thread thread = new Thread(task, "jpwsafe open"); //$NON-NLS-1$
+		thread.setDaemon(true);
+
+		final boolean enabled = shell.getEnabled();
+		shell.setEnabled(false);
+		shell.setCursor(display.getSystemCursor(SWT.CURSOR_WAIT));
+		try {
+			thread.start();
+			while (!task.isDone() && !display.isDisposed()) {
+				if (!display.readAndDispatch()) {
+					display.sleep();
+				}
+			}
+		} finally {
+			if (!shell.isDisposed()) {
+				shell.setCursor(null);
+				shell.setEnabled(enabled);
+			}
+		}
+		try {
+			return task.get();
+		} catch (final ExecutionException e) {
+			if (e.getCause() instanceof Exception) {
+				throw (Exception) e.getCause();
+			}
+			throw (Error) e.getCause();
+		}
+	}
+
+	/**
+	 * Is a safe still being loaded.
+	 *
+	 * @return true while records of the current safe are loaded in the
+	 *         background; it must not be changed until then
+	 */
+	public boolean isLoading() {
+		return loader != null;
+	}
+
+	/**
+	 * Starts loading the records, with a progress indicator in the status
+	 * line whose cancel button drops the safe.
+	 */
+	private void startLoading(final PwsStoreLoader aLoader) {
+		final Display display = getShell().getDisplay();
+		final StatusLineManager statusLine = getStatusLineManager();
+		statusLine.setCancelEnabled(true);
+		statusLine.getProgressMonitor().setCanceled(false);
+		statusLine.getProgressMonitor().beginTask(
+				Messages.getString("PasswordSafeJFace.Status.Loading"), IProgressMonitor.UNKNOWN); //$NON-NLS-1$
+
+		final AtomicBoolean publishPending = new AtomicBoolean();
+		aLoader.start(new PwsStoreLoader.Listener() {
+			public void recordsLoaded(final int aCount) {
+				// one hand over at a time, it takes all entries loaded by then
+				if (publishPending.compareAndSet(false, true)) {
+					asyncExec(display, new Runnable() {
+						public void run() {
+							publishPending.set(false);
+							publishLoadedEntries(aLoader);
+						}
+					});
+				}
+			}
+
+			public void loadFinished(final Exception anError) {
+				asyncExec(display, new Runnable() {
+					public void run() {
+						loadingFinished(aLoader, anError);
+					}
+				});
+			}
+		});
+		pollLoadingCancelled(display, aLoader);
+	}
+
+	private static void asyncExec(final Display display, final Runnable aRunnable) {
+		if (!display.isDisposed()) {
+			display.asyncExec(aRunnable);
+		}
+	}
+
+	/**
+	 * Adds the entries loaded so far to the store and the viewers, one batch
+	 * at a time.
+	 */
+	private void publishLoadedEntries(final PwsStoreLoader aLoader) {
+		if (aLoader != loader || getShell() == null || getShell().isDisposed()) {
+			return;
+		}
+		final List<PwsEntryBean> batch = new ArrayList<PwsEntryBean>();
+		publishedEntries = batch;
+		try {
+			aLoader.publish();
+		} finally {
+			publishedEntries = null;
+		}
+		if (!batch.isEmpty() && (tree != null || table != null)) {
+			if (isTreeViewShowing()) {
+				final PasswordTreeContentProvider provider = (PasswordTreeContentProvider) treeViewer
+						.getContentProvider();
+				refreshTree(provider.entriesChanged(batch.toArray(new PwsEntryBean[batch.size()])));
+			} else {
+				getTableContentProvider().addAll(batch);
+			}
+		}
+		getStatusLineManager().getProgressMonitor().subTask(
+				Messages.getString("PasswordSafeJFace.Status.EntriesLoaded") //$NON-NLS-1$
+				+ aLoader.getLoadedCount());
+	}
+
+	/**
+	 * Watches the cancel button of the status line while a safe loads. The
+	 * cancellation is reported by the loader.
+	 */
+	private void pollLoadingCancelled(final Display display, final PwsStoreLoader aLoader) {
+		display.timerExec(CANCEL_POLL_INTERVAL, new Runnable() {
+			public void run() {
+				if (aLoader != loader || getShell() == null || getShell().isDisposed()) {
+					return;
+				}
+				if (getStatusLineManager().getProgressMonitor().isCanceled()) {
+					aLoader.cancel();
+				} else {
+					pollLoadingCancelled(display, aLoader);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Adds the last entries and enables editing, or drops the safe if loading
+	 * failed or was cancelled.
+	 */
+	private void loadingFinished(final PwsStoreLoader aLoader, final Exception anError) {
+		if (aLoader != loader || getShell() == null || getShell().isDisposed()) {
+			return;
+		}
+		if (anError == null) {
+			publishLoadedEntries(aLoader);
+		}
+		loader = null;
+		final StatusLineManager statusLine = getStatusLineManager();
+		statusLine.getProgressMonitor().done();
+		statusLine.setCancelEnabled(false);
+		if (anError == null) {
+			setEditMenusEnabled(!readOnly);
+			setupStatusMessage();
+			return;
+		}
+
+		// the records may have been tampered with, drop all of them
+		final PwsFile file = getPwsFile();
+		clearPwsStore();
+		if (file != null) {
+			file.dispose();
+		}
+		getShell().setText(PasswordSafeJFace.APP_NAME);
+		if (anError instanceof CancellationException) {
+			setStatus(Messages.getString("PasswordSafeJFace.Status.LoadingCancelled")); //$NON-NLS-1$
+		} else {
+			log.error("Error loading the safe", anError); //$NON-NLS-1$
+			displayErrorDialog(
+					Messages.getString("PasswordSafeJFace.OpenError.Title"), Messages.getString("PasswordSafeJFace.OpenError.Message"), anError); //$NON-NLS-1$ //$NON-NLS-2$
+		}
 	}
 
 	/**
-	 * Save the current safe.
+	 * Stops loading the current safe, if it is still being loaded.
+	 */
+	private void cancelLoading() {
+		if (loader != null) {
+			final PwsStoreLoader oldLoader = loader;
+			loader = null;
+			oldLoader.cancel();
+			final StatusLineManager statusLine = getStatusLineManager();
+			statusLine.getProgressMonitor().done();
+			statusLine.setCancelEnabled(false);
+		}
+	}
+
+	/**
+	 * Save the current safe. A safe locked with unsaved changes, e.g. by the
+	 * idle timer, is unlocked first.
 	 *
-	 * @throws IOException if bad things happen during save
+	 * @throws IOException if bad things happen during save, or the safe stays
+	 *         locked
 	 * @throws NoSuchAlgorithmException if SHA-1 implementation not found
 	 */
 	public void saveFile() throws IOException, NoSuchAlgorithmException {
 		final PwsFile file = getPwsFile();
+		if (file.isLocked()) {
+			unlockDbAction.performUnlock();
+		}
 		if (file.getStorage() == null) {
 			saveFileAsAction.run();
 		} else {
@@ -678,7 +927,7 @@ public class PasswordSafeJFace extends ApplicationWindow {
 	public void updateAccessTime(PwsEntryBean anEntry) {
 		if (anEntry != null) {
 			// set access date
-			if (!isReadOnly() && "3".equals(anEntry.getVersion())) {
+			if (!isReadOnly() && !isLoading() && "3".equals(anEntry.getVersion())) {
 				// fetch the real entry if sparse
 				if (anEntry.isSparse()) {
 					anEntry = getPwsDataStore().getEntry(anEntry.getStoreIndex());
@@ -730,13 +979,11 @@ public class PasswordSafeJFace extends ApplicationWindow {
 	public void updateRecord(final PwsEntryBean newEntry) {
 		if (log.isDebugEnabled())
 			log.debug("Dialog has been edited, updating safe"); //$NON-NLS-1$
+		// the viewers follow the change through the store listener
 		getPwsDataStore().updateEntry(newEntry);
 		if (isDirty()) {
 			saveOnUpdateOrEditCheck();
 		}
-		// TODO: this should only be called if the the update changes visible
-		// fields
-		updateViewers();
 	}
 
 	/**
@@ -754,8 +1001,6 @@ public class PasswordSafeJFace extends ApplicationWindow {
 			displayErrorDialog(
 					Messages.getString("PasswordSafeJFace.AddEntryError.Title"), Messages.getString("PasswordSafeJFace.AddEntryError.Message"), e); //$NON-NLS-1$ //$NON-NLS-2$
 		}
-
-		updateViewers();
 	}
 
 	/**
@@ -814,7 +1059,6 @@ public class PasswordSafeJFace extends ApplicationWindow {
 		final PwsEntryBean selectedRec = getSelectedRecord();
 		getPwsDataStore().removeEntry(selectedRec);
 		saveOnUpdateOrEditCheck();
-		updateViewers();
 	}
 
 	/**
@@ -870,7 +1114,8 @@ public class PasswordSafeJFace extends ApplicationWindow {
 		// TODO check modified flag in PwsFile?
 		getPwsFile().setReadOnly(isReadOnly);
 
-		setEditMenusEnabled(!isReadOnly);
+		// a safe being loaded is enabled once it is verified
+		setEditMenusEnabled(!isReadOnly && !isLoading());
 
 		readOnly = isReadOnly;
 	}
@@ -899,21 +1144,150 @@ public class PasswordSafeJFace extends ApplicationWindow {
 	 * @param pwsEntryStore The pwsEntryStore to set.
 	 */
 	private void setPwsEntryStore(final PwsEntryStore pwsEntryStore) {
-		this.dataStore = pwsEntryStore;
+		if (pwsFile != null && pwsFile != pwsEntryStore.getPwsFile() && pwsFile.isLocked()) {
+			// replaced while locked
+			pwsFile.dispose();
+		}
+		setDataStore(pwsEntryStore);
 		pwsFile = pwsEntryStore.getPwsFile();
 		updateViewers();
 	}
 
+	/**
+	 * Replaces the current store, moving the store listener over to it. A
+	 * store still being loaded stops loading.
+	 */
+	private void setDataStore(final PwsEntryStore aStore) {
+		if (loader != null && loader.getStore() != aStore) {
+			cancelLoading();
+		}
+		if (dataStore != null) {
+			dataStore.removeStoreListener(storeListener);
+		}
+		dataStore = aStore;
+		if (dataStore != null) {
+			dataStore.addStoreListener(storeListener);
+		}
+	}
+
+	/**
+	 * Updates just the rows or groups a change of the store affects. Bulk
+	 * changes set the input again.
+	 *
+	 * @param anEvent the change
+	 */
+	private void applyStoreChange(final PwsEntryStoreEvent anEvent) {
+		if (anEvent.getStore() != dataStore || (tree == null && table == null)) {
+			return;
+		}
+		final PwsEntryBean entry = anEvent.getEntry();
+		final PwsEntryBean oldEntry = anEvent.getOldEntry();
+		if (publishedEntries != null && anEvent.getType() == PwsEntryStoreEvent.Type.ADDED) {
+			// added to the viewers with the whole batch
+			publishedEntries.add(entry);
+			return;
+		}
+		final boolean oldSelected = oldEntry != null && getSelectedRecord() == oldEntry;
+		switch (anEvent.getType()) {
+		case ADDED:
+		case UPDATED:
+		case MOVED:
+		case REMOVED:
+			if (isTreeViewShowing()) {
+				final PasswordTreeContentProvider provider = (PasswordTreeContentProvider) treeViewer
+						.getContentProvider();
+				refreshTree(provider.entriesChanged(oldEntry, entry));
+				if (oldSelected) {
+					treeViewer.setSelection(new StructuredSelection(entry), true);
+				}
+			} else {
+				final PasswordTableContentProvider provider = getTableContentProvider();
+				if (anEvent.getType() == PwsEntryStoreEvent.Type.ADDED) {
+					provider.add(entry);
+				} else if (anEvent.getType() == PwsEntryStoreEvent.Type.REMOVED) {
+					provider.remove(entry);
+				} else {
+					provider.replace(oldEntry, entry);
+					if (oldSelected) {
+						selectTableRow(entry);
+					}
+				}
+			}
+			break;
+		default:
+			updateViewers();
+		}
+	}
+
+	/**
+	 * Refreshes the tree below the parents of changed entries.
+	 *
+	 * @param someParents the parents returned by
+	 *        {@link PasswordTreeContentProvider#entriesChanged(PwsEntryBean...)}
+	 */
+	private void refreshTree(final Set<Object> someParents) {
+		for (final Object parent : someParents) {
+			if (parent == dataStore) {
+				treeViewer.refresh();
+			} else {
+				treeViewer.refresh(parent);
+			}
+		}
+	}
+
 	/**
 	 * Clears the currently loaded store.
 	 *
 	 */
 	public void clearPwsStore() {
 		this.pwsFile = null;
-		this.dataStore = PwsFileFactory.getStore(pwsFile);
+		setDataStore(PwsFileFactory.getStore(pwsFile));
 		updateViewers();
 	}
 
+	/**
+	 * Locks the currently loaded store. All entries are dropped, but the file
+	 * is kept encrypted in memory if its version supports it, so that
+	 * {@link #unlockPwsStore(StringBuilder)} doesn't have to load it again.
+	 * Otherwise the file is disposed.
+	 */
+	public void lockPwsStore() {
+		final PwsFile file = getPwsFile();
+		if (isLoading()) {
+			// a partly loaded file is not verified, it is opened again
+			cancelLoading();
+			file.dispose();
+			clearPwsStore();
+			return;
+		}
+		dataStore.clear();
+		if (file.lock()) {
+			setDataStore(PwsFileFactory.getStore(null));
+			updateViewers();
+		} else {
+			file.dispose();
+			clearPwsStore();
+		}
+	}
+
+	/**
+	 * Unlocks a store locked by {@link #lockPwsStore()} and rebuilds the
+	 * entries from the file in memory.
+	 *
+	 * @param password the passphrase, it is overwritten
+	 * @return false if no file is kept locked, it has to be opened again
+	 * @throws IOException if the passphrase is wrong
+	 */
+	public boolean unlockPwsStore(final StringBuilder password) throws IOException {
+		final PwsFile file = getPwsFile();
+		if (file == null || !file.isLocked()) {
+			return false;
+		}
+		file.unlock(password);
+		setPwsEntryStore(PwsFileFactory.getStore(file));
+		return true;
+	}
+
 	/**
 	 * Perform necessary shutdown operations, regardless of how the user exited
 	 * the application.
@@ -939,6 +1313,7 @@ public class PasswordSafeJFace extends ApplicationWindow {
 	 *
 	 */
 	public void exitApplication() {
+		cancelLoading();
 		tidyUpOnExit();
 		if (systemTray != null) {
 			systemTray.dispose();
@@ -968,7 +1343,8 @@ public class PasswordSafeJFace extends ApplicationWindow {
 	}
 
 	protected void addTableView(final Composite aComposite) {
-		tableViewer = new TableViewer(aComposite, SWT.FULL_SELECTION | SWT.BORDER);
+		// virtual, so only the visible rows get a native item
+		tableViewer = new TableViewer(aComposite, SWT.FULL_SELECTION | SWT.BORDER | SWT.VIRTUAL);
 		tableViewer.addDoubleClickListener(new ViewerDoubleClickListener());
 		table = tableViewer.getTable();
 		table.setHeaderVisible(true);
@@ -1027,32 +1403,40 @@ public class PasswordSafeJFace extends ApplicationWindow {
 	}
 
 	protected void addTreeView(final Composite aComposite) {
-		treeViewer = new TreeViewer(aComposite, SWT.BORDER);
+		// virtual, so only the visible items get a native item
+		treeViewer = new TreeViewer(aComposite, SWT.BORDER | SWT.VIRTUAL);
 		treeViewer.setLabelProvider(new PasswordTreeLabelProvider());
 		treeViewer.setContentProvider(new PasswordTreeContentProvider());
-		treeViewer.setComparator(new ViewerComparator(new EqualsIgnoreCasecomparator()));
+		treeViewer.setComparator(new PasswordTreeSorter());
 		treeViewer.addDoubleClickListener(new ViewerDoubleClickListener());
 		final int operations = DND.DROP_COPY| DND.DROP_MOVE;
 		final Transfer[] transferTypes = new Transfer[]
 				{PwsEntryBeanTransfer.getInstance(), TextTransfer.getInstance()};
 		treeViewer.addDragSupport(operations, transferTypes , new TreeDragListener(treeViewer));
 		treeViewer.addDropSupport(operations, transferTypes, new TreeDropper(treeViewer));
+		// entries are told apart by their id, which unlike the store index
+		// does not change when entries before them are removed
 		treeViewer.setComparer(new IElementComparer() {
 			public boolean equals(final Object a, final Object b) {
-				if (a instanceof PwsEntryBean && b instanceof PwsEntryBean)
-					return ((PwsEntryBean) a).getStoreIndex() == (((PwsEntryBean) b)
-							.getStoreIndex());
-				else
+				if (a instanceof PwsEntryBean && b instanceof PwsEntryBean) {
+					final PwsEntryBean entryA = (PwsEntryBean) a;
+					final PwsEntryBean entryB = (PwsEntryBean) b;
+					if (entryA.getId() != null || entryB.getId() != null)
+						return entryA.getId() != null && entryA.getId().equals(entryB.getId());
+					return entryA.getStoreIndex() == entryB.getStoreIndex();
+				} else
 					return a.equals(b);
 			}
 
 			public int hashCode(final Object element) {
-				if (element instanceof PwsEntryBean)
-					return ((PwsEntryBean) element).getStoreIndex();
-				else
+				if (element instanceof PwsEntryBean) {
+					final PwsEntryBean entry = (PwsEntryBean) element;
+					return entry.getId() != null ? entry.getId().hashCode() : entry.getStoreIndex();
+				} else
 					return element.hashCode();
 			}
 		});
+		treeViewer.setUseHashlookup(true);
 		tree = treeViewer.getTree();
 		tree.setHeaderVisible(true);
 		tree.setMenu(createPopupMenu(tree));
@@ -1106,7 +1490,7 @@ public class PasswordSafeJFace extends ApplicationWindow {
 		if (isTreeViewShowing() && tree.getSelectionCount() == 1) {
 			TreeItem ti = tree.getSelection()[0];
 
-			if (ti.getItemCount() <= 0) {// leaf node
+			if (ti.getData() instanceof PwsEntryBean) {// leaf node
 				ti = ti.getParentItem();
 			}
 			while (ti != null) {
@@ -1125,30 +1509,37 @@ public class PasswordSafeJFace extends ApplicationWindow {
 		if (isTreeViewShowing()) {
 			// todo: save previous state? treeViewer.getExpandedElements()
 
-			final String parent = ((PasswordTreeContentProvider) treeViewer
+			// expands just the groups on the path to the entry
+			final Object parent = ((PasswordTreeContentProvider) treeViewer
 					.getContentProvider()).getParent(entry);
-			final List<TreeItem> allItemsList = new ArrayList<TreeItem>();
-			allItemsList.addAll(Arrays.asList(tree.getItems()));
-
-			for (final String group : parent.split("\\.")) {
-				for (final TreeItem item : allItemsList) {
-					// TreeItem.getData is a TreeGroup
-					if (group.equals(item.getData().toString())) {
-						item.setExpanded(true);
-						treeViewer.refresh();
-						allItemsList.clear();
-						allItemsList.addAll(Arrays.asList(item.getItems()));
-						break;
-					}
-				}
+			if (parent instanceof PasswordTreeContentProvider.TreeGroup) {
+				treeViewer.expandToLevel(parent, 1);
 			}
 
 			final StructuredSelection selection = new StructuredSelection(entry);
 			treeViewer.setSelection(selection, true);
-			treeViewer.refresh(false);
 		} else {
-			tableViewer.setSelection(new StructuredSelection(entry), true);
-			tableViewer.refresh(entry, false);
+			selectTableRow(entry);
+		}
+	}
+
+	private PasswordTableContentProvider getTableContentProvider() {
+		return (PasswordTableContentProvider) tableViewer.getContentProvider();
+	}
+
+	/**
+	 * Selects and reveals the row of an entry. The virtual table is selected
+	 * by index, so the rows above it need not be filled in.
+	 *
+	 * @param entry the sparse entry
+	 */
+	private void selectTableRow(final PwsEntryBean entry) {
+		final PasswordTableContentProvider provider = getTableContentProvider();
+		final int index = provider.indexOf(entry);
+		if (index >= 0) {
+			provider.updateElement(index);
+			table.setSelection(index);
+			table.showSelection();
 		}
 	}
 
@@ -52,7 +52,7 @@ public class EditRecordAction extends Action {
 			} finally {
 				app.getLockStatus().deleteObserver(dialogue);
 			}
-			if (!app.isReadOnly()) {
+			if (!app.isReadOnly() && !app.isLoading()) {
 				final IPreferenceStore thePrefs = JFacePreferences.getPreferenceStore();
 				final boolean recordAccessTime = thePrefs
 						.getBoolean(JpwPreferenceConstants.RECORD_LAST_ACCESS_TIME);
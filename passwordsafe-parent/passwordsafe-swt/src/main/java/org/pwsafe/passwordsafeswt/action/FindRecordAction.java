@@ -10,6 +10,7 @@ package org.pwsafe.passwordsafeswt.action;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.LinkedList;
+import java.util.List;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -18,11 +19,15 @@ import org.eclipse.jface.resource.ImageDescriptor;
 import org.eclipse.swt.SWT;
 import org.eclipse.swt.events.KeyEvent;
 import org.eclipse.swt.events.KeyListener;
+import org.eclipse.swt.widgets.Display;
 import org.pwsafe.lib.datastore.PwsEntryBean;
+import org.pwsafe.lib.datastore.PwsEntrySearch;
+import org.pwsafe.lib.datastore.PwsEntryStore;
 import org.pwsafe.passwordsafeswt.PasswordSafeJFace;
 import org.pwsafe.passwordsafeswt.dialog.FindRecordDialog;
 import org.pwsafe.passwordsafeswt.model.comparator.FindMatcher;
 import org.pwsafe.passwordsafeswt.model.comparator.FullTextSubStringMatcher;
+import org.pwsafe.passwordsafeswt.model.comparator.IndexedFindMatcher;
 import org.pwsafe.passwordsafeswt.model.comparator.PwsEntryBeanGroupTitleComparator;
 import org.pwsafe.passwordsafeswt.model.comparator.PwsEntryBeanTitleComparator;
 import org.pwsafe.passwordsafeswt.model.comparator.TitleSubStringMatcher;
@@ -40,6 +45,7 @@ public class FindRecordAction extends Action {
 	public Comparator<PwsEntryBean> resultsSorter;
 
 	private FindRecordDialog findDialog;
+	private PwsEntrySearch typeAheadSearch;
 	public static final FindMatcher titleSubStringMatcher = new TitleSubStringMatcher();
 	public static final FindMatcher fullTextSubStringMatcher = new FullTextSubStringMatcher();
 
@@ -123,11 +129,70 @@ public class FindRecordAction extends Action {
 		// todo refactor to remove this overly-tight coupling? Comments or
 		// opinions gratefully received.
 		findDialog.setCallingAction(this);
+		typeAheadSearch = newTypeAheadSearch(app);
 		app.getLockStatus().addObserver(findDialog);
 		try {
 			findDialog.open();
 		} finally {
 			app.getLockStatus().deleteObserver(findDialog);
+			typeAheadSearch.dispose();
+			typeAheadSearch = null;
+		}
+	}
+
+	/**
+	 * Creates a search in the current store which shows its results on the UI
+	 * thread.
+	 */
+	private PwsEntrySearch newTypeAheadSearch(final PasswordSafeJFace app) {
+		final Display display = app.getShell().getDisplay();
+		final PwsEntryStore store = app.getPwsDataStore();
+		return new PwsEntrySearch(store, new PwsEntrySearch.Listener() {
+			public void found(final String aQuery, final List<PwsEntryBean> someEntries) {
+				if (display.isDisposed()) {
+					return;
+				}
+				display.asyncExec(new Runnable() {
+					public void run() {
+						showTypeAheadResults(store, aQuery, someEntries);
+					}
+				});
+			}
+		});
+	}
+
+	/**
+	 * Searches for the text of the find dialog while it is typed. The search
+	 * runs in the background and selects the first match once it is done,
+	 * unless the text has changed again.
+	 * 
+	 * @param newSearchString The search string that is currently in the
+	 *        dialog's text field.
+	 */
+	public void searchAsYouType(final String newSearchString) {
+		if (typeAheadSearch == null) {
+			return;
+		}
+		if (newSearchString.length() == 0) {
+			typeAheadSearch.cancel();
+		} else {
+			typeAheadSearch.search(newSearchString);
+		}
+	}
+
+	private void showTypeAheadResults(final PwsEntryStore store, final String query,
+			final List<PwsEntryBean> entries) {
+		final PasswordSafeJFace app = PasswordSafeJFace.getApp();
+		if (findDialog == null || findDialog.getShell() == null || findDialog.getShell().isDisposed()
+				|| !query.equals(findDialog.getValue()) || app.getPwsDataStore() != store) {
+			// superseded or no longer wanted
+			return;
+		}
+		searchState.setSearchString(query);
+		searchState.setResults(new LinkedList<PwsEntryBean>(entries));
+		showFirstResult();
+		if (searchState.getCurrentEntry() != null) {
+			app.highlightEntry(searchState.getCurrentEntry());
 		}
 	}
 
@@ -153,15 +218,12 @@ public class FindRecordAction extends Action {
 
 		if (!newSearchString.equals(searchState.getSearchString())) {
 			// the search string has changed so re-do the search
+			if (typeAheadSearch != null) {
+				typeAheadSearch.cancel();
+			}
 			searchState.setSearchString(newSearchString);
 			searchState.setResults(findDataStoreEntries(equality));
-
-			if (searchState.getResultCount() > 0) {
-				sortResults(searchState.getResults(), resultsSorter);
-				searchState.setCurrentEntry(searchState.getResults().getFirst());
-			} else {
-				findDialog.setErrorMessage(Messages.getString("FindAction.NoResults"));
-			}
+			showFirstResult();
 
 		} else {
 			// the search string hasn't changed so do a "find next"
@@ -189,9 +251,28 @@ public class FindRecordAction extends Action {
 			app.highlightEntry(searchState.getCurrentEntry());
 	}
 
+	/**
+	 * Sorts new results and makes the first one current.
+	 */
+	private void showFirstResult() {
+		if (searchState.getResultCount() > 0) {
+			sortResults(searchState.getResults(), resultsSorter);
+			searchState.setCurrentEntry(searchState.getResults().getFirst());
+		} else {
+			searchState.setCurrentEntry(null);
+			findDialog.setErrorMessage(Messages.getString("FindAction.NoResults"));
+		}
+	}
+
 	private LinkedList<PwsEntryBean> findDataStoreEntries(final FindMatcher matcher) {
 
 		final PasswordSafeJFace app = PasswordSafeJFace.getApp();
+		if (matcher instanceof IndexedFindMatcher) {
+			searchState.getResults().addAll(
+					((IndexedFindMatcher) matcher).findAll(searchState.getSearchString(),
+							app.getPwsDataStore()));
+			return searchState.getResults();
+		}
 		for (final PwsEntryBean entry : app.getPwsDataStore().getSparseEntries()) {
 			if (matcher.matches(searchState.getSearchString(), entry)) {
 				searchState.getResults().add(entry);
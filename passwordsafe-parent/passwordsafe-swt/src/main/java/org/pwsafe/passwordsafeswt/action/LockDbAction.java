@@ -65,11 +65,10 @@ public class LockDbAction extends Action implements Runnable {
 
 	public void performLock() {
 		final PasswordSafeJFace app = PasswordSafeJFace.getApp();
-		if (app.getPwsFile() != null) {
+		if (app.getPwsFile() != null && !app.getPwsFile().isLocked()) {
 			log.info(Messages.getString("LockDbAction.Log.Locking")); //$NON-NLS-1$
-			app.getPwsFile().dispose();
 			app.clearView();
-			app.clearPwsStore();
+			app.lockPwsStore();
 			app.setLocked(true);
 		}
 	}
@@ -58,8 +58,11 @@ public class UnlockDbAction extends Action implements Runnable {
 		StringBuilder password = pd.open();
 		if (password != null && !"".equals(password)) {
 			try {
-				app.openFile(fileName, password); // readonly state stays
-													// unchanged
+				// a file kept locked in memory only needs the passphrase
+				if (!app.unlockPwsStore(password)) {
+					app.openFile(fileName, password); // readonly state stays
+														// unchanged
+				}
 				isUnlocked = true;
 				app.setLocked(false);
 			} catch (Exception anEx) {
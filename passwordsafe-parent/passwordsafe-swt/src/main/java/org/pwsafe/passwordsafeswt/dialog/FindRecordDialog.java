@@ -16,7 +16,10 @@ import org.eclipse.jface.dialogs.IDialogConstants;
 import org.eclipse.jface.dialogs.IInputValidator;
 import org.eclipse.jface.dialogs.InputDialog;
 import org.eclipse.jface.window.Window;
+import org.eclipse.swt.events.ModifyEvent;
+import org.eclipse.swt.events.ModifyListener;
 import org.eclipse.swt.widgets.Composite;
+import org.eclipse.swt.widgets.Control;
 import org.eclipse.swt.widgets.Shell;
 import org.pwsafe.passwordsafeswt.action.FindRecordAction;
 import org.pwsafe.passwordsafeswt.state.LockState;
@@ -55,6 +58,22 @@ public class FindRecordDialog extends InputDialog implements Observer {
 		return Window.OK;
 	}
 
+	/**
+	 * Adds search as you type to the text field.
+	 */
+	@Override
+	protected Control createDialogArea(final Composite parent) {
+		final Control area = super.createDialogArea(parent);
+		getText().addModifyListener(new ModifyListener() {
+			public void modifyText(final ModifyEvent e) {
+				if (findRecordAction != null) {
+					findRecordAction.searchAsYouType(getValue());
+				}
+			}
+		});
+		return area;
+	}
+
 	@Override
 	protected void buttonPressed(final int buttonId) {
 		setErrorMessage(null);
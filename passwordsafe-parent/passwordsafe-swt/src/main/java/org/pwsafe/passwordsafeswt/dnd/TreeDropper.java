@@ -106,6 +106,9 @@ public final class TreeDropper extends ViewerDropAdapter {
 	@Override
 	public boolean validateDrop(final Object target, final int operation,
 			final TransferData type) {
+		if (PasswordSafeJFace.getApp().isLoading()) {
+			return false;
+		}
 		if (PwsEntryBeanTransfer.getInstance().isSupportedType(type)) {
 			return true;
 		}
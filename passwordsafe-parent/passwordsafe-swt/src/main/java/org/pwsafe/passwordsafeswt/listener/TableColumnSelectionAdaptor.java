@@ -10,6 +10,7 @@ package org.pwsafe.passwordsafeswt.listener;
 import org.eclipse.jface.viewers.TableViewer;
 import org.eclipse.swt.events.SelectionAdapter;
 import org.eclipse.swt.events.SelectionEvent;
+import org.pwsafe.passwordsafeswt.model.PasswordTableContentProvider;
 import org.pwsafe.passwordsafeswt.model.PasswordTableSorter;
 
 /**
@@ -32,6 +33,8 @@ public class TableColumnSelectionAdaptor extends SelectionAdapter {
 	public void widgetSelected(SelectionEvent se) {
 		PasswordTableSorter pts = (PasswordTableSorter) tv.getComparator();
 		pts.sortOnColumn(columnNumber);
+		// the virtual table keeps its rows sorted in the content provider
+		((PasswordTableContentProvider) tv.getContentProvider()).sort();
 		tv.refresh();
 	}
 
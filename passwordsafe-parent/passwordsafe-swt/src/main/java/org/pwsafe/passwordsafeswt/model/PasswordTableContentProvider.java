@@ -7,30 +7,46 @@
  */
 package org.pwsafe.passwordsafeswt.model;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
-import org.eclipse.jface.viewers.IStructuredContentProvider;
+import org.eclipse.jface.viewers.ILazyContentProvider;
+import org.eclipse.jface.viewers.TableViewer;
 import org.eclipse.jface.viewers.Viewer;
+import org.eclipse.jface.viewers.ViewerComparator;
 import org.pwsafe.lib.datastore.PwsEntryBean;
 import org.pwsafe.lib.datastore.PwsEntryStore;
 
 /**
- * Content Provider for the Table.
+ * Lazy content provider for the virtual table.
+ * <p>
+ * The rows are the sparse entries of the store, kept in the order of the
+ * viewer's comparator, as a virtual viewer does not sort by itself. Only the
+ * visible rows are filled in. Single entries are added and removed by binary
+ * search instead of sorting all rows again.
  * 
  * @author Glen Smith
  */
-public class PasswordTableContentProvider implements IStructuredContentProvider {
+public class PasswordTableContentProvider implements ILazyContentProvider {
 
 	private static final Log log = LogFactory.getLog(PasswordTableContentProvider.class);
 
 	PwsEntryStore dataStore;
 
+	private TableViewer viewer;
+
+	private List<PwsEntryBean> rows = new ArrayList<PwsEntryBean>();
+
 	/**
 	 * @see org.eclipse.jface.viewers.IContentProvider#dispose()
 	 */
 	public void dispose() {
-		// TODO Auto-generated method stub
-
+		rows.clear();
 	}
 
 	/**
@@ -38,24 +54,164 @@ public class PasswordTableContentProvider implements IStructuredContentProvider
 	 *      java.lang.Object, java.lang.Object)
 	 */
 	public void inputChanged(final Viewer vwr, final Object oldInput, final Object newInput) {
+		viewer = (TableViewer) vwr;
 		if (newInput instanceof PwsEntryStore) {
 			dataStore = (PwsEntryStore) newInput;
+		} else {
+			dataStore = null;
 		}
+		sort();
 
 		if (log.isDebugEnabled())
 			log.debug("Input changed fired");
 	}
 
 	/**
-	 * @see org.eclipse.jface.viewers.IStructuredContentProvider#getElements(java.lang.Object)
+	 * @see org.eclipse.jface.viewers.ILazyContentProvider#updateElement(int)
+	 */
+	public void updateElement(final int index) {
+		if (index < rows.size()) {
+			viewer.replace(rows.get(index), index);
+		}
+	}
+
+	/**
+	 * Sorts all rows again, e.g. after the sort column has changed. The
+	 * viewer has to be refreshed afterwards.
+	 */
+	public void sort() {
+		rows = dataStore == null ? new ArrayList<PwsEntryBean>() : new ArrayList<PwsEntryBean>(
+				dataStore.getSparseEntries());
+		final Comparator<Object> comparator = getRowComparator();
+		if (comparator != null) {
+			Collections.sort(rows, comparator);
+		}
+		viewer.setItemCount(rows.size());
+	}
+
+	/**
+	 * Inserts a new sparse entry at its sorted position.
+	 * 
+	 * @param anEntry the sparse entry
+	 */
+	public void add(final PwsEntryBean anEntry) {
+		insert(anEntry);
+		refresh();
+	}
+
+	/**
+	 * Adds a batch of new sparse entries, e.g. while a safe loads. They are
+	 * merged into the sorted rows and the viewer is refreshed once.
+	 * 
+	 * @param someEntries the sparse entries
+	 */
+	public void addAll(final Collection<PwsEntryBean> someEntries) {
+		rows.addAll(someEntries);
+		final Comparator<Object> comparator = getRowComparator();
+		if (comparator != null) {
+			// a stable merge sort only sorts the batch and merges it in
+			Collections.sort(rows, comparator);
+		}
+		refresh();
+	}
+
+	/**
+	 * Removes a sparse entry.
+	 * 
+	 * @param anEntry the sparse entry
+	 */
+	public void remove(final PwsEntryBean anEntry) {
+		final int index = indexOf(anEntry);
+		if (index >= 0) {
+			rows.remove(index);
+			refresh();
+		}
+	}
+
+	/**
+	 * Replaces the sparse entry of an updated record, moving it to its new
+	 * sorted position.
+	 * 
+	 * @param anOldEntry the sparse entry before the update
+	 * @param aNewEntry the sparse entry after the update
+	 */
+	public void replace(final PwsEntryBean anOldEntry, final PwsEntryBean aNewEntry) {
+		final int index = indexOf(anOldEntry);
+		if (index >= 0) {
+			rows.remove(index);
+		}
+		final int newIndex = insert(aNewEntry);
+		if (newIndex == index) {
+			// still in place, only this row needs to be painted again
+			viewer.replace(aNewEntry, index);
+		} else {
+			refresh();
+		}
+	}
+
+	/**
+	 * Finds the row of a sparse entry.
+	 * 
+	 * @param anEntry the sparse entry
+	 * @return the row index, or -1 if the entry is not shown
 	 */
-	public Object[] getElements(final Object inputElement) {
+	public int indexOf(final PwsEntryBean anEntry) {
+		final Comparator<Object> comparator = getRowComparator();
+		if (comparator != null) {
+			final int found = Collections.binarySearch(rows, anEntry, comparator);
+			// entries may compare equal, look for the same one among them
+			for (int i = found; i >= 0 && comparator.compare(rows.get(i), anEntry) == 0; i--) {
+				if (rows.get(i) == anEntry) {
+					return i;
+				}
+			}
+			for (int i = found + 1; found >= 0 && i < rows.size()
+					&& comparator.compare(rows.get(i), anEntry) == 0; i++) {
+				if (rows.get(i) == anEntry) {
+					return i;
+				}
+			}
+		}
+		for (int i = 0; i < rows.size(); i++) {
+			if (rows.get(i) == anEntry) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private int insert(final PwsEntryBean anEntry) {
+		final Comparator<Object> comparator = getRowComparator();
+		int index = rows.size();
+		if (comparator != null) {
+			index = Collections.binarySearch(rows, anEntry, comparator);
+			if (index < 0) {
+				index = -index - 1;
+			}
+		}
+		rows.add(index, anEntry);
+		return index;
+	}
+
+	/**
+	 * Updates the row count and lets the viewer fill in the visible rows
+	 * again.
+	 */
+	private void refresh() {
+		viewer.setItemCount(rows.size());
+		viewer.refresh();
+	}
 
-		if (inputElement instanceof PwsEntryStore) {
-			dataStore = (PwsEntryStore) inputElement;
-			return dataStore.getSparseEntries().toArray();
+	private Comparator<Object> getRowComparator() {
+		final ViewerComparator comparator = viewer.getComparator();
+		if (comparator == null) {
+			return null;
 		}
-		return new PwsEntryBean[0];
+		return new Comparator<Object>() {
+			public int compare(final Object o1, final Object o2) {
+				return comparator.compare(viewer, o1, o2);
+			}
+		};
 	}
 
-}
\ No newline at end of file
+}
@@ -7,7 +7,6 @@
  */
 package org.pwsafe.passwordsafeswt.model;
 
-import java.text.SimpleDateFormat;
 import java.util.Date;
 
 import org.eclipse.jface.preference.IPreferenceStore;
@@ -15,12 +14,15 @@ import org.eclipse.jface.preference.JFacePreferences;
 import org.eclipse.jface.viewers.Viewer;
 import org.eclipse.jface.viewers.ViewerComparator;
 import org.pwsafe.lib.datastore.PwsEntryBean;
-import org.pwsafe.passwordsafeswt.model.comparator.EqualsIgnoreCasecomparator;
 import org.pwsafe.passwordsafeswt.preference.JpwPreferenceConstants;
 
 /**
  * Implements the sorting logic for the table. Most of this was lifted straight
  * from "Definitive Guide to SWT & JFace" - a very cool SWT book.
+ * <p>
+ * Text columns compare the sort keys cached on the entries, so a sort does not
+ * collate any strings once the keys exist. The viewer also uses this sorter to
+ * find the position of a single added entry by binary search.
  *
  * @author Glen Smith
  *
@@ -33,8 +35,15 @@ public class PasswordTableSorter extends ViewerComparator {
 	private int column;
 	private int direction;
 
+	/**
+	 * Whether the third column shows the notes, as the table was built with.
+	 */
+	private final boolean showNotes;
+
 	public PasswordTableSorter() {
-		super (new EqualsIgnoreCasecomparator());
+		super();
+		final IPreferenceStore thePrefs = JFacePreferences.getPreferenceStore();
+		showNotes = thePrefs.getBoolean(JpwPreferenceConstants.SHOW_NOTES_IN_LIST);
 	}
 
 	public void sortOnColumn(final int columnNumber) {
@@ -50,9 +59,6 @@ public class PasswordTableSorter extends ViewerComparator {
 	@Override
 	public int compare(final Viewer arg0, final Object a, final Object b) {
 
-		final IPreferenceStore thePrefs = JFacePreferences.getPreferenceStore();
-		final boolean showNotes = thePrefs.getBoolean(JpwPreferenceConstants.SHOW_NOTES_IN_LIST);
-
 		int rc = 0;
 
 		final PwsEntryBean entry1 = (PwsEntryBean) a;
@@ -61,21 +67,21 @@ public class PasswordTableSorter extends ViewerComparator {
 		switch (column) {
 
 		case 1:
-			rc = getComparator().compare(entry1.getTitle(), entry2.getTitle());
+			rc = entry1.getTitleSortKey().compareTo(entry2.getTitleSortKey());
 			break;
 		case 2:
-			rc = getComparator().compare(entry1.getUsername(), entry2.getUsername());
+			rc = entry1.getUsernameSortKey().compareTo(entry2.getUsernameSortKey());
 			break;
 
 		case 3:
 			if (showNotes) {
-				rc = getComparator().compare(entry1.getNotes(), entry2.getNotes());
+				rc = entry1.getNotesSortKey().compareTo(entry2.getNotesSortKey());
 			} else {
-				rc = getComparator().compare(safeFormatDate(entry1.getLastChange()), safeFormatDate(entry2.getLastChange()));
+				rc = compareDates(entry1.getLastChange(), entry2.getLastChange());
 			}
 			break;
 		case 4:
-			rc = getComparator().compare(safeFormatDate(entry1.getLastChange()), safeFormatDate(entry2.getLastChange()));
+			rc = compareDates(entry1.getLastChange(), entry2.getLastChange());
 			break;
 		}
 
@@ -85,8 +91,10 @@ public class PasswordTableSorter extends ViewerComparator {
 		return rc;
 	}
 
-	private String safeFormatDate(final Date aDate) {
-		final SimpleDateFormat dateformat = new SimpleDateFormat("YYYY-MM-dd");
-		return aDate == null ? "" : dateformat.format(aDate);
+	private int compareDates(final Date aDate, final Date anotherDate) {
+		if (aDate == null) {
+			return anotherDate == null ? 0 : -1;
+		}
+		return anotherDate == null ? 1 : aDate.compareTo(anotherDate);
 	}
 }
@@ -7,29 +7,48 @@
  */
 package org.pwsafe.passwordsafeswt.model;
 
+import java.text.CollationKey;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.eclipse.jface.viewers.ISelection;
-import org.eclipse.jface.viewers.ITreeContentProvider;
+import org.eclipse.jface.viewers.ILazyTreeContentProvider;
+import org.eclipse.jface.viewers.TreeViewer;
 import org.eclipse.jface.viewers.Viewer;
+import org.eclipse.jface.viewers.ViewerComparator;
+import org.pwsafe.lib.Util;
 import org.pwsafe.lib.datastore.PwsEntryBean;
 import org.pwsafe.lib.datastore.PwsEntryStore;
+import org.pwsafe.lib.datastore.PwsGroupNode;
 import org.pwsafe.passwordsafeswt.PasswordSafeJFace;
 
 /**
- * Content provider for the tree.
+ * Lazy content provider for the virtual tree. Only the visible items are
+ * filled in, and the children of a group are looked up in the group tree of
+ * the store and sorted only once the group is shown.
  * 
  * @author Glen Smith
  */
-public class PasswordTreeContentProvider implements ITreeContentProvider {
+public class PasswordTreeContentProvider implements ILazyTreeContentProvider {
 
 	private static final Log log = LogFactory.getLog(PasswordTreeContentProvider.class);
 
 	PwsEntryStore dataStore;
 
+	private TreeViewer viewer;
+
+	/**
+	 * Sorted children by parent element, kept until the input is set again.
+	 */
+	private final Map<Object, Object[]> childrenCache = new HashMap<Object, Object[]>();
+
 	/**
 	 * This class represents a group displayed in the tree.
 	 */
@@ -38,6 +57,7 @@ public class PasswordTreeContentProvider implements ITreeContentProvider {
 		private static final char GROUP_SEPARATOR = '.';
 		String parent = "";
 		String name = "";
+		private CollationKey sortKey;
 
 		public TreeGroup(String groupPath) {
 			if (groupPath == null) {
@@ -68,6 +88,16 @@ public class PasswordTreeContentProvider implements ITreeContentProvider {
 			return name;
 		}
 
+		/**
+		 * @return the key to sort the group by its name, computed once
+		 */
+		public CollationKey getSortKey() {
+			if (sortKey == null) {
+				sortKey = Util.getSortKey(name);
+			}
+			return sortKey;
+		}
+
 		public String getGroupPath () {
 			return parent.length() == 0 ? name : parent + GROUP_SEPARATOR + name;
 		}
@@ -122,110 +152,187 @@ public class PasswordTreeContentProvider implements ITreeContentProvider {
 	}
 
 	/**
-	 * @see org.eclipse.jface.viewers.ITreeContentProvider#getChildren(java.lang.Object)
+	 * @see org.eclipse.jface.viewers.ILazyTreeContentProvider#updateElement(java.lang.Object,
+	 *      int)
 	 */
-	public Object[] getChildren(final Object parentElement) {
-		final Set matchingRecs = new LinkedHashSet();
-		if (parentElement instanceof TreeGroup) {
-			final TreeGroup element = (TreeGroup) parentElement;
-			final String parentGroup = element.getGroupPath();
-
-			// return all entries matching this group...
-			for (final PwsEntryBean theEntry : dataStore.getSparseEntries()) {
-				String entryGroup = "";
-				if (!"1".equals(theEntry.getVersion()))
-					entryGroup = theEntry.getGroup();
-
-				// TODO: This looks as if it breaks for V1 files
-				if (parentGroup.equalsIgnoreCase(entryGroup)) {
-					log.debug("Adding record");
-					matchingRecs.add(theEntry);
-				} else if (isChild(parentGroup, entryGroup)) {
-					log.debug("Adding group");
-					final int nextDot = entryGroup.indexOf('.', parentGroup.length() + 1);
-					final int endOfGroup = nextDot > 0 ? nextDot : entryGroup.length();
-					final String subGroup = entryGroup.substring(0, endOfGroup);
-					matchingRecs.add(new TreeGroup(subGroup));
-				}
-			}
+	public void updateElement(final Object parent, final int index) {
+		final Object[] children = getChildren(parent);
+		if (index < children.length) {
+			final Object child = children[index];
+			viewer.replace(parent, index, child);
+			viewer.setHasChildren(child, child instanceof TreeGroup);
 		}
-		return matchingRecs.toArray();
 	}
 
-	private boolean isChild(final String stringParent, final String recGroup) {
-		return recGroup.length() > stringParent.length() && recGroup.contains(".")
-				&& recGroup.startsWith(stringParent)
-				&& (recGroup.charAt(stringParent.length()) == '.');
+	/**
+	 * @see org.eclipse.jface.viewers.ILazyTreeContentProvider#updateChildCount(java.lang.Object,
+	 *      int)
+	 */
+	public void updateChildCount(final Object element, final int currentChildCount) {
+		final int count = getChildren(element).length;
+		if (count != currentChildCount) {
+			viewer.setChildCount(element, count);
+		}
 	}
 
 	/**
-	 * @see org.eclipse.jface.viewers.ITreeContentProvider#getParent(java.lang.Object)
+	 * Returns the sorted content of a group or of the store, sorting it the
+	 * first time it is asked for.
 	 */
-	public String getParent(final Object element) {
-		if (element instanceof PwsEntryBean) {
-			return ((PwsEntryBean) element).getGroup();
-		} else if (element instanceof TreeGroup) {
-			final TreeGroup theGroup = (TreeGroup) element;
-			return theGroup.getParent();
+	private Object[] getChildren(final Object parentElement) {
+		Object[] children = childrenCache.get(parentElement);
+		if (children == null) {
+			children = new Object[0];
+			if (dataStore != null) {
+				PwsGroupNode node = null;
+				if (parentElement instanceof PwsEntryStore) {
+					node = dataStore.getGroupTree();
+				} else if (parentElement instanceof TreeGroup) {
+					node = dataStore.getGroupTree().find(((TreeGroup) parentElement).getGroupPath());
+					if (node != null && node.isRoot()) {
+						node = null;
+					}
+				}
+				if (node != null) {
+					children = getContent(node);
+				}
+			}
+			childrenCache.put(parentElement, children);
 		}
-		return null;
+		return children;
 	}
 
 	/**
-	 * @see org.eclipse.jface.viewers.ITreeContentProvider#hasChildren(java.lang.Object)
+	 * Returns the child groups and the entries of a group, in the order of
+	 * the viewer's comparator.
 	 */
-	public boolean hasChildren(final Object node) {
-		return node instanceof TreeGroup; // only
-		// groups
-		// have
-		// children
+	private Object[] getContent(final PwsGroupNode aNode) {
+		final List<Object> content = new ArrayList<Object>(aNode.getGroups().size()
+				+ aNode.getEntries().size());
+		for (final PwsGroupNode group : aNode.getGroups()) {
+			content.add(new TreeGroup(group.getPath()));
+		}
+		content.addAll(aNode.getEntries());
+		final Object[] children = content.toArray();
+		final ViewerComparator comparator = viewer.getComparator();
+		if (comparator != null) {
+			comparator.sort(viewer, children);
+		}
+		return children;
 	}
 
 	/**
-	 * @see org.eclipse.jface.viewers.IStructuredContentProvider#getElements(java.lang.Object)
+	 * Drops the cached children a change of entries affects and returns the
+	 * elements whose children must be refreshed. That is the group of an
+	 * entry, or the nearest shown group above it if groups appeared or
+	 * disappeared. Groups which were never shown are not refreshed.
+	 * 
+	 * @param someEntries the changed sparse entries, old and new ones, may
+	 *            contain null
+	 * @return the elements to refresh, the store for the top level
 	 */
-	public Object[] getElements(final Object inputElement) {
-		final Set rootElements = new LinkedHashSet();
-		if (inputElement instanceof PwsEntryStore) {
-			dataStore = (PwsEntryStore) inputElement;
-			for (final PwsEntryBean entry : dataStore.getSparseEntries()) {
-				if ("1".equals(entry.getVersion())) {
-					rootElements.add(entry);
-				} else {
-					String recGroup = "";
-					if (entry.getGroup() != null) {
-						recGroup = entry.getGroup();
-					}
-					if (recGroup.trim().length() == 0) { // empty group name
-						rootElements.add(entry);
-					} else { // add node for group name
-						if (recGroup.indexOf('.') > 0) {
-							recGroup = recGroup.substring(0, recGroup.indexOf('.'));
-						}
-						rootElements.add(new TreeGroup(recGroup));
+	public Set<Object> entriesChanged(final PwsEntryBean... someEntries) {
+		final Set<Object> refresh = new LinkedHashSet<Object>();
+		final Set<String> staleGroups = new LinkedHashSet<String>();
+		for (final PwsEntryBean entry : someEntries) {
+			if (entry != null && dataStore != null) {
+				final Object parent = findChangedParent(PwsGroupNode.getGroupPath(entry), staleGroups);
+				if (parent != null) {
+					refresh.add(parent);
+				}
+			}
+		}
+		for (final Object parent : refresh) {
+			childrenCache.remove(parent);
+		}
+		for (final Iterator<Object> it = childrenCache.keySet().iterator(); it.hasNext();) {
+			final Object parent = it.next();
+			if (parent instanceof TreeGroup) {
+				final String path = ((TreeGroup) parent).getGroupPath();
+				for (final String stale : staleGroups) {
+					if (path.equals(stale) || path.startsWith(stale + PwsGroupNode.SEPARATOR)) {
+						it.remove();
+						break;
 					}
 				}
 			}
+		}
+		return refresh;
+	}
 
+	/**
+	 * Walks down the shown groups to an entry's group. Stops at the first
+	 * level whose child groups no longer match the store and remembers the
+	 * group below it as stale.
+	 */
+	private Object findChangedParent(final String aGroupPath, final Set<String> staleGroups) {
+		Object parent = dataStore;
+		String parentPath = "";
+		for (;;) {
+			final Object[] children = childrenCache.get(parent);
+			if (children == null) {
+				// not shown yet, it is sorted when it is
+				return null;
+			}
+			if (parentPath.equals(aGroupPath)) {
+				return parent;
+			}
+			final int end = aGroupPath.indexOf(PwsGroupNode.SEPARATOR, parentPath.length() == 0 ? 0
+					: parentPath.length() + 1);
+			final String path = end < 0 ? aGroupPath : aGroupPath.substring(0, end);
+			final TreeGroup group = new TreeGroup(path);
+			boolean shown = false;
+			for (final Object child : children) {
+				if (group.equals(child)) {
+					shown = true;
+					break;
+				}
+			}
+			if (shown != (dataStore.getGroupTree().find(path) != null)) {
+				staleGroups.add(path);
+				return parent;
+			}
+			parent = group;
+			parentPath = path;
 		}
-		return rootElements.toArray();
+	}
+
+	/**
+	 * Returns the group of an entry or the parent group of a group, or the
+	 * store for the top level, so viewers can reveal an element.
+	 * 
+	 * @see org.eclipse.jface.viewers.ILazyTreeContentProvider#getParent(java.lang.Object)
+	 */
+	public Object getParent(final Object element) {
+		String parentGroup = "";
+		if (element instanceof PwsEntryBean) {
+			parentGroup = PwsGroupNode.getGroupPath((PwsEntryBean) element);
+		} else if (element instanceof TreeGroup) {
+			parentGroup = ((TreeGroup) element).getParent();
+		} else {
+			return null;
+		}
+		return parentGroup.length() == 0 ? dataStore : new TreeGroup(parentGroup);
 	}
 
 	/**
 	 * @see org.eclipse.jface.viewers.IContentProvider#dispose()
 	 */
 	public void dispose() {
-		// TODO Auto-generated method stub
-
+		childrenCache.clear();
 	}
 
 	/**
-	 * This is called when the view is changed from TreeView to TableView
+	 * This is called when the view is changed from TreeView to TableView, and
+	 * whenever the store is set again after a change. Children are sorted
+	 * again on demand.
 	 * 
 	 * @see org.eclipse.jface.viewers.IContentProvider#inputChanged(org.eclipse.jface.viewers.Viewer,
 	 *      java.lang.Object, java.lang.Object)
 	 */
 	public void inputChanged(final Viewer tv, final Object oldInput, final Object newInput) {
+		viewer = (TreeViewer) tv;
+		childrenCache.clear();
 		final ISelection selection = tv.getSelection();
 		if (newInput instanceof PwsEntryStore) {
 			dataStore = (PwsEntryStore) newInput;
@@ -244,4 +351,4 @@ public class PasswordTreeContentProvider implements ITreeContentProvider {
 
 	}
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,33 @@
+/*
+ * Copyright (c) 2008-2014 David Muller <roxon@users.sourceforge.net>.
+ * All rights reserved. Use of the code is allowed under the
+ * Artistic License 2.0 terms, as specified in the LICENSE file
+ * distributed with this code, or available from
+ * http://www.opensource.org/licenses/artistic-license-2.0.php
+ */
+package org.pwsafe.passwordsafeswt.model;
+
+import java.text.CollationKey;
+
+import org.eclipse.jface.viewers.Viewer;
+import org.eclipse.jface.viewers.ViewerComparator;
+import org.pwsafe.lib.datastore.PwsEntryBean;
+
+/**
+ * Sorts the tree by the shown names of groups and entries, using their cached
+ * sort keys instead of comparing labels.
+ */
+public class PasswordTreeSorter extends ViewerComparator {
+
+	@Override
+	public int compare(final Viewer aViewer, final Object a, final Object b) {
+		return sortKeyOf(a).compareTo(sortKeyOf(b));
+	}
+
+	private CollationKey sortKeyOf(final Object anElement) {
+		if (anElement instanceof PwsEntryBean) {
+			return ((PwsEntryBean) anElement).getTitleSortKey();
+		}
+		return ((PasswordTreeContentProvider.TreeGroup) anElement).getSortKey();
+	}
+}
@@ -7,24 +7,29 @@
  */
 package org.pwsafe.passwordsafeswt.model.comparator;
 
+import java.util.List;
+
+import org.pwsafe.lib.Util;
 import org.pwsafe.lib.datastore.PwsEntryBean;
+import org.pwsafe.lib.datastore.PwsEntryStore;
 
 /**
+ * Matches the id, group, title, user name, notes and URL, ignoring case and
+ * accents.
+ * 
  * @author Tim Hughes
  */
-public class FullTextSubStringMatcher implements FindMatcher {
-	public boolean matches(final String searchString, final PwsEntryBean entry) {
-		boolean matches = false;
-		final String lowerCaseSearchString = searchString.toLowerCase();
+public class FullTextSubStringMatcher implements IndexedFindMatcher {
 
-		for (final String fieldValue : entry.getFields().values()) {
-			if (fieldValue == null)
-				continue;
-			matches = fieldValue.toLowerCase().contains(lowerCaseSearchString);
-			if (matches)
-				break;
-		}
+	/**
+	 * Uses the text index of the store, which matches just like
+	 * {@link #matches(String, PwsEntryBean)}.
+	 */
+	public List<PwsEntryBean> findAll(final String searchString, final PwsEntryStore store) {
+		return store.findEntries(searchString);
+	}
 
-		return matches;
+	public boolean matches(final String searchString, final PwsEntryBean entry) {
+		return entry.getNormalizedSearchText().contains(Util.normalizeForSearch(searchString));
 	}
 }
\ No newline at end of file
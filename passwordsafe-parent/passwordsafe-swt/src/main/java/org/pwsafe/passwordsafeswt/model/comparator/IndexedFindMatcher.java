@@ -0,0 +1,28 @@
+/*
+ * Copyright (c) 2010-2014 David Muller <roxon@users.sourceforge.net>.
+ * All rights reserved. Use of the code is allowed under the
+ * Artistic License 2.0 terms, as specified in the LICENSE file
+ * distributed with this code, or available from
+ * http://www.opensource.org/licenses/artistic-license-2.0.php
+ */
+package org.pwsafe.passwordsafeswt.model.comparator;
+
+import java.util.List;
+
+import org.pwsafe.lib.datastore.PwsEntryBean;
+import org.pwsafe.lib.datastore.PwsEntryStore;
+
+/**
+ * A {@link FindMatcher} which can ask the indexes of a store for all matching
+ * entries instead of being called for each entry.
+ */
+public interface IndexedFindMatcher extends FindMatcher {
+
+	/**
+	 * @param searchString the string to look for
+	 * @param store the store to search
+	 * @return all sparse entries of the store that
+	 *         {@link #matches(String, PwsEntryBean)}
+	 */
+	public List<PwsEntryBean> findAll(final String searchString, final PwsEntryStore store);
+}
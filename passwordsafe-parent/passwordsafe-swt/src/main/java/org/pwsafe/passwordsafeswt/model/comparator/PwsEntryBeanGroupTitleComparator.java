@@ -13,7 +13,7 @@ import org.pwsafe.lib.datastore.PwsEntryBean;
 
 /**
  * Compares two PwsEntryBeans by group and title.
- * Works well for tree view.
+ * Works well for tree view. Uses the sort keys cached on the entries.
  * 
  * @author roxon
  */
@@ -61,22 +61,14 @@ public class PwsEntryBeanGroupTitleComparator implements Comparator<PwsEntryBean
 	 *         being compared by this comparator.
 	 */
 	public int compare(final PwsEntryBean o1, final PwsEntryBean o2) {
-		int returnValue = nullSafeCompare (o1.getGroup(), o2.getGroup());
+		int returnValue = o1.getGroupSortKey().compareTo(o2.getGroupSortKey());
 
 		if (returnValue == 0) {
 			// They're in the same directory
-			returnValue = nullSafeCompare(o1.getTitle(), o2.getTitle());
+			returnValue = o1.getTitleSortKey().compareTo(o2.getTitleSortKey());
 		}
 
 		return returnValue;
 	}
-	private int nullSafeCompare (final String one, final String two) {
-		if (one != null) {
-			return one.compareTo(two);
-		} else {
-			return two == null ? 0 : -1;
-		}
-
-	}
 
 }
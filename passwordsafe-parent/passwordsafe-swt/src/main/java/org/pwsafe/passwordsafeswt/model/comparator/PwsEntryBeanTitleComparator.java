@@ -13,7 +13,7 @@ import org.pwsafe.lib.datastore.PwsEntryBean;
 
 /**
  * Compares two PwsEntryBeans by title only.
- * Works well for table.
+ * Works well for table. Uses the sort keys cached on the entries.
  * 
  * @author roxon
  */
@@ -61,16 +61,7 @@ public class PwsEntryBeanTitleComparator implements Comparator<PwsEntryBean> {
 	 *         being compared by this comparator.
 	 */
 	public int compare(final PwsEntryBean o1, final PwsEntryBean o2) {
-		return nullSafeCompare(o1.getTitle(), o2.getTitle());
-	}
-
-	private int nullSafeCompare (final String one, final String two) {
-		if (one != null) {
-			return one.compareTo(two);
-		} else {
-			return two == null ? 0 : -1;
-		}
-
+		return o1.getTitleSortKey().compareTo(o2.getTitleSortKey());
 	}
 
 }
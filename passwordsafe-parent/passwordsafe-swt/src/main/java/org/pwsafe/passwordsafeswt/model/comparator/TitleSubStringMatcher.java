@@ -7,14 +7,18 @@
  */
 package org.pwsafe.passwordsafeswt.model.comparator;
 
+import org.pwsafe.lib.Util;
 import org.pwsafe.lib.datastore.PwsEntryBean;
 
 /**
+ * Matches the title, ignoring case and accents.
+ * 
  * @author Tim Hughes
  */
 public class TitleSubStringMatcher implements FindMatcher {
 	public boolean matches(final String searchString, final PwsEntryBean entry) {
 
-		return entry.getTitle().toLowerCase().contains(searchString.toLowerCase());
+		final String title = entry.getNormalizedTitle();
+		return title != null && title.contains(Util.normalizeForSearch(searchString));
 	}
 }
@@ -51,6 +51,20 @@ public class EqualsIgnoreCaseComparatorTest extends TestCase {
 		assertTrue( comparator.compare( o2, o1 ) > 0 );
 	}
 
+	public void testCompareIgnoresCaseAndAccents() {
+		final PwsEntryBean o1 = new PwsEntryBean("Abcd", "username", new StringBuilder("password"), "notes" );
+		o1.setTitle( "\u00c9cole" );
+		final PwsEntryBean o2 = new PwsEntryBean("abcd", "username", new StringBuilder("password"), "notes" );
+		o2.setTitle( "ecole" );
+		assertEquals( 0, comparator.compare( o1, o2 ) );
+
+		// the cached sort key follows the title
+		o2.setTitle( "foo" );
+		assertTrue( comparator.compare( o1, o2 ) < 0 );
+		o1.setTitle( "zoo" );
+		assertTrue( comparator.compare( o1, o2 ) > 0 );
+	}
+
 
 
 }